@@ -0,0 +1,88 @@
+package nl.minicom.gitolite.manager.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nl.minicom.gitolite.manager.exceptions.GitException;
+import nl.minicom.gitolite.manager.models.Directories;
+import nl.minicom.gitolite.manager.models.SyntheticConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Measures committing a changed configuration file and one changed key to a repository 
+ * which already contains the requested number of keys, with the {@link JGitManager} which 
+ * goes through a working directory, and with the {@link ObjectGitManager} which writes 
+ * objects to a bare repository directly.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GitManagerBenchmark {
+
+	@Param({ "JGitManager", "ObjectGitManager" })
+	private String implementation;
+
+	@Param({ "1000" })
+	private int keys;
+
+	private File directory;
+	private GitManager git;
+	private String config;
+	private int commits;
+
+	@Setup
+	public void setUp() throws IOException, GitException {
+		directory = Files.createTempDir();
+		if ("JGitManager".equals(implementation)) {
+			git = new JGitManager(directory, null);
+		}
+		else {
+			git = new ObjectGitManager(directory, null);
+		}
+		git.init();
+
+		config = SyntheticConfig.render(SyntheticConfig.generate(1000, keys, 100, 5));
+		git.write("conf/gitolite.conf", config.getBytes(Charsets.UTF_8));
+		for (int i = 0; i < keys; i++) {
+			git.write("keydir/" + SyntheticConfig.getUserName(i) + ".pub", SyntheticConfig.getKey(i).getBytes(Charsets.UTF_8));
+		}
+		git.commit("Initial config");
+	}
+
+	@TearDown
+	public void tearDown() {
+		Directories.delete(directory);
+	}
+
+	@Benchmark
+	public int commit() throws IOException, GitException {
+		commits++;
+		String changed = config + "repo benchmark-" + commits + "\n    RW+ = user-0\n";
+		git.write("conf/gitolite.conf", changed.getBytes(Charsets.UTF_8));
+		git.write("keydir/user-0.pub", SyntheticConfig.getKey(commits).getBytes(Charsets.UTF_8));
+		git.commit("Commit " + commits);
+		return commits;
+	}
+
+}
@@ -0,0 +1,81 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures importing the requested number of {@link User}s, each with a key and their own
+ * {@link Repository}, into a recording {@link Config} object: once by creating everything
+ * separately, and once with a single {@link Bulk} change.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BulkBenchmark {
+
+	@Param({ "50000" })
+	private int users;
+
+	private String[] userNames;
+	private String[] repoNames;
+	private String[] keys;
+
+	@Setup
+	public void setUp() {
+		userNames = new String[users];
+		repoNames = new String[users];
+		keys = new String[users];
+		for (int i = 0; i < users; i++) {
+			userNames[i] = SyntheticConfig.getUserName(i);
+			repoNames[i] = SyntheticConfig.getRepositoryName(i);
+			keys[i] = SyntheticConfig.getKey(i);
+		}
+	}
+
+	@Benchmark
+	public List<Modification> separately() {
+		Config config = new Config();
+		config.getRecorder().record();
+		for (int i = 0; i < users; i++) {
+			User user = config.createUser(userNames[i]);
+			user.setKey("", keys[i]);
+			config.createRepository(repoNames[i]).setPermission(user, Permission.ALL);
+		}
+		return config.getRecorder().stop();
+	}
+
+	@Benchmark
+	public List<Modification> bulk() {
+		Config config = new Config();
+		config.getRecorder().record();
+		Bulk bulk = config.bulk();
+		for (int i = 0; i < users; i++) {
+			bulk.addUsers(userNames[i])
+				.setKey(userNames[i], "", keys[i])
+				.addRepositories(repoNames[i])
+				.grant(repoNames[i], Permission.ALL, userNames[i]);
+		}
+		bulk.apply();
+		return config.getRecorder().stop();
+	}
+
+}
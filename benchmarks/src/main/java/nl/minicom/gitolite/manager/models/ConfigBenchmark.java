@@ -0,0 +1,89 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing, rendering, copying and looking up parts of a {@link Config} of a
+ * {@link SyntheticConfig}, which is frozen like the {@link Config} of a {@link ConfigManager}.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ConfigBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	private int repositories;
+
+	@Param({ "10000" })
+	private int users;
+
+	@Param({ "1000" })
+	private int groups;
+
+	@Param({ "5" })
+	private int depth;
+
+	private Config config;
+	private String rendered;
+	private String[] userNames;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		config = SyntheticConfig.generate(repositories, users, groups, depth);
+		config.freeze();
+		rendered = SyntheticConfig.render(config);
+
+		Random random = new Random(42);
+		userNames = new String[1024];
+		for (int i = 0; i < userNames.length; i++) {
+			userNames[i] = SyntheticConfig.getUserName(random.nextInt(users));
+		}
+	}
+
+	@Benchmark
+	public Config read() throws IOException {
+		return ConfigReader.read(new StringReader(rendered));
+	}
+
+	@Benchmark
+	public String write() throws IOException {
+		StringWriter writer = new StringWriter(rendered.length());
+		ConfigWriter.write(config, writer);
+		return writer.toString();
+	}
+
+	@Benchmark
+	public Config copy() {
+		return config.copy();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public User getUser() {
+		next = (next + 1) & (userNames.length - 1);
+		return config.getUser(userNames[next]);
+	}
+
+}
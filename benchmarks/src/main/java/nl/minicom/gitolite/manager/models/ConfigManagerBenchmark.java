@@ -0,0 +1,98 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.minicom.gitolite.manager.exceptions.GitException;
+import nl.minicom.gitolite.manager.exceptions.ModificationException;
+import nl.minicom.gitolite.manager.exceptions.ServiceUnavailable;
+import nl.minicom.gitolite.manager.git.ObjectGitManager;
+import nl.minicom.gitolite.manager.metrics.InMemoryMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Measures how many changesets per second a {@link ConfigManager} accepts from many threads, 
+ * each of which creates a single {@link Repository}, with and without a linger time. The 
+ * changesets are pushed to a bare repository on the local disk. The number of pushes is 
+ * printed at the end of every trial, so it can be compared to the number of changesets.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class ConfigManagerBenchmark {
+
+	private static final String KEY = SyntheticConfig.getKey(0);
+
+	@Param({ "0", "10" })
+	private int lingerMillis;
+
+	private final AtomicLong names = new AtomicLong();
+
+	private File origin;
+	private File workingDirectory;
+	private InMemoryMetrics metrics;
+	private ConfigManager manager;
+
+	@Setup
+	public void setUp() throws IOException, GitException, ServiceUnavailable {
+		origin = Files.createTempDir();
+		ObjectGitManager git = new ObjectGitManager(origin, null);
+		git.init();
+		git.write("conf/gitolite.conf", "repo gitolite-admin\n    RW+ = admin\n".getBytes(Charsets.UTF_8));
+		git.write("keydir/admin.pub", KEY.getBytes(Charsets.UTF_8));
+		git.commit("Initial config");
+
+		metrics = new InMemoryMetrics();
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setBareRepository(true);
+		settings.setLingerTime(lingerMillis, TimeUnit.MILLISECONDS);
+		settings.setMetrics(metrics);
+
+		workingDirectory = Files.createTempDir();
+		manager = ConfigManager.create(origin.getAbsolutePath(), workingDirectory, null, settings);
+		manager.get();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		System.out.println();
+		System.out.println("git.push: " + metrics.getAggregates().get("git.push").getCount() 
+				+ ", worker.units.succeeded: " + metrics.getCounts().get("worker.units.succeeded"));
+		manager.close();
+		Directories.delete(workingDirectory);
+		Directories.delete(origin);
+	}
+
+	@Benchmark
+	public Config apply() throws IOException, ServiceUnavailable, GitException, ModificationException {
+		Config config = manager.get();
+		config.createRepository("benchmark-" + names.incrementAndGet());
+		manager.apply(config);
+		return config;
+	}
+
+}
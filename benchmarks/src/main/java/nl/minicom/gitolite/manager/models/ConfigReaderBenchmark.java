@@ -0,0 +1,75 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing a large configuration file of the requested size, which is generated by
+ * repeating the repository rules of a {@link SyntheticConfig} under new names. Divide the size
+ * by the reported time to get the throughput in megabytes per second.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ConfigReaderBenchmark {
+
+	@Param({ "50" })
+	private int megabytes;
+
+	private String rendered;
+
+	@Setup
+	public void setUp() {
+		Config config = SyntheticConfig.generate(10000, 10000, 1000, 5);
+		String groups = renderGroups(config);
+
+		long size = megabytes * 1024L * 1024L;
+		StringBuilder builder = new StringBuilder((int) size + 1024);
+		builder.append(groups);
+		int index = 0;
+		while (builder.length() < size) {
+			for (Repository repository : config.getRepositories()) {
+				builder.append("repo ").append(repository.getName()).append('-').append(index).append('\n');
+				for (Permission level : repository.getPermissions().keySet()) {
+					builder.append("    ").append(level.getLevel()).append(" = ");
+					for (Identifiable member : repository.getPermissions().get(level)) {
+						builder.append(member.getName()).append(' ');
+					}
+					builder.append("# generated\n");
+				}
+				builder.append('\n');
+			}
+			index++;
+		}
+		rendered = builder.toString();
+	}
+
+	private static String renderGroups(Config config) {
+		String rendered = SyntheticConfig.render(config);
+		return rendered.substring(0, rendered.indexOf("repo "));
+	}
+
+	@Benchmark
+	public Config read() throws IOException {
+		return ConfigReader.read(new StringReader(rendered));
+	}
+
+}
@@ -0,0 +1,32 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.File;
+
+/**
+ * The {@link Directories} class removes the temporary directories of the benchmarks.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public final class Directories {
+
+	/**
+	 * This method deletes the specified file, or directory and everything in it.
+	 * 
+	 * @param file
+	 * 	The file or directory to delete.
+	 */
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private Directories() {
+		//Prevent instantiation.
+	}
+
+}
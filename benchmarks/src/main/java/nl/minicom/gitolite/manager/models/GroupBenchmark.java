@@ -0,0 +1,65 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cycle check of {@link Group#add(Group)} on a chain of nested {@link Group}s 
+ * of the requested depth: once when the added {@link Group} is accepted, and once when it
+ * is rejected because it would introduce a cycle.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	private int depth;
+
+	private Group root;
+	private Group leaf;
+	private Group extra;
+
+	@Setup
+	public void setUp() {
+		Config config = SyntheticConfig.generate(0, 1, depth, depth);
+		root = config.getGroup(SyntheticConfig.getGroupName(0));
+		leaf = config.getGroup(SyntheticConfig.getGroupName(depth - 1));
+		extra = config.createGroup("@extra");
+	}
+
+	@Benchmark
+	public Group acceptGroup() {
+		root.add(extra);
+		root.remove(extra);
+		return root;
+	}
+
+	@Benchmark
+	public boolean rejectCycle() {
+		try {
+			leaf.add(root);
+			return false;
+		}
+		catch (IllegalArgumentException e) {
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+/**
+ * Measures how many changesets per second the {@link Journal} makes durable, from a single
+ * thread and from many threads which share their fsyncs.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+	private static final List<Operation> CHANGESET = ImmutableList.of(
+			Operation.createRepository("benchmark"), 
+			Operation.setPermission("benchmark", new User("user-0"), Permission.ALL));
+
+	private File directory;
+	private Journal journal;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDir();
+		journal = new Journal(directory, 16 * 1024 * 1024);
+		journal.open();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		journal.close();
+		Directories.delete(directory);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public long singleThread() throws IOException {
+		return journal();
+	}
+
+	@Benchmark
+	@Threads(16)
+	public long manyThreads() throws IOException {
+		return journal();
+	}
+
+	private long journal() throws IOException {
+		long sequence = journal.append(CHANGESET);
+		journal.sync(sequence);
+		journal.complete(sequence);
+		return sequence;
+	}
+
+}
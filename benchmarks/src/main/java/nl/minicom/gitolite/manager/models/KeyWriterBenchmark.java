@@ -0,0 +1,64 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import nl.minicom.gitolite.manager.git.Durability;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+
+/**
+ * Measures writing a key directory containing one key for each of the requested number 
+ * of {@link User}s, with each {@link Durability}.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyWriterBenchmark {
+
+	@Param({ "1000" })
+	private int keys;
+
+	@Param({ "NONE", "BATCH" })
+	private Durability durability;
+
+	private File keyDir;
+	private Config config;
+
+	@Setup
+	public void setUp() {
+		config = SyntheticConfig.generate(0, keys, 1, 1);
+		keyDir = Files.createTempDir();
+	}
+
+	@TearDown
+	public void tearDown() {
+		Directories.delete(keyDir);
+	}
+
+	@Benchmark
+	public Set<File> writeKeys() throws IOException {
+		return KeyWriter.writeKeys(config, keyDir, durability);
+	}
+
+}
@@ -0,0 +1,59 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures recording the requested number of changes on a {@link Config} object, and 
+ * collecting them with {@link Recorder#stop()}. Run it with "-prof gc" to measure how
+ * much memory the recorded changes allocate.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RecorderBenchmark {
+
+	@Param({ "100000" })
+	private int operations;
+
+	private String[] names;
+
+	@Setup
+	public void setUp() {
+		names = new String[operations];
+		for (int i = 0; i < operations; i++) {
+			names[i] = SyntheticConfig.getRepositoryName(i);
+		}
+	}
+
+	@Benchmark
+	public List<Modification> record() {
+		Config config = new Config();
+		config.getRecorder().record();
+		User user = config.createUser("user-0");
+		for (String name : names) {
+			config.createRepository(name).setPermission(user, Permission.ALL);
+		}
+		return config.getRecorder().stop();
+	}
+
+}
@@ -0,0 +1,105 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.Random;
+
+/**
+ * The {@link SyntheticConfig} class generates {@link Config} objects of arbitrary size for
+ * the benchmarks. The generated {@link Config}s only depend on the requested sizes, so every
+ * run of a benchmark works on exactly the same configuration.
+ *
+ * Every {@link User} has one key. The {@link Group}s are nested in chains of the requested
+ * depth, and each of them contains up to 10 {@link User}s. Every {@link Repository} grants
+ * permissions to 3 {@link User}s and 1 {@link Group}.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public final class SyntheticConfig {
+
+	private static final Permission[] LEVELS = Permission.values();
+
+	/**
+	 * This method generates a new {@link Config} object.
+	 *
+	 * @param repositories
+	 * 	The number of {@link Repository}s to generate.
+	 *
+	 * @param users
+	 * 	The number of {@link User}s to generate. This must be a positive number.
+	 *
+	 * @param groups
+	 * 	The number of {@link Group}s to generate. This must be a positive number.
+	 *
+	 * @param depth
+	 * 	The number of levels in which the {@link Group}s are nested. This must be a positive number.
+	 *
+	 * @return
+	 * 	The generated {@link Config} object.
+	 */
+	public static Config generate(int repositories, int users, int groups, int depth) {
+		Random random = new Random(42);
+		Config config = new Config();
+
+		User[] createdUsers = new User[users];
+		for (int i = 0; i < users; i++) {
+			createdUsers[i] = config.createUser(getUserName(i));
+			createdUsers[i].setKey("", getKey(i));
+		}
+
+		Group[] createdGroups = new Group[groups];
+		for (int i = 0; i < groups; i++) {
+			createdGroups[i] = config.createGroup(getGroupName(i));
+		}
+		for (int i = 0; i < groups; i++) {
+			if ((i + 1) % depth != 0 && i + 1 < groups) {
+				createdGroups[i].add(createdGroups[i + 1]);
+			}
+			for (int j = 0; j < 10; j++) {
+				User user = createdUsers[random.nextInt(users)];
+				if (!createdGroups[i].containsUser(user)) {
+					createdGroups[i].add(user);
+				}
+			}
+		}
+
+		for (int i = 0; i < repositories; i++) {
+			Repository repository = config.createRepository(getRepositoryName(i));
+			int first = random.nextInt(users);
+			for (int j = 0; j < Math.min(3, users); j++) {
+				repository.setPermission(createdUsers[(first + j) % users], LEVELS[random.nextInt(LEVELS.length)]);
+			}
+			repository.setPermission(createdGroups[random.nextInt(groups)], LEVELS[random.nextInt(LEVELS.length)]);
+		}
+		return config;
+	}
+
+	/**
+	 * @return
+	 * 	The configuration file of the specified {@link Config} object.
+	 */
+	public static String render(Config config) {
+		StringBuilder builder = new StringBuilder();
+		ConfigWriter.render(config, builder);
+		return builder.toString();
+	}
+
+	public static String getUserName(int index) {
+		return "user-" + index;
+	}
+
+	public static String getGroupName(int index) {
+		return "@group-" + index;
+	}
+
+	public static String getRepositoryName(int index) {
+		return "repository-" + index;
+	}
+
+	public static String getKey(int index) {
+		return "ssh-rsa AAAAB3NzaC1yc2EAAAADAQABAAABAQC" + Integer.toHexString(index) + " user-" + index + "@localhost";
+	}
+
+	private SyntheticConfig() {
+		//Prevent instantiation.
+	}
+
+}
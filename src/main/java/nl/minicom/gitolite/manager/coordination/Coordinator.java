@@ -0,0 +1,93 @@
+package nl.minicom.gitolite.manager.coordination;
+
+import java.io.IOException;
+import java.util.List;
+
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * This interface is designed to be implemented to coordinate several
+ * {@link nl.minicom.gitolite.manager.models.ConfigManager}s, possibly running on
+ * different machines, which manage the same configuration repository. The
+ * {@link Coordinator} elects a single writer amongst them. Only the writer applies,
+ * commits and pushes changes. The others forward their changes to the writer, and
+ * refresh their configuration once the writer has pushed them.
+ *
+ * The {@link FileCoordinator} is a simple implementation which uses a shared directory.
+ * Other implementations can use an external lock service instead.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public interface Coordinator {
+
+	/**
+	 * This method starts participating in the election of the writer. From now on
+	 * the {@link Coordinator} calls the specified {@link Node} when it becomes the
+	 * writer, and when other nodes forward changes to it.
+	 *
+	 * @param node The {@link Node} which is coordinated by this {@link Coordinator}.
+	 *
+	 * @throws IOException If the {@link Coordinator} could not be started.
+	 */
+	void start(Node node) throws IOException;
+
+	/**
+	 * This method stops participating in the election of the writer. If this
+	 * {@link Coordinator} is the writer, another one can take over.
+	 *
+	 * @throws IOException If the {@link Coordinator} could not be stopped cleanly.
+	 */
+	void stop() throws IOException;
+
+	/**
+	 * @return True if the {@link Node} of this {@link Coordinator} is currently the writer.
+	 */
+	boolean isWriter();
+
+	/**
+	 * This method forwards a changeset to the writer.
+	 *
+	 * @param changeset The {@link Modification}s to apply. Implementations may only accept
+	 *           {@link nl.minicom.gitolite.manager.models.Operation}s.
+	 *
+	 * @param baseCommit The id of the commit of the configuration repository which the
+	 *           changeset is based on, or NULL if it's unknown. The writer rejects the
+	 *           changeset if it conflicts with changes made after that commit.
+	 *
+	 * @return A {@link ListenableFuture} which completes when the writer has pushed the
+	 *         changeset, or fails with the exception with which the writer rejected it,
+	 *         or with an {@link IllegalArgumentException} if it cannot be forwarded.
+	 */
+	ListenableFuture<Void> forward(List<Modification> changeset, String baseCommit);
+
+	/**
+	 * This interface is implemented by the objects which are coordinated by a
+	 * {@link Coordinator}.
+	 */
+	interface Node {
+
+		/**
+		 * This method is called when the {@link Node} has become the writer.
+		 *
+		 * @throws Exception If the {@link Node} could not prepare itself for writing.
+		 */
+		void becameWriter() throws Exception;
+
+		/**
+		 * This method is called on the writer when a changeset was forwarded to it.
+		 *
+		 * @param changeset The {@link Modification}s to apply.
+		 *
+		 * @param baseCommit The id of the commit of the configuration repository which the
+		 *           changeset is based on, or NULL if it's unknown.
+		 *
+		 * @return A {@link ListenableFuture} which completes when the changeset has been
+		 *         pushed, or fails if it could not be applied.
+		 */
+		ListenableFuture<Void> submit(List<Modification> changeset, String baseCommit);
+
+	}
+
+}
@@ -0,0 +1,649 @@
+package nl.minicom.gitolite.manager.coordination;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import nl.minicom.gitolite.manager.exceptions.ModificationException;
+import nl.minicom.gitolite.manager.models.Operation;
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * The {@link FileCoordinator} class is a {@link Coordinator} which uses a directory that
+ * is shared by all nodes, for instance on a network file system. The node which holds the
+ * lock on a file in that directory is the writer. Other nodes forward their changesets by
+ * writing them to a queue directory, and the writer reports the outcome of every changeset
+ * by writing it to a results directory. The directories are polled periodically.
+ *
+ * Only {@link Operation}s can be forwarded. A changeset is written as the id of the commit it's
+ * based on, and the {@link Operation.Type} and arguments of each of its {@link Operation}s, and
+ * its outcome as a status, followed by
+ * the conflicting part of the configuration, or the type and message of the failure. Nothing
+ * else is read from the shared directory. A forwarded changeset is only removed from the queue
+ * once its outcome has been written, so if the writer stops halfway, the next one submits it
+ * again. A node which doesn't learn the outcome of a changeset in time gives up waiting for it,
+ * and the writer removes outcomes which nobody collected within that time.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public class FileCoordinator implements Coordinator {
+
+	private static final Logger log = LoggerFactory.getLogger(FileCoordinator.class);
+
+	private static final String LOCK_FILE_NAME = "writer.lock";
+	private static final String QUEUE_DIRECTORY_NAME = "queue";
+	private static final String RESULTS_DIRECTORY_NAME = "results";
+	private static final String CHANGESET_SUFFIX = ".changeset";
+	private static final String RESULT_SUFFIX = ".result";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static final long DEFAULT_TIMEOUT_MINUTES = 5;
+
+	private static final byte SUCCEEDED = 0;
+	private static final byte CONFLICTED = 1;
+	private static final byte FAILED = 2;
+
+	/**
+	 * The lock files which a {@link FileCoordinator} in this JVM has opened. On some systems
+	 * closing any channel of a file releases all locks of the JVM on it, so at most one 
+	 * channel per lock file may be open in this JVM.
+	 */
+	private static final Set<Path> OPENED_LOCK_FILES = Sets.newSetFromMap(Maps.<Path, Boolean>newConcurrentMap());
+
+	private final Path lockFile;
+	private final Path queueDirectory;
+	private final Path resultsDirectory;
+	private final long pollIntervalNanos;
+	private final long timeoutNanos;
+
+	private final Map<String, Forwarded> forwarded = Maps.newConcurrentMap();
+	private final Set<String> submitted = Sets.newSetFromMap(Maps.<String, Boolean>newConcurrentMap());
+	private final Object lock = new Object();
+	private ScheduledExecutorService poller;
+	private Node node;
+	private FileChannel channel;
+	private volatile FileLock writerLock;
+	private long nextCleanup;
+
+	/**
+	 * Constructs a new {@link FileCoordinator} object, which polls the shared
+	 * directory every 100 milliseconds, and waits at most 5 minutes for the outcome
+	 * of a forwarded changeset.
+	 *
+	 * @param directory The directory which is shared by all nodes.
+	 */
+	public FileCoordinator(File directory) {
+		this(directory, 100, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Constructs a new {@link FileCoordinator} object, which waits at most 5 minutes 
+	 * for the outcome of a forwarded changeset.
+	 *
+	 * @param directory The directory which is shared by all nodes.
+	 *
+	 * @param pollInterval The time between two polls of the shared directory.
+	 *           This must be a positive number.
+	 *
+	 * @param unit The {@link TimeUnit} of the specified interval.
+	 */
+	public FileCoordinator(File directory, long pollInterval, TimeUnit unit) {
+		this(directory, pollInterval, unit, DEFAULT_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Constructs a new {@link FileCoordinator} object.
+	 *
+	 * @param directory The directory which is shared by all nodes.
+	 *
+	 * @param pollInterval The time between two polls of the shared directory.
+	 *           This must be a positive number.
+	 *
+	 * @param pollUnit The {@link TimeUnit} of the specified interval.
+	 *
+	 * @param timeout The time to wait for the outcome of a forwarded changeset, after
+	 *           which its {@link ListenableFuture} fails with a {@link TimeoutException}.
+	 *           This must be a positive number.
+	 *
+	 * @param timeoutUnit The {@link TimeUnit} of the specified timeout.
+	 */
+	public FileCoordinator(File directory, long pollInterval, TimeUnit pollUnit, long timeout, TimeUnit timeoutUnit) {
+		Preconditions.checkNotNull(directory);
+		Preconditions.checkArgument(pollInterval > 0);
+		Preconditions.checkNotNull(pollUnit);
+		Preconditions.checkArgument(timeout > 0);
+		Preconditions.checkNotNull(timeoutUnit);
+
+		Path root = directory.toPath();
+		this.lockFile = root.toAbsolutePath().normalize().resolve(LOCK_FILE_NAME);
+		this.queueDirectory = root.resolve(QUEUE_DIRECTORY_NAME);
+		this.resultsDirectory = root.resolve(RESULTS_DIRECTORY_NAME);
+		this.pollIntervalNanos = pollUnit.toNanos(pollInterval);
+		this.timeoutNanos = timeoutUnit.toNanos(timeout);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.coordination.Coordinator#start(nl.minicom.gitolite.manager.coordination.Coordinator.Node)
+	 */
+	@Override
+	public void start(Node node) throws IOException {
+		Preconditions.checkNotNull(node);
+
+		synchronized (lock) {
+			Preconditions.checkState(poller == null, "The coordinator has already been started");
+			Files.createDirectories(queueDirectory);
+			Files.createDirectories(resultsDirectory);
+
+			this.node = node;
+			this.nextCleanup = System.nanoTime();
+			this.poller = Executors.newSingleThreadScheduledExecutor();
+			poller.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					poll();
+				}
+			}, 0, pollIntervalNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.coordination.Coordinator#stop()
+	 */
+	@Override
+	public void stop() throws IOException {
+		ScheduledExecutorService stopped;
+		synchronized (lock) {
+			stopped = poller;
+			poller = null;
+		}
+		if (stopped == null) {
+			return;
+		}
+
+		stopped.shutdown();
+		try {
+			stopped.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		releaseWriterLock();
+
+		for (Forwarded pending : forwarded.values()) {
+			pending.future.setException(new IOException("The coordinator was stopped before the outcome of the changeset was known"));
+		}
+		forwarded.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.coordination.Coordinator#isWriter()
+	 */
+	@Override
+	public boolean isWriter() {
+		return writerLock != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.coordination.Coordinator#forward(java.util.List)
+	 */
+	@Override
+	public ListenableFuture<Void> forward(List<Modification> changeset, String baseCommit) {
+		Preconditions.checkNotNull(changeset);
+
+		List<Operation> operations = Lists.newArrayListWithCapacity(changeset.size());
+		for (Modification modification : changeset) {
+			if (!(modification instanceof Operation)) {
+				return Futures.immediateFailedFuture(new IllegalArgumentException(
+						"Only operations can be forwarded to the writer, not: " + modification));
+			}
+			operations.add((Operation) modification);
+		}
+
+		String id = String.format("%016x-%s", System.currentTimeMillis(), UUID.randomUUID());
+		Forwarded pending = new Forwarded(System.nanoTime() + timeoutNanos);
+		forwarded.put(id, pending);
+		try {
+			writeAtomically(queueDirectory.resolve(id + CHANGESET_SUFFIX), encodeChangeset(operations, baseCommit));
+			log.info("Forwarded changeset {} to the writer", id);
+		}
+		catch (IOException e) {
+			forwarded.remove(id);
+			pending.future.setException(e);
+		}
+		return pending.future;
+	}
+
+	private void poll() {
+		try {
+			if (writerLock == null) {
+				tryToBecomeWriter();
+			}
+			if (writerLock != null) {
+				takeForwardedChangesets();
+				removeUncollectedResults();
+			}
+			collectResults();
+		}
+		catch (IOException | RuntimeException e) {
+			log.error("Coordinator failed to poll the shared directory", e);
+		}
+	}
+
+	private void tryToBecomeWriter() throws IOException {
+		if (!OPENED_LOCK_FILES.add(lockFile)) {
+			// Another node in this JVM is the writer, or trying to become it.
+			return;
+		}
+
+		FileChannel opened = null;
+		FileLock acquired = null;
+		try {
+			opened = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			acquired = opened.tryLock();
+		}
+		catch (OverlappingFileLockException e) {
+			// Another node in this JVM is the writer.
+		}
+		finally {
+			if (acquired == null) {
+				try {
+					if (opened != null) {
+						opened.close();
+					}
+				}
+				finally {
+					OPENED_LOCK_FILES.remove(lockFile);
+				}
+			}
+		}
+		if (acquired == null) {
+			return;
+		}
+
+		channel = opened;
+		writerLock = acquired;
+		log.info("Coordinator became the writer");
+		try {
+			node.becameWriter();
+		}
+		catch (Exception e) {
+			log.error("Node could not prepare itself for writing, giving up the writer role", e);
+			releaseWriterLock();
+		}
+	}
+
+	private void releaseWriterLock() throws IOException {
+		FileLock released = writerLock;
+		writerLock = null;
+		if (released != null) {
+			try {
+				released.release();
+			}
+			finally {
+				try {
+					channel.close();
+				}
+				finally {
+					channel = null;
+					OPENED_LOCK_FILES.remove(lockFile);
+				}
+			}
+		}
+	}
+
+	private void takeForwardedChangesets() throws IOException {
+		for (final Path file : list(queueDirectory, CHANGESET_SUFFIX)) {
+			String fileName = file.getFileName().toString();
+			final String id = fileName.substring(0, fileName.length() - CHANGESET_SUFFIX.length());
+			if (submitted.contains(id)) {
+				continue;
+			}
+			if (Files.exists(resultsDirectory.resolve(id + RESULT_SUFFIX))) {
+				// A previous writer stopped after writing the outcome of this changeset.
+				Files.deleteIfExists(file);
+				continue;
+			}
+
+			Changeset changeset;
+			try {
+				changeset = decodeChangeset(ByteBuffer.wrap(Files.readAllBytes(file)));
+			}
+			catch (IOException e) {
+				log.error("Coordinator could not read forwarded changeset {}", id, e);
+				writeResult(id, e);
+				Files.deleteIfExists(file);
+				continue;
+			}
+
+			log.info("Coordinator is submitting forwarded changeset {}", id);
+			submitted.add(id);
+			Futures.addCallback(node.submit(changeset.operations, changeset.baseCommit), new FutureCallback<Void>() {
+				@Override
+				public void onSuccess(Void result) {
+					complete(id, file, null);
+				}
+
+				@Override
+				public void onFailure(Throwable failure) {
+					complete(id, file, failure);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Writes the outcome of a forwarded changeset, and only then removes it from the queue.
+	 */
+	private void complete(String id, Path file, Throwable failure) {
+		try {
+			if (writeResult(id, failure)) {
+				Files.deleteIfExists(file);
+			}
+		}
+		catch (IOException e) {
+			log.error("Coordinator could not remove forwarded changeset {} from the queue", id, e);
+		}
+		finally {
+			submitted.remove(id);
+		}
+	}
+
+	private boolean writeResult(String id, Throwable failure) {
+		try {
+			writeAtomically(resultsDirectory.resolve(id + RESULT_SUFFIX), encodeResult(failure));
+			return true;
+		}
+		catch (IOException e) {
+			log.error("Coordinator could not write the result of changeset {}", id, e);
+			return false;
+		}
+	}
+
+	private void collectResults() throws IOException {
+		long now = System.nanoTime();
+		Iterator<Entry<String, Forwarded>> iterator = forwarded.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Entry<String, Forwarded> entry = iterator.next();
+			String id = entry.getKey();
+			SettableFuture<Void> future = entry.getValue().future;
+			Path file = resultsDirectory.resolve(id + RESULT_SUFFIX);
+			if (!Files.exists(file)) {
+				if (now - entry.getValue().deadline >= 0) {
+					iterator.remove();
+					log.warn("Coordinator gave up waiting for the outcome of changeset {}", id);
+					future.setException(new TimeoutException("The writer did not report the outcome of changeset " 
+							+ id + " in time, it may or may not have been applied"));
+				}
+				continue;
+			}
+
+			Throwable failure;
+			try {
+				failure = decodeResult(ByteBuffer.wrap(Files.readAllBytes(file)));
+			}
+			catch (IOException e) {
+				failure = new IOException("Could not read result of changeset: " + id, e);
+			}
+			Files.delete(file);
+			iterator.remove();
+
+			if (failure == null) {
+				future.set(null);
+			}
+			else {
+				future.setException(failure);
+			}
+		}
+	}
+
+	/**
+	 * Removes the files in the results directory which are older than the timeout. Their
+	 * outcomes are no longer awaited, since the node which forwarded them has given up, or
+	 * stopped. This is done at most once per timeout.
+	 */
+	private void removeUncollectedResults() throws IOException {
+		long now = System.nanoTime();
+		if (now - nextCleanup < 0) {
+			return;
+		}
+		nextCleanup = now + timeoutNanos;
+
+		long expiry = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+		for (Path file : list(resultsDirectory, "")) {
+			try {
+				if (Files.getLastModifiedTime(file).toMillis() < expiry) {
+					log.info("Coordinator is removing uncollected result {}", file.getFileName());
+					Files.deleteIfExists(file);
+				}
+			}
+			catch (NoSuchFileException e) {
+				// The result was collected in the meantime.
+			}
+		}
+	}
+
+	private static byte[] encodeChangeset(List<Operation> changeset, String baseCommit) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		writeString(output, Strings.nullToEmpty(baseCommit));
+		output.writeInt(changeset.size());
+		for (Operation operation : changeset) {
+			output.writeUTF(operation.getType().name());
+			output.writeInt(operation.getArguments().size());
+			for (String argument : operation.getArguments()) {
+				writeString(output, argument);
+			}
+		}
+		output.flush();
+		return bytes.toByteArray();
+	}
+
+	private static Changeset decodeChangeset(ByteBuffer input) throws IOException {
+		try {
+			String baseCommit = Strings.emptyToNull(readString(input, input.getInt()));
+			int count = input.getInt();
+			List<Modification> changeset = Lists.newArrayList();
+			for (int i = 0; i < count; i++) {
+				Operation.Type type = Operation.Type.valueOf(readString(input, input.getShort() & 0xFFFF));
+				int argumentCount = input.getInt();
+				List<String> arguments = Lists.newArrayList();
+				for (int j = 0; j < argumentCount; j++) {
+					arguments.add(readString(input, input.getInt()));
+				}
+				changeset.add(new Operation(type, arguments));
+			}
+			checkFullyRead(input);
+			return new Changeset(changeset, baseCommit);
+		}
+		catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("The forwarded changeset cannot be decoded", e);
+		}
+	}
+
+	/**
+	 * Encodes the outcome of a changeset. A conflict is encoded as the conflicting part of
+	 * the configuration, so it's reported as a {@link ModificationException} to the node
+	 * which forwarded the changeset. Any other failure is encoded as its type and message.
+	 */
+	private static byte[] encodeResult(Throwable failure) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		if (failure == null) {
+			output.writeByte(SUCCEEDED);
+		}
+		else if (failure instanceof ModificationException && ((ModificationException) failure).getEntityType() != null) {
+			ModificationException conflict = (ModificationException) failure;
+			output.writeByte(CONFLICTED);
+			writeString(output, conflict.getEntityType());
+			writeString(output, Strings.nullToEmpty(conflict.getEntityName()));
+			writeString(output, Strings.nullToEmpty(conflict.getEntityPart()));
+		}
+		else {
+			output.writeByte(FAILED);
+			writeString(output, failure.getClass().getName());
+			writeString(output, Strings.nullToEmpty(failure.getMessage()));
+		}
+		output.flush();
+		return bytes.toByteArray();
+	}
+
+	private static Throwable decodeResult(ByteBuffer input) throws IOException {
+		try {
+			Throwable failure;
+			byte status = input.get();
+			if (status == SUCCEEDED) {
+				failure = null;
+			}
+			else if (status == CONFLICTED) {
+				String entityType = readString(input, input.getInt());
+				String entityName = readString(input, input.getInt());
+				String entityPart = readString(input, input.getInt());
+				failure = new ModificationException(entityType, entityName, entityPart, null);
+			}
+			else if (status == FAILED) {
+				String type = readString(input, input.getInt());
+				String message = readString(input, input.getInt());
+				failure = new IOException("The writer failed to apply the changeset: " + type 
+						+ (message.isEmpty() ? "" : ": " + message));
+			}
+			else {
+				throw new IOException("Unknown status of changeset: " + status);
+			}
+			checkFullyRead(input);
+			return failure;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("The result of the changeset cannot be decoded", e);
+		}
+	}
+
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		byte[] encoded = value.getBytes(Charsets.UTF_8);
+		output.writeInt(encoded.length);
+		output.write(encoded);
+	}
+
+	private static String readString(ByteBuffer input, int length) {
+		if (length < 0 || length > input.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] encoded = new byte[length];
+		input.get(encoded);
+		return new String(encoded, Charsets.UTF_8);
+	}
+
+	private static void checkFullyRead(ByteBuffer input) throws IOException {
+		if (input.hasRemaining()) {
+			throw new IOException("The file contains " + input.remaining() + " unexpected trailing bytes");
+		}
+	}
+
+	private static List<Path> list(Path directory, String suffix) throws IOException {
+		List<Path> files = Lists.newArrayList();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		// The names start with the time they were forwarded at.
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Writes the specified bytes to a temporary file first, and then moves it into place,
+	 * so other nodes never read a file which has been written halfway.
+	 */
+	private static void writeAtomically(Path file, byte[] contents) throws IOException {
+		Path temporary = Files.createTempFile(file.getParent(), "." + file.getFileName(), TEMPORARY_SUFFIX);
+		try {
+			Files.write(temporary, contents);
+			try {
+				Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * The {@link Forwarded} class holds the {@link SettableFuture} of a forwarded changeset,
+	 * and the time after which this node gives up waiting for its outcome.
+	 */
+	private static final class Forwarded {
+
+		private final SettableFuture<Void> future = SettableFuture.create();
+		private final long deadline;
+
+		private Forwarded(long deadline) {
+			this.deadline = deadline;
+		}
+
+	}
+
+	/**
+	 * The {@link Changeset} class holds a changeset read from the queue, and the id of the
+	 * commit it's based on.
+	 */
+	private static final class Changeset {
+
+		private final List<Modification> operations;
+		private final String baseCommit;
+
+		private Changeset(List<Modification> operations, String baseCommit) {
+			this.operations = operations;
+			this.baseCommit = baseCommit;
+		}
+
+	}
+
+}
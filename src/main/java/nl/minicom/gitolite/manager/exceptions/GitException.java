@@ -7,5 +7,9 @@ public class GitException extends Exception {
 	public GitException(Throwable cause) {
 		super(cause);
 	}
+	
+	public GitException(String message) {
+		super(message);
+	}
 
 }
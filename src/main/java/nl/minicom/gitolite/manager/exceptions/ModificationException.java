@@ -1,12 +1,91 @@
 package nl.minicom.gitolite.manager.exceptions;
 
+import java.util.Locale;
 
 /**
  * The {@link ModificationException} class can be used to indicate that the application
  * of a change failed because it conflicted with the current gitolite configuration.
+ * The conflicting part of the configuration is described by its type, the name of the
+ * repository, group or user which is or contains it, and the name of the part itself.
  */
 public class ModificationException extends Exception {
 
 	private static final long serialVersionUID = -523610900915606659L;
 
+	private final String entityType;
+	private final String entityName;
+	private final String entityPart;
+
+	/**
+	 * Constructs a new {@link ModificationException} which does not specify the
+	 * conflicting part of the gitolite configuration.
+	 */
+	public ModificationException() {
+		this.entityType = null;
+		this.entityName = null;
+		this.entityPart = null;
+	}
+
+	/**
+	 * Constructs a new {@link ModificationException}.
+	 *
+	 * @param entityType
+	 * 	The type of the part of the gitolite configuration which conflicted, such as
+	 * 	"REPOSITORY" or "PERMISSION".
+	 *
+	 * @param entityName
+	 * 	The name of the repository, group or user which is, or which contains the part
+	 * 	of the gitolite configuration which conflicted.
+	 *
+	 * @param entityPart
+	 * 	The name of the permission holder, member or SSH key which conflicted, or an empty
+	 * 	{@link String} if the repository, group or user itself conflicted.
+	 *
+	 * @param cause
+	 * 	The exception which caused the change to fail, or NULL.
+	 */
+	public ModificationException(String entityType, String entityName, String entityPart, Throwable cause) {
+		super(describe(entityType, entityName, entityPart), cause);
+		this.entityType = entityType;
+		this.entityName = entityName;
+		this.entityPart = entityPart;
+	}
+
+	/**
+	 * @return
+	 * 	The type of the part of the gitolite configuration which conflicted, or NULL if
+	 * 	it's unknown.
+	 */
+	public String getEntityType() {
+		return entityType;
+	}
+
+	/**
+	 * @return
+	 * 	The name of the repository, group or user which is, or which contains the part
+	 * 	of the gitolite configuration which conflicted, or NULL if it's unknown.
+	 */
+	public String getEntityName() {
+		return entityName;
+	}
+
+	/**
+	 * @return
+	 * 	The name of the permission holder, member or SSH key which conflicted, an empty
+	 * 	{@link String} if the repository, group or user itself conflicted, or NULL if
+	 * 	it's unknown.
+	 */
+	public String getEntityPart() {
+		return entityPart;
+	}
+
+	private static String describe(String entityType, String entityName, String entityPart) {
+		StringBuilder builder = new StringBuilder("Conflicting change of ");
+		builder.append(entityType.toLowerCase(Locale.ROOT)).append(" '").append(entityName).append('\'');
+		if (entityPart != null && !entityPart.isEmpty()) {
+			builder.append(" ('").append(entityPart).append("')");
+		}
+		return builder.toString();
+	}
+
 }
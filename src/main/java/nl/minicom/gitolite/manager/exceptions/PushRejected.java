@@ -0,0 +1,24 @@
+package nl.minicom.gitolite.manager.exceptions;
+
+
+/**
+ * This {@link Exception} can be used to notify that a push was rejected because the 
+ * remote branch has changed since it was last fetched, for instance because another 
+ * administrator pushed first. The push can succeed after the local changes have 
+ * been re-applied on top of the remote branch.
+ */
+public class PushRejected extends GitException {
+
+	private static final long serialVersionUID = -4186532210863207765L;
+
+	/**
+	 * Constructs a new {@link PushRejected} object.
+	 * 
+	 * @param message
+	 * 	The message describing why the push was rejected.
+	 */
+	public PushRejected(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,25 @@
+package nl.minicom.gitolite.manager.git;
+
+/**
+ * This enum contains the guarantees which can be requested when writing files to disk.
+ * 
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public enum Durability {
+	
+	/**
+	 * The written files are left to the operating system to flush to disk. Files are never
+	 * written halfway, but after a crash of the operating system, recently written files 
+	 * may be missing or contain their previous contents.
+	 */
+	NONE,
+	
+	/**
+	 * All files of a batch are flushed to disk before any of them is moved into place,
+	 * and the directory is flushed to disk once all of them have been moved. Once the 
+	 * write returns, the files survive a crash of the operating system. A {@link GitManager}
+	 * treats all files written for one commit as a batch.
+	 */
+	BATCH;
+	
+}
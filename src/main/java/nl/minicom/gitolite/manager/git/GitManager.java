@@ -2,6 +2,8 @@ package nl.minicom.gitolite.manager.git;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
 
 import nl.minicom.gitolite.manager.exceptions.GitException;
 import nl.minicom.gitolite.manager.exceptions.ServiceUnavailable;
@@ -66,6 +68,112 @@ public interface GitManager {
 	 */
 	boolean pull() throws ServiceUnavailable, GitException;
 
+	/**
+	 * This method fetches the remote counterpart of the current branch, without
+	 * changing the current branch.
+	 * 
+	 * @return The id of the commit the remote branch points to, or NULL if the
+	 *         remote branch does not exist.
+	 * 
+	 * @throws ServiceUnavailable If the git server is unreachable or otherwise unavailable.
+	 * 
+	 * @throws GitException If an exception occurred while using the Git API.
+	 */
+	String fetch() throws ServiceUnavailable, GitException;
+
+	/**
+	 * This method resets the current branch to its remote counterpart, as it was last 
+	 * fetched. Local commits which have not been pushed, and changes which have not 
+	 * been committed are discarded.
+	 * 
+	 * @throws GitException If an exception occurred while using the Git API.
+	 */
+	void reset() throws GitException;
+
+	/**
+	 * @return The id of the commit the current branch points to, or NULL if there
+	 *         are no commits yet.
+	 * 
+	 * @throws IOException If the repository could not be read.
+	 */
+	String getHead() throws IOException;
+
+	/**
+	 * This method lists the files which differ between two commits.
+	 * 
+	 * @param fromCommit The id of the commit to compare from. This cannot be NULL.
+	 * 
+	 * @param toCommit The id of the commit to compare to. This cannot be NULL.
+	 * 
+	 * @return The paths of all files which were added, changed or removed, relative to 
+	 *         the root of the repository.
+	 * 
+	 * @throws IOException If either commit could not be read.
+	 */
+	Set<String> diff(String fromCommit, String toCommit) throws IOException;
+
+	/**
+	 * This method reads the contents of a file in the repository, as it will be
+	 * committed next.
+	 * 
+	 * @param path The path of the file, relative to the root of the repository.
+	 * 
+	 * @return The contents of the file, or NULL if no such file exists.
+	 * 
+	 * @throws IOException If the file could not be read.
+	 */
+	byte[] read(String path) throws IOException;
+
+	/**
+	 * This method reads the contents of all files in a directory of the repository,
+	 * as they will be committed next. Files in sub directories are not included.
+	 * 
+	 * @param directory The path of the directory, relative to the root of the repository.
+	 * 
+	 * @return A {@link Map} of file names to file contents. This {@link Map} is empty
+	 *         if the directory does not exist.
+	 * 
+	 * @throws IOException If one or more files could not be read.
+	 */
+	Map<String, byte[]> readDirectory(String directory) throws IOException;
+
+	/**
+	 * This method writes a file to the repository, and adds it to the index, so it 
+	 * will be included in the next commit. Implementations may defer adding it to the
+	 * index until the next commit, so many written files are added at once.
+	 * 
+	 * @param path The path of the file, relative to the root of the repository.
+	 * 
+	 * @param contents The new contents of the file.
+	 * 
+	 * @throws IOException If the file could not be written.
+	 * 
+	 * @throws GitException If an exception occurred while using the Git API.
+	 */
+	void write(String path, byte[] contents) throws IOException, GitException;
+
+	/**
+	 * Adds a file in the working directory to the index of the repository, so it will
+	 * be included in the next commit.
+	 * 
+	 * @param filePattern The pattern matching all the files which need to be added.
+	 * 
+	 * @throws IOException If no matching file could be found.
+	 * 
+	 * @throws GitException If an exception occurred while using the Git API.
+	 */
+	void add(String filePattern) throws IOException, GitException;
+
+	/**
+	 * Commits all changes which were added to the index of the repository, or removed 
+	 * from it, to the local git repository.
+	 * 
+	 * @param message The commit message. This cannot be NULL.
+	 * 
+	 * @throws GitException If an exception occurred while using the Git API.
+	 */
+	void commit(String message) throws GitException;
+
 	/**
 	 * Commits all changes to the working directory to the local git repository.
 	 * 
@@ -2,11 +2,23 @@ package nl.minicom.gitolite.manager.git;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import com.google.common.collect.Lists;
 import nl.minicom.gitolite.manager.exceptions.GitException;
+import nl.minicom.gitolite.manager.exceptions.PushRejected;
 import nl.minicom.gitolite.manager.exceptions.ServiceUnavailable;
 
 import org.eclipse.jgit.api.AddCommand;
@@ -15,17 +27,29 @@ import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.InitCommand;
 import org.eclipse.jgit.api.PullCommand;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.RmCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.JGitInternalException;
 import org.eclipse.jgit.api.errors.NoFilepatternException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.PushResult;
 import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 
 /**
  * The {@link JGitManager} class is responsible for communicating with the
@@ -39,8 +63,12 @@ public class JGitManager implements GitManager {
 	
 	private final File workingDirectory;
 	private final CredentialsProvider credentialProvider;
+	private final String branch;
+	private final Durability durability;
 
 	private final Object gitLock = new Object();
+	private final Set<String> unstaged = Sets.newTreeSet();
+	private final Set<File> unsyncedDirectories = Sets.newHashSet();
 	private Git git;
 
 	/**
@@ -54,9 +82,55 @@ public class JGitManager implements GitManager {
 	 *           authenticate when cloning, pulling or pushing, from or to.
 	 */
 	public JGitManager(File workingDirectory, CredentialsProvider credentialProvider) {
+		this(workingDirectory, credentialProvider, null);
+	}
+
+	/**
+	 * Constructs a new {@link JGitManager} object which only clones a single branch.
+	 * 
+	 * @param workingDirectory The working directory where we will clone to, and
+	 *           manipulate the configuration files in. It's recommended to use a
+	 *           temporary directory, unless you wish to keep the git repository.
+	 * 
+	 * @param credentialProvider The {@link CredentialsProvider} to use to
+	 *           authenticate when cloning, pulling or pushing, from or to.
+	 * 
+	 * @param branch The name of the branch to clone and check out, for instance
+	 *           "master". Other branches of the remote repository are not fetched.
+	 *           If NULL, all branches are cloned and the default branch is used.
+	 */
+	public JGitManager(File workingDirectory, CredentialsProvider credentialProvider, String branch) {
+		this(workingDirectory, credentialProvider, branch, Durability.NONE);
+	}
+
+	/**
+	 * Constructs a new {@link JGitManager} object which only clones a single branch, and
+	 * writes files with the specified {@link Durability}.
+	 * 
+	 * @param workingDirectory The working directory where we will clone to, and
+	 *           manipulate the configuration files in. It's recommended to use a
+	 *           temporary directory, unless you wish to keep the git repository.
+	 * 
+	 * @param credentialProvider The {@link CredentialsProvider} to use to
+	 *           authenticate when cloning, pulling or pushing, from or to.
+	 * 
+	 * @param branch The name of the branch to clone and check out, for instance
+	 *           "master". Other branches of the remote repository are not fetched.
+	 *           If NULL, all branches are cloned and the default branch is used.
+	 * 
+	 * @param durability The {@link Durability} of the files written to the working
+	 *           directory. With {@link Durability#BATCH}, every file is flushed to disk
+	 *           when it's written, and the directories containing them are flushed once
+	 *           per commit. This cannot be NULL.
+	 */
+	public JGitManager(File workingDirectory, CredentialsProvider credentialProvider, String branch, 
+			Durability durability) {
 		Preconditions.checkNotNull(workingDirectory);
+		Preconditions.checkNotNull(durability);
 		this.workingDirectory = workingDirectory;
 		this.credentialProvider = credentialProvider;
+		this.branch = branch;
+		this.durability = durability;
 	}
 
 	/*
@@ -79,6 +153,7 @@ public class JGitManager implements GitManager {
 	@Override
 	public void remove(String filePattern) throws IOException, GitException {
 		synchronized (gitLock) {
+			unstaged.remove(filePattern);
 			RmCommand rm = git.rm();
 			rm.addFilepattern(filePattern);
 			try {
@@ -105,6 +180,11 @@ public class JGitManager implements GitManager {
 			clone.setDirectory(workingDirectory);
 			clone.setURI(uri);
 			clone.setCredentialsProvider(credentialProvider);
+			if (branch != null) {
+				clone.setBranch(Constants.R_HEADS + branch);
+				clone.setBranchesToClone(Collections.singleton(Constants.R_HEADS + branch));
+				clone.setCloneAllBranches(false);
+			}
 			try {
 				git = clone.call();
 			} catch (NullPointerException e) {
@@ -153,6 +233,75 @@ public class JGitManager implements GitManager {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see nl.minicom.gitolite.manager.git.GitManager#fetch()
+	 */
+	@Override
+	public String fetch() throws ServiceUnavailable, GitException {
+		log.info("Fetching changes from remote git repo");
+		synchronized (gitLock) {
+			try {
+				git.fetch().setCredentialsProvider(credentialProvider).call();
+				ObjectId remote = git.getRepository().resolve(getRemoteBranch());
+				return remote == null ? null : remote.name();
+			} catch (NullPointerException e) {
+				throw new ServiceUnavailable(e);
+			} catch (GitAPIException | IOException e) {
+				throw new GitException(e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see nl.minicom.gitolite.manager.git.GitManager#reset()
+	 */
+	@Override
+	public void reset() throws GitException {
+		log.info("Resetting local git repo to remote git repo");
+		synchronized (gitLock) {
+			unstaged.clear();
+			unsyncedDirectories.clear();
+			try {
+				git.reset().setMode(ResetType.HARD).setRef(getRemoteBranch()).call();
+			} catch (GitAPIException | IOException e) {
+				throw new GitException(e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see nl.minicom.gitolite.manager.git.GitManager#getHead()
+	 */
+	@Override
+	public String getHead() throws IOException {
+		synchronized (gitLock) {
+			ObjectId head = git.getRepository().resolve(Constants.HEAD);
+			return head == null ? null : head.name();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see nl.minicom.gitolite.manager.git.GitManager#diff(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Set<String> diff(String fromCommit, String toCommit) throws IOException {
+		synchronized (gitLock) {
+			return listChangedPaths(git.getRepository(), fromCommit, toCommit);
+		}
+	}
+
+	private String getRemoteBranch() throws IOException {
+		return Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + git.getRepository().getBranch();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -161,13 +310,154 @@ public class JGitManager implements GitManager {
 	@Override
 	public void commitChanges() throws IOException, GitException {
 		synchronized (gitLock) {
-			add(git, ".");
-			commit(git, "Changed config...");
+			add(".");
+			commit("Changed config...");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see nl.minicom.gitolite.manager.git.GitManager#read(java.lang.String)
+	 */
+	@Override
+	public byte[] read(String path) throws IOException {
+		Preconditions.checkNotNull(path);
+		
+		File file = new File(workingDirectory, path);
+		if (!file.isFile()) {
+			return null;
+		}
+		return Files.toByteArray(file);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see nl.minicom.gitolite.manager.git.GitManager#readDirectory(java.lang.String)
+	 */
+	@Override
+	public Map<String, byte[]> readDirectory(String directory) throws IOException {
+		Preconditions.checkNotNull(directory);
+		
+		List<File> files = Lists.newArrayList();
+		File[] listed = new File(workingDirectory, directory).listFiles();
+		if (listed != null) {
+			for (File file : listed) {
+				if (file.isFile()) {
+					files.add(file);
+				}
+			}
+		}
+		
+		byte[][] read = readFiles(files, Runtime.getRuntime().availableProcessors());
+		Map<String, byte[]> contents = Maps.newTreeMap();
+		for (int i = 0; i < read.length; i++) {
+			contents.put(files.get(i).getName(), read[i]);
+		}
+		return contents;
+	}
+	
+	/**
+	 * Reads the specified files using at most the specified number of threads. Each thread
+	 * reads every n-th file, where n is the number of threads.
+	 */
+	private static byte[][] readFiles(final List<File> files, int parallelism) throws IOException {
+		final byte[][] read = new byte[files.size()][];
+		final int threads = Math.min(parallelism, read.length);
+		if (threads <= 1) {
+			for (int i = 0; i < read.length; i++) {
+				read[i] = Files.toByteArray(files.get(i));
+			}
+			return read;
+		}
+		
+		List<Callable<Void>> stripes = Lists.newArrayListWithCapacity(threads);
+		for (int i = 0; i < threads; i++) {
+			final int offset = i;
+			stripes.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					for (int index = offset; index < read.length; index += threads) {
+						read[index] = Files.toByteArray(files.get(index));
+					}
+					return null;
+				}
+			});
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (Future<Void> future : executor.invokeAll(stripes)) {
+				future.get();
+			}
+			return read;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading files");
+		}
+		catch (ExecutionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+			throw new IOException(e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see nl.minicom.gitolite.manager.git.GitManager#write(java.lang.String, byte[])
+	 */
+	@Override
+	public void write(String path, byte[] contents) throws IOException, GitException {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(contents);
+		
+		File file = new File(workingDirectory, path);
+		Files.createParentDirs(file);
+		
+		// Write to a temporary file first, so the file is never staged while written halfway.
+		File temporary = File.createTempFile("." + file.getName(), ".tmp", file.getParentFile());
+		try {
+			Files.write(contents, temporary);
+			if (durability == Durability.BATCH) {
+				try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+					channel.force(true);
+				}
+			}
+			try {
+				java.nio.file.Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				java.nio.file.Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			java.nio.file.Files.deleteIfExists(temporary.toPath());
+		}
+		
+		synchronized (gitLock) {
+			unstaged.add(path);
+			if (durability == Durability.BATCH) {
+				unsyncedDirectories.add(file.getParentFile());
+			}
 		}
 	}
 
-	private void commit(Git git, String message) throws GitException {
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see nl.minicom.gitolite.manager.git.GitManager#commit(java.lang.String)
+	 */
+	@Override
+	public void commit(String message) throws GitException {
+		Preconditions.checkNotNull(message);
+		
 		synchronized (gitLock) {
+			stageWrittenFiles();
 			log.info("Commiting changes to local git repo");
 			CommitCommand commit = git.commit();
 			try {
@@ -177,13 +467,55 @@ public class JGitManager implements GitManager {
 			}
 		}
 	}
+	
+	/**
+	 * Adds all files written since the last commit to the index with a single {@link AddCommand},
+	 * so the index is only read and written once, however many files were written.
+	 */
+	private void stageWrittenFiles() throws GitException {
+		for (File directory : unsyncedDirectories) {
+			syncDirectory(directory);
+		}
+		unsyncedDirectories.clear();
+		if (unstaged.isEmpty()) {
+			return;
+		}
+		
+		log.info("Adding {} written files to commit", unstaged.size());
+		AddCommand add = git.add();
+		for (String path : unstaged) {
+			add.addFilepattern(path);
+		}
+		try {
+			add.call();
+			unstaged.clear();
+		} catch (GitAPIException e) {
+			throw new GitException(e);
+		}
+	}
+
+	private static void syncDirectory(File directory) {
+		try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+		catch (IOException e) {
+			// Not every platform allows a directory to be opened or flushed.
+			log.debug("Could not flush directory: " + directory, e);
+		}
+	}
 
-	private void add(Git git, String pathToAdd) throws IOException, GitException {
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see nl.minicom.gitolite.manager.git.GitManager#add(java.lang.String)
+	 */
+	@Override
+	public void add(String filePattern) throws IOException, GitException {
 		synchronized (gitLock) {
 			log.info("Adding changes to commit");
 			AddCommand add = git.add();
 			try {
-				add.addFilepattern(pathToAdd).call();
+				add.addFilepattern(filePattern).call();
 			} catch (NoFilepatternException e) {
 				throw new IOException(e);
 			} catch (GitAPIException e) {
@@ -220,17 +552,52 @@ public class JGitManager implements GitManager {
 	/**
 	 * Check if the push succedded (remote is either up to date or the push could be fast forwarded)
 	 * @param update {@code RemoteRefUpdate} to check
+	 * @throws PushRejected If the remote branch has changed since it was last fetched
 	 */
-	private void checkPushSuccess(RemoteRefUpdate update) {
+	static void checkPushSuccess(RemoteRefUpdate update) throws PushRejected {
 		switch(update.getStatus()){
             case OK:
             case UP_TO_DATE:
 				return;
+            case REJECTED_NONFASTFORWARD:
+            case REJECTED_REMOTE_CHANGED:
+				throw new PushRejected("Cannot push config to gitolite config: " + update.getStatus());
             default:
                 throw new IllegalStateException("Cannot push config to gitolite config: " + update.getStatus());
         }
 	}
 
+	/**
+	 * List the paths of the files which differ between the trees of two commits
+	 * @param repository The {@code Repository} containing both commits
+	 * @param fromCommit The id of the commit to compare from
+	 * @param toCommit The id of the commit to compare to
+	 * @return The paths of all files which were added, changed or removed
+	 * @throws IOException If either commit could not be read
+	 */
+	static Set<String> listChangedPaths(Repository repository, String fromCommit, String toCommit) throws IOException {
+		Preconditions.checkNotNull(fromCommit);
+		Preconditions.checkNotNull(toCommit);
+		
+		Set<String> paths = Sets.newTreeSet();
+		RevWalk revWalk = new RevWalk(repository);
+		TreeWalk treeWalk = new TreeWalk(repository);
+		try {
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(TreeFilter.ANY_DIFF);
+			treeWalk.addTree(revWalk.parseCommit(ObjectId.fromString(fromCommit)).getTree());
+			treeWalk.addTree(revWalk.parseCommit(ObjectId.fromString(toCommit)).getTree());
+			while (treeWalk.next()) {
+				paths.add(treeWalk.getPathString());
+			}
+		}
+		finally {
+			treeWalk.release();
+			revWalk.release();
+		}
+		return paths;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
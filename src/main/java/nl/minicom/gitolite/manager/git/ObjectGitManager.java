@@ -0,0 +1,601 @@
+package nl.minicom.gitolite.manager.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import nl.minicom.gitolite.manager.exceptions.GitException;
+import nl.minicom.gitolite.manager.exceptions.ServiceUnavailable;
+
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.InitCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEditor.DeletePath;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * The {@link ObjectGitManager} class is a {@link GitManager} which works on a bare git
+ * repository. Instead of writing files to a working directory and adding them to the index,
+ * it writes file contents straight into the object database of the repository, and keeps
+ * an in-memory index of the next commit. Files which are not written keep the blob they
+ * had in the previous commit, so they are never read, hashed or written again. Written and
+ * removed files are collected, and applied to the index in one go before they're read or
+ * committed, so writing many files only rebuilds the index once.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public class ObjectGitManager implements GitManager {
+
+	private static final Logger log = LoggerFactory.getLogger(ObjectGitManager.class);
+
+	private final File directory;
+	private final CredentialsProvider credentialProvider;
+	private final String branch;
+	private final Durability durability;
+
+	private final Object gitLock = new Object();
+	private Git git;
+	private DirCache index;
+
+	/**
+	 * The blobs of the files which have been written since the index was last updated, 
+	 * or NULL for the files which have been removed.
+	 */
+	private final Map<String, ObjectId> pending = Maps.newTreeMap();
+	private ObjectInserter blobInserter;
+
+	/**
+	 * Constructs a new {@link ObjectGitManager} object.
+	 *
+	 * @param directory The directory where the bare repository will be cloned to.
+	 *           It's recommended to use a temporary directory, unless you wish to
+	 *           keep the git repository.
+	 *
+	 * @param credentialProvider The {@link CredentialsProvider} to use to
+	 *           authenticate when cloning, pulling or pushing, from or to.
+	 */
+	public ObjectGitManager(File directory, CredentialsProvider credentialProvider) {
+		this(directory, credentialProvider, null);
+	}
+
+	/**
+	 * Constructs a new {@link ObjectGitManager} object which only clones a single branch.
+	 * 
+	 * @param directory The directory where the bare repository will be cloned to.
+	 *           It's recommended to use a temporary directory, unless you wish to
+	 *           keep the git repository.
+	 * 
+	 * @param credentialProvider The {@link CredentialsProvider} to use to
+	 *           authenticate when cloning, pulling or pushing, from or to.
+	 * 
+	 * @param branch The name of the branch to clone and check out, for instance
+	 *           "master". Other branches of the remote repository are not fetched.
+	 *           If NULL, all branches are cloned and the default branch is used.
+	 */
+	public ObjectGitManager(File directory, CredentialsProvider credentialProvider, String branch) {
+		this(directory, credentialProvider, branch, Durability.NONE);
+	}
+
+	/**
+	 * Constructs a new {@link ObjectGitManager} object which only clones a single branch, 
+	 * and writes objects with the specified {@link Durability}.
+	 * 
+	 * @param directory The directory where the bare repository will be cloned to.
+	 *           It's recommended to use a temporary directory, unless you wish to
+	 *           keep the git repository.
+	 * 
+	 * @param credentialProvider The {@link CredentialsProvider} to use to
+	 *           authenticate when cloning, pulling or pushing, from or to.
+	 * 
+	 * @param branch The name of the branch to clone and check out, for instance
+	 *           "master". Other branches of the remote repository are not fetched.
+	 *           If NULL, all branches are cloned and the default branch is used.
+	 * 
+	 * @param durability The {@link Durability} of the written objects. With 
+	 *           {@link Durability#BATCH}, git's "core.fsyncObjectFiles" option is enabled,
+	 *           so every object is flushed to disk when it's written. This cannot be NULL.
+	 */
+	public ObjectGitManager(File directory, CredentialsProvider credentialProvider, String branch, 
+			Durability durability) {
+		Preconditions.checkNotNull(directory);
+		Preconditions.checkNotNull(durability);
+		this.directory = directory;
+		this.credentialProvider = credentialProvider;
+		this.branch = branch;
+		this.durability = durability;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#open()
+	 */
+	@Override
+	public void open() throws IOException {
+		synchronized (gitLock) {
+			git = Git.open(directory);
+			applyDurability();
+			loadIndex();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#clone(java.lang.String)
+	 */
+	@Override
+	public void clone(String uri) throws ServiceUnavailable, GitException {
+		Preconditions.checkNotNull(uri);
+
+		synchronized (gitLock) {
+			CloneCommand clone = Git.cloneRepository();
+			clone.setDirectory(directory);
+			clone.setURI(uri);
+			clone.setBare(true);
+			clone.setCredentialsProvider(credentialProvider);
+			if (branch != null) {
+				clone.setBranch(Constants.R_HEADS + branch);
+				clone.setBranchesToClone(Collections.singleton(Constants.R_HEADS + branch));
+				clone.setCloneAllBranches(false);
+			}
+			try {
+				git = clone.call();
+				applyDurability();
+				loadIndex();
+			} catch (NullPointerException e) {
+				throw new ServiceUnavailable(e);
+			} catch (GitAPIException | IOException e) {
+				throw new GitException(e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#init()
+	 */
+	@Override
+	public void init() throws GitException {
+		synchronized (gitLock) {
+			InitCommand initCommand = Git.init();
+			initCommand.setDirectory(directory);
+			initCommand.setBare(true);
+			try {
+				git = initCommand.call();
+				applyDurability();
+				discardPending();
+				index = DirCache.newInCore();
+			} catch (GitAPIException e) {
+				throw new GitException(e);
+			}
+		}
+	}
+
+	/**
+	 * Enables flushing written objects to disk, if requested. The option is only set in 
+	 * memory, so the configuration file of the repository is left untouched.
+	 */
+	private void applyDurability() {
+		if (durability == Durability.BATCH) {
+			git.getRepository().getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, "fsyncObjectFiles", true);
+		}
+	}
+
+	private void loadIndex() throws IOException {
+		discardPending();
+		Repository repository = git.getRepository();
+		index = DirCache.newInCore();
+
+		ObjectId head = repository.resolve(Constants.HEAD + "^{tree}");
+		if (head != null) {
+			ObjectReader reader = repository.newObjectReader();
+			try {
+				DirCacheBuilder builder = index.builder();
+				builder.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, head);
+				builder.finish();
+			}
+			finally {
+				reader.release();
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#pull()
+	 */
+	@Override
+	public boolean pull() throws ServiceUnavailable, GitException {
+		log.info("Fetching changes from remote git repo");
+		synchronized (gitLock) {
+			try {
+				boolean updated = !git.fetch()
+						.setCredentialsProvider(credentialProvider)
+						.call().getTrackingRefUpdates().isEmpty();
+				loadIndex();
+				return updated;
+			} catch (NullPointerException e) {
+				throw new ServiceUnavailable(e);
+			} catch (GitAPIException | IOException e) {
+				throw new GitException(e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#fetch()
+	 */
+	@Override
+	public String fetch() throws ServiceUnavailable, GitException {
+		log.info("Fetching changes from remote git repo");
+		synchronized (gitLock) {
+			try {
+				// A bare clone has no remote-tracking branches, so fetch into one explicitly.
+				String branch = git.getRepository().getBranch();
+				git.fetch()
+						.setCredentialsProvider(credentialProvider)
+						.setRefSpecs(new RefSpec("+" + Constants.R_HEADS + branch + ":" + getRemoteBranch()))
+						.call();
+
+				ObjectId remote = git.getRepository().resolve(getRemoteBranch());
+				return remote == null ? null : remote.name();
+			} catch (NullPointerException e) {
+				throw new ServiceUnavailable(e);
+			} catch (GitAPIException | IOException e) {
+				throw new GitException(e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#reset()
+	 */
+	@Override
+	public void reset() throws GitException {
+		log.info("Resetting local git repo to remote git repo");
+		synchronized (gitLock) {
+			try {
+				Repository repository = git.getRepository();
+				String remoteBranch = getRemoteBranch();
+				ObjectId remote = repository.resolve(remoteBranch);
+				if (remote == null) {
+					throw new GitException("Could not find remote branch: " + remoteBranch);
+				}
+
+				RefUpdate update = repository.updateRef(Constants.HEAD);
+				update.setNewObjectId(remote);
+				update.setRefLogMessage("reset: moving to " + remoteBranch, false);
+				RefUpdate.Result result = update.forceUpdate();
+				switch (result) {
+					case NEW:
+					case FORCED:
+					case FAST_FORWARD:
+					case NO_CHANGE:
+						break;
+					default:
+						throw new GitException("Could not reset HEAD: " + result);
+				}
+				loadIndex();
+			} catch (IOException e) {
+				throw new GitException(e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#getHead()
+	 */
+	@Override
+	public String getHead() throws IOException {
+		synchronized (gitLock) {
+			ObjectId head = git.getRepository().resolve(Constants.HEAD);
+			return head == null ? null : head.name();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#diff(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Set<String> diff(String fromCommit, String toCommit) throws IOException {
+		synchronized (gitLock) {
+			return JGitManager.listChangedPaths(git.getRepository(), fromCommit, toCommit);
+		}
+	}
+
+	private String getRemoteBranch() throws IOException {
+		return Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + git.getRepository().getBranch();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#read(java.lang.String)
+	 */
+	@Override
+	public byte[] read(String path) throws IOException {
+		Preconditions.checkNotNull(path);
+
+		synchronized (gitLock) {
+			applyPending();
+			DirCacheEntry entry = index.getEntry(path);
+			if (entry == null) {
+				return null;
+			}
+			return git.getRepository().open(entry.getObjectId(), Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#readDirectory(java.lang.String)
+	 */
+	@Override
+	public Map<String, byte[]> readDirectory(String directory) throws IOException {
+		Preconditions.checkNotNull(directory);
+
+		String prefix = directory.endsWith("/") ? directory : directory + "/";
+		Map<String, byte[]> contents = Maps.newTreeMap();
+		synchronized (gitLock) {
+			applyPending();
+			Repository repository = git.getRepository();
+			ObjectReader reader = repository.newObjectReader();
+			try {
+				for (int i = 0; i < index.getEntryCount(); i++) {
+					DirCacheEntry entry = index.getEntry(i);
+					String path = entry.getPathString();
+					if (path.startsWith(prefix) && path.indexOf('/', prefix.length()) < 0) {
+						byte[] bytes = reader.open(entry.getObjectId(), Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE);
+						contents.put(path.substring(prefix.length()), bytes);
+					}
+				}
+			}
+			finally {
+				reader.release();
+			}
+		}
+		return contents;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#write(java.lang.String, byte[])
+	 */
+	@Override
+	public void write(String path, byte[] contents) throws IOException, GitException {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(contents);
+
+		synchronized (gitLock) {
+			if (blobInserter == null) {
+				blobInserter = git.getRepository().newObjectInserter();
+			}
+			
+			ObjectId blob = blobInserter.idFor(Constants.OBJ_BLOB, contents);
+			ObjectId current;
+			if (pending.containsKey(path)) {
+				current = pending.get(path);
+			}
+			else {
+				DirCacheEntry existing = index.getEntry(path);
+				current = existing == null ? null : existing.getObjectId();
+			}
+			if (blob.equals(current)) {
+				return;
+			}
+			
+			blobInserter.insert(Constants.OBJ_BLOB, contents);
+			pending.put(path, blob);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#remove(java.lang.String)
+	 */
+	@Override
+	public void remove(String filePattern) throws IOException, GitException {
+		Preconditions.checkNotNull(filePattern);
+
+		synchronized (gitLock) {
+			pending.put(filePattern, null);
+		}
+	}
+
+	/**
+	 * Flushes the blobs of the written files, and applies all written and removed files
+	 * to the index with a single {@link DirCacheEditor}.
+	 */
+	private void applyPending() throws IOException {
+		if (blobInserter != null) {
+			try {
+				blobInserter.flush();
+			}
+			finally {
+				blobInserter.release();
+				blobInserter = null;
+			}
+		}
+		if (pending.isEmpty()) {
+			return;
+		}
+		
+		DirCacheEditor editor = index.editor();
+		for (Entry<String, ObjectId> file : pending.entrySet()) {
+			final ObjectId blob = file.getValue();
+			if (blob == null) {
+				editor.add(new DeletePath(file.getKey()));
+				continue;
+			}
+			editor.add(new PathEdit(file.getKey()) {
+				@Override
+				public void apply(DirCacheEntry entry) {
+					entry.setFileMode(FileMode.REGULAR_FILE);
+					entry.setObjectId(blob);
+				}
+			});
+		}
+		editor.finish();
+		pending.clear();
+	}
+	
+	private void discardPending() {
+		if (blobInserter != null) {
+			blobInserter.release();
+			blobInserter = null;
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Since this {@link GitManager} has no working directory, all contents are staged
+	 * as soon as they are written. This method therefore does nothing.
+	 */
+	@Override
+	public void add(String filePattern) throws IOException, GitException {
+		// All written contents are already staged.
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#commit(java.lang.String)
+	 */
+	@Override
+	public void commit(String message) throws GitException {
+		Preconditions.checkNotNull(message);
+
+		synchronized (gitLock) {
+			log.info("Commiting changes to local git repo");
+			Repository repository = git.getRepository();
+			ObjectInserter inserter = repository.newObjectInserter();
+			try {
+				applyPending();
+				ObjectId parent = repository.resolve(Constants.HEAD);
+
+				CommitBuilder commit = new CommitBuilder();
+				commit.setTreeId(index.writeTree(inserter));
+				if (parent != null) {
+					commit.setParentId(parent);
+				}
+				PersonIdent ident = new PersonIdent(repository);
+				commit.setAuthor(ident);
+				commit.setCommitter(ident);
+				commit.setMessage(message);
+
+				ObjectId commitId = inserter.insert(commit);
+				inserter.flush();
+
+				RevWalk walk = new RevWalk(repository);
+				try {
+					RevCommit revCommit = walk.parseCommit(commitId);
+					RefUpdate update = repository.updateRef(Constants.HEAD);
+					update.setNewObjectId(revCommit);
+					update.setExpectedOldObjectId(parent != null ? parent : ObjectId.zeroId());
+					update.setRefLogMessage("commit: " + revCommit.getShortMessage(), false);
+
+					RefUpdate.Result result = update.update(walk);
+					if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FAST_FORWARD) {
+						throw new GitException(new IOException("Could not update HEAD: " + result));
+					}
+				}
+				finally {
+					walk.release();
+				}
+			} catch (IOException e) {
+				throw new GitException(e);
+			}
+			finally {
+				inserter.release();
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#commitChanges()
+	 */
+	@Override
+	public void commitChanges() throws IOException, GitException {
+		commit("Changed config...");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see nl.minicom.gitolite.manager.git.GitManager#push()
+	 */
+	@Override
+	public void push() throws ServiceUnavailable, GitException {
+		synchronized (gitLock) {
+			try {
+				log.info("Pushing changes to remote git repo");
+				PushResult pushResult = git.push()
+						.setCredentialsProvider(credentialProvider)
+						.call().iterator().next();
+
+				for (RemoteRefUpdate update : pushResult.getRemoteUpdates()) {
+					JGitManager.checkPushSuccess(update);
+				}
+			} catch (NullPointerException e) {
+				throw new ServiceUnavailable(e);
+			} catch (GitAPIException | JGitInternalException e) {
+				throw new GitException(e);
+			}
+		}
+	}
+
+	/**
+	 * @return The directory containing the bare repository of this {@link ObjectGitManager} object.
+	 */
+	@Override
+	public File getWorkingDirectory() {
+		return directory;
+	}
+
+}
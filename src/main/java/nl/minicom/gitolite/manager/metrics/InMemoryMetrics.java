@@ -0,0 +1,191 @@
+package nl.minicom.gitolite.manager.metrics;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+
+/**
+ * The {@link InMemoryMetrics} class is a {@link Metrics} implementation which keeps
+ * simple aggregates of every instrument in memory: the total of each {@link Counter},
+ * and the number, sum, minimum and maximum of the values recorded by each {@link Timer}
+ * and {@link Histogram}. Durations are kept in nanoseconds.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public final class InMemoryMetrics implements Metrics {
+
+	private final ConcurrentMap<String, InMemoryCounter> counters = Maps.newConcurrentMap();
+	private final ConcurrentMap<String, Aggregate> aggregates = Maps.newConcurrentMap();
+	private final ConcurrentMap<String, Gauge> gauges = Maps.newConcurrentMap();
+
+	@Override
+	public InMemoryCounter counter(String name) {
+		Preconditions.checkNotNull(name);
+		InMemoryCounter counter = counters.get(name);
+		if (counter == null) {
+			counters.putIfAbsent(name, new InMemoryCounter());
+			counter = counters.get(name);
+		}
+		return counter;
+	}
+
+	@Override
+	public Aggregate timer(String name) {
+		return aggregate(name);
+	}
+
+	@Override
+	public Aggregate histogram(String name) {
+		return aggregate(name);
+	}
+
+	private Aggregate aggregate(String name) {
+		Preconditions.checkNotNull(name);
+		Aggregate aggregate = aggregates.get(name);
+		if (aggregate == null) {
+			aggregates.putIfAbsent(name, new Aggregate());
+			aggregate = aggregates.get(name);
+		}
+		return aggregate;
+	}
+
+	@Override
+	public void gauge(String name, Gauge gauge) {
+		Preconditions.checkNotNull(name);
+		Preconditions.checkNotNull(gauge);
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * @param name The name of the {@link Gauge}.
+	 *
+	 * @return The current value of the {@link Gauge}, or NULL if no such {@link Gauge} is registered.
+	 */
+	public Long getGaugeValue(String name) {
+		Gauge gauge = gauges.get(name);
+		return gauge == null ? null : gauge.getValue();
+	}
+
+	/**
+	 * @return The current totals of all {@link Counter}s, sorted by name.
+	 */
+	public ImmutableSortedMap<String, Long> getCounts() {
+		ImmutableSortedMap.Builder<String, Long> counts = ImmutableSortedMap.naturalOrder();
+		for (Entry<String, InMemoryCounter> counter : counters.entrySet()) {
+			counts.put(counter.getKey(), counter.getValue().getCount());
+		}
+		return counts.build();
+	}
+
+	/**
+	 * @return The current values of all {@link Gauge}s, sorted by name. A {@link Gauge}
+	 *         may have the same name as a {@link Counter}.
+	 */
+	public ImmutableSortedMap<String, Long> getGaugeValues() {
+		ImmutableSortedMap.Builder<String, Long> values = ImmutableSortedMap.naturalOrder();
+		for (Entry<String, Gauge> gauge : gauges.entrySet()) {
+			values.put(gauge.getKey(), gauge.getValue().getValue());
+		}
+		return values.build();
+	}
+
+	/**
+	 * @return All {@link Timer}s and {@link Histogram}s, sorted by name.
+	 */
+	public ImmutableSortedMap<String, Aggregate> getAggregates() {
+		return ImmutableSortedMap.copyOf(aggregates);
+	}
+
+	/**
+	 * The {@link InMemoryCounter} class is a {@link Counter} which keeps its total in memory.
+	 */
+	public static final class InMemoryCounter implements Counter {
+
+		private final AtomicLong count = new AtomicLong();
+
+		@Override
+		public void increment(long count) {
+			this.count.addAndGet(count);
+		}
+
+		/**
+		 * @return The total of this {@link Counter}.
+		 */
+		public long getCount() {
+			return count.get();
+		}
+
+	}
+
+	/**
+	 * The {@link Aggregate} class is a {@link Timer} and {@link Histogram} which keeps the
+	 * number, sum, minimum and maximum of the recorded values in memory.
+	 */
+	public static final class Aggregate implements Timer, Histogram {
+
+		private long count;
+		private long sum;
+		private long minimum = Long.MAX_VALUE;
+		private long maximum = Long.MIN_VALUE;
+
+		@Override
+		public void record(long duration, TimeUnit unit) {
+			update(unit.toNanos(duration));
+		}
+
+		@Override
+		public synchronized void update(long value) {
+			count++;
+			sum += value;
+			minimum = Math.min(minimum, value);
+			maximum = Math.max(maximum, value);
+		}
+
+		/**
+		 * @return The number of recorded values.
+		 */
+		public synchronized long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return The sum of the recorded values.
+		 */
+		public synchronized long getSum() {
+			return sum;
+		}
+
+		/**
+		 * @return The smallest recorded value, or 0 if no value has been recorded.
+		 */
+		public synchronized long getMinimum() {
+			return count == 0 ? 0 : minimum;
+		}
+
+		/**
+		 * @return The largest recorded value, or 0 if no value has been recorded.
+		 */
+		public synchronized long getMaximum() {
+			return count == 0 ? 0 : maximum;
+		}
+
+		/**
+		 * @return The mean of the recorded values, or 0 if no value has been recorded.
+		 */
+		public synchronized double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return "count=" + count + ", mean=" + getMean() + ", min=" + getMinimum() + ", max=" + getMaximum();
+		}
+
+	}
+
+}
@@ -0,0 +1,101 @@
+package nl.minicom.gitolite.manager.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This interface is designed to be implemented to export the metrics of a
+ * {@link nl.minicom.gitolite.manager.models.ConfigManager} to a monitoring system. The
+ * {@link nl.minicom.gitolite.manager.models.ConfigManager} looks up every instrument it
+ * uses once, by name, and updates it from then on. Instruments are updated concurrently,
+ * so they must be thread-safe.
+ *
+ * The {@link NoopMetrics} discard everything, and are used by default. The
+ * {@link InMemoryMetrics} keep simple aggregates in memory, which can be read directly
+ * or copied to another system periodically.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public interface Metrics {
+
+	/**
+	 * @param name The name of the {@link Counter}.
+	 *
+	 * @return The {@link Counter} with the specified name.
+	 */
+	Counter counter(String name);
+
+	/**
+	 * @param name The name of the {@link Timer}.
+	 *
+	 * @return The {@link Timer} with the specified name.
+	 */
+	Timer timer(String name);
+
+	/**
+	 * @param name The name of the {@link Histogram}.
+	 *
+	 * @return The {@link Histogram} with the specified name.
+	 */
+	Histogram histogram(String name);
+
+	/**
+	 * This method registers a {@link Gauge}, which is read whenever the metrics are
+	 * exported. A {@link Gauge} registered earlier with the same name is replaced.
+	 *
+	 * @param name The name of the {@link Gauge}.
+	 *
+	 * @param gauge The {@link Gauge} to register.
+	 */
+	void gauge(String name, Gauge gauge);
+
+	/**
+	 * A {@link Counter} counts how often something happened.
+	 */
+	interface Counter {
+
+		/**
+		 * @param count The number to increase the {@link Counter} with.
+		 */
+		void increment(long count);
+
+	}
+
+	/**
+	 * A {@link Timer} records how long something took.
+	 */
+	interface Timer {
+
+		/**
+		 * @param duration The duration to record.
+		 *
+		 * @param unit The {@link TimeUnit} of the duration.
+		 */
+		void record(long duration, TimeUnit unit);
+
+	}
+
+	/**
+	 * A {@link Histogram} records the distribution of a value, such as a size.
+	 */
+	interface Histogram {
+
+		/**
+		 * @param value The value to record.
+		 */
+		void update(long value);
+
+	}
+
+	/**
+	 * A {@link Gauge} reports the current value of something, such as the length of a queue.
+	 */
+	interface Gauge {
+
+		/**
+		 * @return The current value.
+		 */
+		long getValue();
+
+	}
+
+}
@@ -0,0 +1,54 @@
+package nl.minicom.gitolite.manager.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link NoopMetrics} class is a {@link Metrics} implementation which discards
+ * everything. Its instruments are shared, and do nothing at all.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public final class NoopMetrics implements Metrics {
+
+	private static final Counter COUNTER = new Counter() {
+		@Override
+		public void increment(long count) {
+			// Discarded.
+		}
+	};
+
+	private static final Timer TIMER = new Timer() {
+		@Override
+		public void record(long duration, TimeUnit unit) {
+			// Discarded.
+		}
+	};
+
+	private static final Histogram HISTOGRAM = new Histogram() {
+		@Override
+		public void update(long value) {
+			// Discarded.
+		}
+	};
+
+	@Override
+	public Counter counter(String name) {
+		return COUNTER;
+	}
+
+	@Override
+	public Timer timer(String name) {
+		return TIMER;
+	}
+
+	@Override
+	public Histogram histogram(String name) {
+		return HISTOGRAM;
+	}
+
+	@Override
+	public void gauge(String name, Gauge gauge) {
+		// Discarded.
+	}
+
+}
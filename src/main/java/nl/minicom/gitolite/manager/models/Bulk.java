@@ -0,0 +1,565 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The {@link Bulk} class collects a large number of changes for a {@link Config} object,
+ * and applies them all at once. This is a lot cheaper than making each change separately:
+ * the name of every created object is validated only once, when it is added to the 
+ * {@link Bulk} object, and {@link Bulk#apply()} sorts and checks all changes before it 
+ * inserts them in sorted batches. Names which refer to other objects are not validated
+ * at all, since these objects must exist. All changes are recorded together as a single
+ * changeset, and they can be undone as a whole.
+ *
+ * <pre>
+ * config.bulk()
+ * 	.addUsers("john", "jane")
+ * 	.addRepositories("project")
+ * 	.grant("project", Permission.READ_WRITE, "john", "jane")
+ * 	.apply();
+ * </pre>
+ *
+ * A name which refers to a {@link User}, {@link Group} or {@link Repository} may refer
+ * to one which already exists in the {@link Config}, or to one which is created by the
+ * same {@link Bulk} object.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public final class Bulk {
+
+	private final Config config;
+	private final Recorder recorder;
+
+	private final List<String> users = Lists.newArrayList();
+	private final List<String> groups = Lists.newArrayList();
+	private final List<String> repositories = Lists.newArrayList();
+	private final List<Change> keys = Lists.newArrayList();
+	private final List<Change> members = Lists.newArrayList();
+	private final List<Change> grants = Lists.newArrayList();
+
+	private boolean applied;
+
+	/**
+	 * Constructs a new {@link Bulk} object.
+	 *
+	 * @param config
+	 * 	The {@link Config} object to apply the changes to.
+	 */
+	Bulk(Config config) {
+		Preconditions.checkNotNull(config);
+		this.config = config;
+		this.recorder = config.getRecorder();
+	}
+
+	/**
+	 * This method adds {@link User}s which should be created.
+	 *
+	 * @param userNames
+	 * 	The names of the {@link User}s. Each must be a valid user name.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk addUsers(String... userNames) {
+		return addUsers(Arrays.asList(userNames));
+	}
+
+	/**
+	 * This method adds {@link User}s which should be created.
+	 *
+	 * @param userNames
+	 * 	The names of the {@link User}s. Each must be a valid user name.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk addUsers(Iterable<String> userNames) {
+		for (String userName : userNames) {
+			User.validateName(userName);
+			users.add(userName);
+		}
+		return this;
+	}
+
+	/**
+	 * This method adds {@link Group}s which should be created.
+	 *
+	 * @param groupNames
+	 * 	The names of the {@link Group}s. Each must be a valid group name.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk addGroups(String... groupNames) {
+		return addGroups(Arrays.asList(groupNames));
+	}
+
+	/**
+	 * This method adds {@link Group}s which should be created.
+	 *
+	 * @param groupNames
+	 * 	The names of the {@link Group}s. Each must be a valid group name.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk addGroups(Iterable<String> groupNames) {
+		for (String groupName : groupNames) {
+			Group.validateName(groupName);
+			groups.add(groupName);
+		}
+		return this;
+	}
+
+	/**
+	 * This method adds {@link Repository}s which should be created.
+	 *
+	 * @param repoNames
+	 * 	The names of the {@link Repository}s. These may not be NULL or empty.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk addRepositories(String... repoNames) {
+		return addRepositories(Arrays.asList(repoNames));
+	}
+
+	/**
+	 * This method adds {@link Repository}s which should be created.
+	 *
+	 * @param repoNames
+	 * 	The names of the {@link Repository}s. These may not be NULL or empty.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk addRepositories(Iterable<String> repoNames) {
+		for (String repoName : repoNames) {
+			validateRepositoryName(repoName);
+			repositories.add(repoName);
+		}
+		return this;
+	}
+
+	/**
+	 * This method adds an SSH key which should be set for a {@link User}.
+	 *
+	 * @param userName
+	 * 	The name of the {@link User}.
+	 *
+	 * @param keyName
+	 * 	The name of the key. This may not be NULL.
+	 *
+	 * @param content
+	 * 	The content of the public key file. This may not be NULL.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk setKey(String userName, String keyName, String content) {
+		Preconditions.checkNotNull(userName);
+		User.validateKey(keyName, content);
+		keys.add(new Change(userName, keyName, content));
+		return this;
+	}
+
+	/**
+	 * This method adds {@link User}s which should be added to a {@link Group}.
+	 *
+	 * @param groupName
+	 * 	The name of the {@link Group}. This may not be the "@all" {@link Group}.
+	 *
+	 * @param userNames
+	 * 	The names of the {@link User}s, which may not be members of the {@link Group} yet.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk addToGroup(String groupName, String... userNames) {
+		return addToGroup(groupName, Arrays.asList(userNames));
+	}
+
+	/**
+	 * This method adds {@link User}s which should be added to a {@link Group}.
+	 *
+	 * @param groupName
+	 * 	The name of the {@link Group}. This may not be the "@all" {@link Group}.
+	 *
+	 * @param userNames
+	 * 	The names of the {@link User}s, which may not be members of the {@link Group} yet.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk addToGroup(String groupName, Iterable<String> userNames) {
+		Preconditions.checkNotNull(groupName);
+		Preconditions.checkArgument(!groupName.equals("@all"));
+		for (String userName : userNames) {
+			Preconditions.checkNotNull(userName);
+			members.add(new Change(groupName, userName, null));
+		}
+		return this;
+	}
+
+	/**
+	 * This method adds a {@link Permission} which should be granted on a {@link Repository}.
+	 *
+	 * @param repoName
+	 * 	The name of the {@link Repository}.
+	 *
+	 * @param level
+	 * 	The {@link Permission} to grant. This may not be NULL.
+	 *
+	 * @param names
+	 * 	The names of the {@link User}s and {@link Group}s to grant the {@link Permission} to.
+	 * 	Names which start with the character '@' refer to {@link Group}s.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk grant(String repoName, Permission level, String... names) {
+		return grant(repoName, level, Arrays.asList(names));
+	}
+
+	/**
+	 * This method adds a {@link Permission} which should be granted on a {@link Repository}.
+	 *
+	 * @param repoName
+	 * 	The name of the {@link Repository}.
+	 *
+	 * @param level
+	 * 	The {@link Permission} to grant. This may not be NULL.
+	 *
+	 * @param names
+	 * 	The names of the {@link User}s and {@link Group}s to grant the {@link Permission} to.
+	 * 	Names which start with the character '@' refer to {@link Group}s.
+	 *
+	 * @return
+	 * 	This {@link Bulk} object.
+	 */
+	public Bulk grant(String repoName, Permission level, Iterable<String> names) {
+		validateRepositoryName(repoName);
+		Preconditions.checkNotNull(level);
+		for (String name : names) {
+			Preconditions.checkNotNull(name);
+			grants.add(new Change(repoName, name, level));
+		}
+		return this;
+	}
+
+	/**
+	 * This method applies all changes to the {@link Config} object. Either all changes are
+	 * applied, or none of them are. A {@link Bulk} object can only be applied once, but it
+	 * may be applied again after it has been rejected.
+	 *
+	 * @throws IllegalArgumentException
+	 * 	If a {@link User}, {@link Group} or {@link Repository} which should be created has
+	 * 	been added twice or already exists, if one which is referred to does not exist, or if
+	 * 	a {@link User} which should be added to a {@link Group} already is a member of it.
+	 *
+	 * @throws UnsupportedOperationException
+	 * 	If the {@link Config} object is a read-only view.
+	 * 
+	 * @throws IllegalStateException
+	 * 	If this {@link Bulk} object has already been applied.
+	 */
+	public void apply() {
+		Preconditions.checkState(!applied, "This bulk change has already been applied!");
+		recorder.checkNotFrozen();
+
+		Collections.sort(users);
+		Collections.sort(groups);
+		Collections.sort(repositories);
+		Collections.sort(keys);
+		Collections.sort(members);
+		Collections.sort(grants);
+
+		// Construct the new objects up front, so that names can be resolved in constant time.
+		Map<String, ImmutableSortedMap<String, String>> userKeys = collectKeys();
+		Map<String, User> createdUsers = Maps.newHashMapWithExpectedSize(users.size());
+		for (String userName : users) {
+			ImmutableSortedMap<String, String> initial = userKeys.remove(userName);
+			if (initial == null) {
+				initial = ImmutableSortedMap.of();
+			}
+			createdUsers.put(userName, new User(userName, recorder, initial));
+		}
+		Map<String, Group> createdGroups = Maps.newHashMapWithExpectedSize(groups.size());
+		for (String groupName : groups) {
+			createdGroups.put(groupName, new Group(groupName, recorder, false));
+		}
+		Map<String, Repository> createdRepositories = Maps.newHashMapWithExpectedSize(repositories.size());
+		for (String repoName : repositories) {
+			createdRepositories.put(repoName, new Repository(repoName, recorder));
+		}
+
+		Map<String, User> userIndex = config.getUserIndex();
+		Map<String, Group> groupIndex = config.getGroupIndex();
+		Map<String, Repository> repositoryIndex = config.getRepositoryIndex();
+
+		synchronized (userIndex) {
+			synchronized (groupIndex) {
+				synchronized (repositoryIndex) {
+					checkCreated("user", users, userIndex);
+					checkCreated("group", groups, groupIndex);
+					checkCreated("repository", repositories, repositoryIndex);
+					for (String userName : userKeys.keySet()) {
+						resolve("user", userName, createdUsers, userIndex);
+					}
+					checkMembers(createdUsers, userIndex, createdGroups, groupIndex);
+					for (Change grant : grants) {
+						resolve("repository", grant.target, createdRepositories, repositoryIndex);
+						resolveMember(grant.name, createdUsers, userIndex, createdGroups, groupIndex);
+					}
+
+					insert(userKeys, createdUsers, userIndex, createdGroups, groupIndex, 
+							createdRepositories, repositoryIndex);
+					applied = true;
+				}
+			}
+		}
+	}
+
+	private static void checkCreated(String type, List<String> created, Map<String, ?> index) {
+		for (int i = 0; i < created.size(); i++) {
+			String name = created.get(i);
+			if (i > 0 && name.equals(created.get(i - 1))) {
+				throw new IllegalArgumentException("The " + type + " " + name + " has been added twice!");
+			}
+			if (index.containsKey(name)) {
+				throw new IllegalArgumentException("The " + type + " " + name + " has already been created!");
+			}
+		}
+	}
+
+	private void checkMembers(Map<String, User> createdUsers, Map<String, User> userIndex, 
+			Map<String, Group> createdGroups, Map<String, Group> groupIndex) {
+		
+		for (int i = 0; i < members.size(); i++) {
+			Change member = members.get(i);
+			Group group = resolve("group", member.target, createdGroups, groupIndex);
+			User user = resolve("user", member.name, createdUsers, userIndex);
+			if (i > 0 && member.compareTo(members.get(i - 1)) == 0) {
+				throw new IllegalArgumentException("The user " + member.name + " has been added to " 
+						+ member.target + " twice!");
+			}
+			if (group.containsUser(user)) {
+				throw new IllegalArgumentException("Cannot add user: '" + member.name + "' to " 
+						+ member.target + ". It's already added!");
+			}
+		}
+	}
+
+	/**
+	 * @return
+	 * 	The object with the specified name, which is either created by this {@link Bulk}
+	 * 	object, or already exists.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 	If no such object exists.
+	 */
+	private static <T> T resolve(String type, String name, Map<String, T> created, Map<String, T> index) {
+		T resolved = created.get(name);
+		if (resolved == null) {
+			resolved = index.get(name);
+			if (resolved == null) {
+				throw new IllegalArgumentException("The " + type + " " + name + " does not exist!");
+			}
+		}
+		return resolved;
+	}
+
+	private static Identifiable resolveMember(String name, Map<String, User> createdUsers, Map<String, User> userIndex,
+			Map<String, Group> createdGroups, Map<String, Group> groupIndex) {
+		if (isGroupName(name)) {
+			return resolve("group", name, createdGroups, groupIndex);
+		}
+		return resolve("user", name, createdUsers, userIndex);
+	}
+
+	private void insert(Map<String, ImmutableSortedMap<String, String>> userKeys,
+			Map<String, User> createdUsers, final Map<String, User> userIndex, 
+			Map<String, Group> createdGroups, final Map<String, Group> groupIndex,
+			Map<String, Repository> createdRepositories, final Map<String, Repository> repositoryIndex) {
+
+		Changelog changelog = new Changelog();
+
+		for (String groupName : groups) {
+			groupIndex.put(groupName, createdGroups.get(groupName));
+			changelog.add(Operation.Type.CREATE_GROUP, groupName, null, null);
+		}
+
+		// Add the users, and the keys of existing users.
+		for (String userName : users) {
+			userIndex.put(userName, createdUsers.get(userName));
+			changelog.add(Operation.Type.CREATE_USER, userName, null, null);
+		}
+		final Map<User, ImmutableSortedMap<String, String>> previousKeys = Maps.newHashMap();
+		for (Map.Entry<String, ImmutableSortedMap<String, String>> entry : userKeys.entrySet()) {
+			User user = userIndex.get(entry.getKey());
+			previousKeys.put(user, user.putKeys(entry.getValue()));
+		}
+		for (Change key : keys) {
+			changelog.add(Operation.Type.SET_KEY, key.target, key.name, (String) key.value);
+		}
+
+		// Add users to groups, one group at a time.
+		for (int start = 0; start < members.size();) {
+			String groupName = members.get(start).target;
+			Group group = resolve("group", groupName, createdGroups, groupIndex);
+			List<User> added = Lists.newArrayList();
+			int end = start;
+			while (end < members.size() && members.get(end).target.equals(groupName)) {
+				String userName = members.get(end).name;
+				added.add(resolve("user", userName, createdUsers, userIndex));
+				changelog.add(Operation.Type.ADD_USER_TO_GROUP, groupName, userName, null);
+				end++;
+			}
+			group.addUsers(added);
+			start = end;
+		}
+
+		for (String repoName : repositories) {
+			repositoryIndex.put(repoName, createdRepositories.get(repoName));
+			changelog.add(Operation.Type.CREATE_REPOSITORY, repoName, null, null);
+		}
+
+		final boolean[] granted = new boolean[grants.size()];
+		for (int i = 0; i < grants.size(); i++) {
+			Change grant = grants.get(i);
+			Repository repository = resolve("repository", grant.target, createdRepositories, repositoryIndex);
+			Permission level = (Permission) grant.value;
+			Identifiable member = resolveMember(grant.name, createdUsers, userIndex, createdGroups, groupIndex);
+			granted[i] = repository.grantPermission(level, member);
+			Operation.Type type = member instanceof Group 
+					? Operation.Type.SET_GROUP_PERMISSION : Operation.Type.SET_USER_PERMISSION;
+			changelog.add(type, grant.target, grant.name, level.name());
+		}
+
+		recorder.logUndo(new Recorder.Undo() {
+			@Override
+			public void undo() {
+				synchronized (userIndex) {
+					synchronized (groupIndex) {
+						synchronized (repositoryIndex) {
+							reverse(userIndex, groupIndex, repositoryIndex, granted, previousKeys);
+						}
+					}
+				}
+			}
+		});
+
+		recorder.append(changelog);
+	}
+
+	/**
+	 * @return
+	 * 	The keys which should be set, indexed by the name of the {@link User}, and the name of the key.
+	 * 	The returned {@link Map} may be modified.
+	 */
+	private Map<String, ImmutableSortedMap<String, String>> collectKeys() {
+		Map<String, ImmutableSortedMap<String, String>> collected = Maps.newHashMap();
+		for (int start = 0; start < keys.size();) {
+			String userName = keys.get(start).target;
+			if (start + 1 == keys.size() || !keys.get(start + 1).target.equals(userName)) {
+				collected.put(userName, ImmutableSortedMap.of(keys.get(start).name, (String) keys.get(start).value));
+				start++;
+				continue;
+			}
+			
+			ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+			int end = start;
+			while (end < keys.size() && keys.get(end).target.equals(userName)) {
+				// When a key is set twice, only the last value is kept.
+				if (end + 1 == keys.size() || keys.get(end + 1).compareTo(keys.get(end)) != 0) {
+					builder.put(keys.get(end).name, (String) keys.get(end).value);
+				}
+				end++;
+			}
+			collected.put(userName, builder.build());
+			start = end;
+		}
+		return collected;
+	}
+
+	/**
+	 * This method reverses all changes of this {@link Bulk} object, in reverse order. The state
+	 * of the {@link Config} is the same as right after {@link Bulk#apply()}, so every name can
+	 * be looked up again.
+	 */
+	private void reverse(Map<String, User> userIndex, Map<String, Group> groupIndex,
+			Map<String, Repository> repositoryIndex, boolean[] granted,
+			Map<User, ImmutableSortedMap<String, String>> previousKeys) {
+
+		for (int i = 0; i < grants.size(); i++) {
+			if (granted[i]) {
+				Change grant = grants.get(i);
+				Identifiable entity = isGroupName(grant.name) ? groupIndex.get(grant.name) : userIndex.get(grant.name);
+				repositoryIndex.get(grant.target).revokePermission((Permission) grant.value, entity);
+			}
+		}
+		for (String repoName : repositories) {
+			repositoryIndex.remove(repoName);
+		}
+
+		for (Change member : members) {
+			groupIndex.get(member.target).removeUsers(Collections.singleton(userIndex.get(member.name)));
+		}
+		for (Map.Entry<User, ImmutableSortedMap<String, String>> entry : previousKeys.entrySet()) {
+			entry.getKey().restoreKeys(entry.getValue());
+		}
+		for (String userName : users) {
+			userIndex.remove(userName);
+		}
+		for (String groupName : groups) {
+			groupIndex.remove(groupName);
+		}
+	}
+
+	private static void validateRepositoryName(String repoName) {
+		Preconditions.checkNotNull(repoName);
+		Preconditions.checkArgument(!repoName.isEmpty());
+	}
+
+	private static boolean isGroupName(String name) {
+		Preconditions.checkNotNull(name);
+		return name.startsWith("@");
+	}
+
+	/**
+	 * A single change of a {@link Bulk}: a key of a {@link User}, a member of a {@link Group},
+	 * or a {@link Permission} on a {@link Repository}. Changes are sorted by the name of the
+	 * changed object first, and then by the name of the key or member.
+	 */
+	private static final class Change implements Comparable<Change> {
+
+		private final String target;
+		private final String name;
+		private final Object value;
+
+		private Change(String target, String name, Object value) {
+			this.target = target;
+			this.name = name;
+			this.value = value;
+		}
+
+		@Override
+		public int compareTo(Change other) {
+			int result = target.compareTo(other.target);
+			if (result == 0) {
+				result = name.compareTo(other.name);
+			}
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,221 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The {@link Changelog} class stores a sequence of recorded changes in a compact form.
+ * Every {@link Operation} is stored as the ordinal of its {@link Operation.Type} and the
+ * ids of its arguments, in primitive arrays. Every distinct argument is only stored once,
+ * so the name of a {@link Repository} which is changed many times takes no extra memory.
+ * The {@link Operation} objects themselves are only constructed by {@link Changelog#toList()}.
+ *
+ * Any other kind of {@link Modification} is stored as is. This class is not thread-safe.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+final class Changelog {
+
+	private static final Operation.Type[] TYPES = Operation.Type.values();
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int MAX_ARGUMENTS = 3;
+	private static final byte OTHER = -1;
+	private static final int ABSENT = -1;
+
+	private byte[] types;
+	private int[] arguments;
+	private int size;
+
+	private final List<String> names;
+	private final Map<String, Integer> ids;
+	private final List<Modification> others;
+
+	/**
+	 * Constructs a new and empty {@link Changelog} object.
+	 */
+	Changelog() {
+		this.types = new byte[INITIAL_CAPACITY];
+		this.arguments = new int[INITIAL_CAPACITY * MAX_ARGUMENTS];
+		this.names = Lists.newArrayList();
+		this.ids = Maps.newHashMap();
+		this.others = Lists.newArrayList();
+	}
+
+	/**
+	 * This method adds an {@link Operation} to this {@link Changelog}.
+	 *
+	 * @param type
+	 * 	The {@link Operation.Type} of the {@link Operation}.
+	 *
+	 * @param name
+	 * 	The name of the {@link Repository}, {@link Group} or {@link User} which is changed.
+	 *
+	 * @param argument
+	 * 	The second argument of the {@link Operation}, or NULL if it has only one argument.
+	 *
+	 * @param value
+	 * 	The third argument of the {@link Operation}, or NULL if it has at most two arguments.
+	 */
+	void add(Operation.Type type, String name, String argument, String value) {
+		ensureCapacity(size + 1);
+		int offset = size * MAX_ARGUMENTS;
+		types[size] = (byte) type.ordinal();
+		arguments[offset] = idOf(name);
+		arguments[offset + 1] = argument == null ? ABSENT : idOf(argument);
+		arguments[offset + 2] = value == null ? ABSENT : idOf(value);
+		size++;
+	}
+
+	/**
+	 * This method adds a {@link Modification} to this {@link Changelog}.
+	 *
+	 * @param modification
+	 * 	The {@link Modification} to add.
+	 */
+	void add(Modification modification) {
+		if (modification instanceof Operation) {
+			Operation operation = (Operation) modification;
+			List<String> operationArguments = operation.getArguments();
+			if (operationArguments.size() <= MAX_ARGUMENTS) {
+				add(operation.getType(), operationArguments.get(0),
+						operationArguments.size() > 1 ? operationArguments.get(1) : null,
+						operationArguments.size() > 2 ? operationArguments.get(2) : null);
+				return;
+			}
+		}
+
+		ensureCapacity(size + 1);
+		types[size] = OTHER;
+		arguments[size * MAX_ARGUMENTS] = others.size();
+		others.add(modification);
+		size++;
+	}
+
+	/**
+	 * This method adds all changes of another {@link Changelog} to the end of this one.
+	 *
+	 * @param other
+	 * 	The {@link Changelog} whose changes to add.
+	 */
+	void addAll(Changelog other) {
+		ensureCapacity(size + other.size);
+		for (int i = 0; i < other.size; i++) {
+			int offset = i * MAX_ARGUMENTS;
+			if (other.types[i] == OTHER) {
+				add(other.others.get(other.arguments[offset]));
+				continue;
+			}
+
+			int target = size * MAX_ARGUMENTS;
+			types[size] = other.types[i];
+			for (int j = 0; j < MAX_ARGUMENTS; j++) {
+				int id = other.arguments[offset + j];
+				arguments[target + j] = id == ABSENT ? ABSENT : idOf(other.names.get(id));
+			}
+			size++;
+		}
+	}
+
+	/**
+	 * @return
+	 * 	The number of changes in this {@link Changelog}.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return
+	 * 	The {@link Operation.Type} of the change at the specified index, or NULL if it's 
+	 * 	not an {@link Operation}.
+	 */
+	Operation.Type getType(int index) {
+		Preconditions.checkElementIndex(index, size);
+		return types[index] == OTHER ? null : TYPES[types[index]];
+	}
+
+	/**
+	 * @return
+	 * 	The name of the {@link Repository}, {@link Group} or {@link User} which is changed
+	 * 	by the {@link Operation} at the specified index.
+	 */
+	String getName(int index) {
+		Preconditions.checkState(getType(index) != null, "The change is not an operation");
+		return names.get(arguments[index * MAX_ARGUMENTS]);
+	}
+
+	/**
+	 * @return
+	 * 	All changes in this {@link Changelog}, in the order in which they were added.
+	 */
+	ImmutableList<Modification> toList() {
+		ImmutableList.Builder<Modification> builder = ImmutableList.builder();
+		for (int i = 0; i < size; i++) {
+			builder.add(get(i));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * This method removes all changes from this {@link Changelog}, and releases the memory
+	 * they occupied.
+	 */
+	void clear() {
+		types = new byte[INITIAL_CAPACITY];
+		arguments = new int[INITIAL_CAPACITY * MAX_ARGUMENTS];
+		size = 0;
+		names.clear();
+		ids.clear();
+		others.clear();
+	}
+
+	private Modification get(int index) {
+		int offset = index * MAX_ARGUMENTS;
+		if (types[index] == OTHER) {
+			return others.get(arguments[offset]);
+		}
+
+		ImmutableList.Builder<String> builder = ImmutableList.builder();
+		for (int j = 0; j < MAX_ARGUMENTS && arguments[offset + j] != ABSENT; j++) {
+			builder.add(names.get(arguments[offset + j]));
+		}
+		return new Operation(TYPES[types[index]], builder.build());
+	}
+
+	private int idOf(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			names.add(name);
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > types.length) {
+			int grown = Math.max(capacity, types.length + (types.length >> 1));
+			types = Arrays.copyOf(types, grown);
+			arguments = Arrays.copyOf(arguments, grown * MAX_ARGUMENTS);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			builder.append(get(i)).append('\n');
+		}
+		return builder.toString();
+	}
+
+}
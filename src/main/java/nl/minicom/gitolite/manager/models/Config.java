@@ -1,15 +1,12 @@
 package nl.minicom.gitolite.manager.models;
 
-import java.util.Map.Entry;
-import java.util.SortedSet;
-
-import nl.minicom.gitolite.manager.exceptions.ModificationException;
-import nl.minicom.gitolite.manager.models.Recorder.Modification;
+import java.util.Set;
+import java.util.SortedMap;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 
 /**
  * The {@code Config} class is a representation of a configuration of gitolite.
@@ -19,10 +16,11 @@ import com.google.common.collect.Sets;
  */
 public final class Config {
 
-	private final SortedSet<Repository> repositories;
-	private final SortedSet<Group> groups;
-	private final SortedSet<User> users;
+	private final SortedMap<String, Repository> repositories;
+	private final SortedMap<String, Group> groups;
+	private final SortedMap<String, User> users;
 	private final Recorder recorder;
+	private volatile EffectivePermissions effectivePermissions;
 
 	/**
 	 * This constructs a new {@code Config} object.
@@ -41,9 +39,9 @@ public final class Config {
 		Preconditions.checkNotNull(recorder);
 		
 		this.recorder = recorder;
-		this.repositories = Sets.newTreeSet(Repository.SORT_BY_NAME);
-		this.groups = Sets.newTreeSet(Group.SORT_BY_NAME);
-		this.users = Sets.newTreeSet(User.SORT_BY_TYPE_AND_NAME);
+		this.repositories = Maps.newTreeMap();
+		this.groups = Maps.newTreeMap();
+		this.users = Maps.newTreeMap();
 	}
 	
 	/**
@@ -52,6 +50,24 @@ public final class Config {
 	Recorder getRecorder() {
 		return recorder;
 	}
+	
+	/**
+	 * This method turns this {@code Config} object into a read-only view. Afterwards any 
+	 * attempt to modify it, or any of its {@link Repository}, {@link Group} or {@link User}
+	 * objects, results in an {@link UnsupportedOperationException}. Since a frozen
+	 * {@code Config} never changes, it can be shared between threads and read without locking.
+	 */
+	void freeze() {
+		recorder.freeze();
+	}
+	
+	/**
+	 * @return
+	 * 	True if this {@code Config} object is a read-only view, false otherwise.
+	 */
+	public boolean isReadOnly() {
+		return recorder.isFrozen();
+	}
 
 	/**
 	 * This method ensures that the {@code Config} object will contain a {@link Repository}
@@ -89,30 +105,29 @@ public final class Config {
 	 * 	The created {@link Repository} object.
 	 */
 	public Repository createRepository(final String repoName) {
+		recorder.checkNotFrozen();
 		validateRepositoryName(repoName);
 		
 		Repository repository = null;
 		synchronized (repositories) {
-			if (getRepository(repoName) != null) {
+			if (repositories.containsKey(repoName)) {
 				throw new IllegalArgumentException("The repository " + repoName + " has already been created!");
 			}
 			
 			repository = new Repository(repoName, recorder);
-			repositories.add(repository);
+			repositories.put(repoName, repository);
 		}
-		
-		recorder.append(new Modification("Create repository: " + repoName) {
+		recorder.logUndo(new Recorder.Undo() {
 			@Override
-			public void apply(Config config) throws ModificationException {
-				try {
-					config.createRepository(repoName);
-				}
-				catch (IllegalArgumentException e) {
-					throw new ModificationException();
+			public void undo() {
+				synchronized (repositories) {
+					repositories.remove(repoName);
 				}
 			}
 		});
 		
+		recorder.append(Operation.Type.CREATE_REPOSITORY, repoName);
+		
 		return repository;
 	}
 
@@ -127,27 +142,28 @@ public final class Config {
 	 * 	In the latter case it most likely did not exist.
 	 */
 	public boolean removeRepository(Repository repository) {
+		recorder.checkNotFrozen();
 		Preconditions.checkNotNull(repository);
 
-		boolean removed = false;
+		final Repository removed;
 		synchronized (repositories) {
-			removed = repositories.remove(repository);
+			removed = repositories.remove(repository.getName());
+		}
+		if (removed != null) {
+			recorder.logUndo(new Recorder.Undo() {
+				@Override
+				public void undo() {
+					synchronized (repositories) {
+						repositories.put(removed.getName(), removed);
+					}
+				}
+			});
 		}
 		
 		final String repoName = repository.getName();
-		recorder.append(new Modification("Remove repository: " + repository.getName()) {
-			@Override
-			public void apply(Config config) throws ModificationException {
-				Repository repo = config.getRepository(repoName);
-				if (repo == null) {
-					throw new ModificationException();
-				}
-				
-				config.removeRepository(repo);
-			}
-		});
+		recorder.append(Operation.Type.REMOVE_REPOSITORY, repoName);
 		
-		return removed;
+		return removed != null;
 	}
 
 	/**
@@ -181,15 +197,12 @@ public final class Config {
 	public Repository getRepository(String repoName) {
 		validateRepositoryName(repoName);
 
+		if (recorder.isFrozen()) {
+			return repositories.get(repoName);
+		}
 		synchronized (repositories) {
-			for (Repository repository : repositories) {
-				if (repository.getName().equals(repoName)) {
-					return repository;
-				}
-			}
+			return repositories.get(repoName);
 		}
-		
-		return null;
 	}
 	
 	/**
@@ -198,11 +211,23 @@ public final class Config {
 	 * 	registered in the {@code Config} object.
 	 */
 	public ImmutableSet<Repository> getRepositories() {
+		if (recorder.isFrozen()) {
+			return ImmutableSortedSet.copyOf(Repository.SORT_BY_NAME, repositories.values());
+		}
 		synchronized (repositories) {
-			return ImmutableSortedSet.copyOf(Repository.SORT_BY_NAME, repositories);
+			return ImmutableSortedSet.copyOf(Repository.SORT_BY_NAME, repositories.values());
 		}
 	}
 	
+	/**
+	 * @return
+	 * 	The {@link SortedMap} containing the {@link Repository} objects of this {@link Config},
+	 * 	indexed by name. This is not a copy, so it may only be read while synchronizing on it.
+	 */
+	SortedMap<String, Repository> getRepositoryIndex() {
+		return repositories;
+	}
+	
 	private void validateRepositoryName(String repoName) {
 		Preconditions.checkNotNull(repoName);
 		Preconditions.checkArgument(!repoName.isEmpty());
@@ -244,30 +269,29 @@ public final class Config {
 	 * 	The created {@link Group} object.
 	 */
 	public Group createGroup(final String groupName) {
+		recorder.checkNotFrozen();
 		validateGroupName(groupName);
 
 		Group group = null;
 		synchronized (groups) {
-			if (getGroup(groupName) != null) {
+			if (groups.containsKey(groupName)) {
 				throw new IllegalArgumentException("The group " + groupName + " has already been created!");
 			}
 			
 			group = new Group(groupName, recorder);
-			groups.add(group);
+			groups.put(groupName, group);
 		}
-		
-		recorder.append(new Modification("Creating group: " + groupName) {
+		recorder.logUndo(new Recorder.Undo() {
 			@Override
-			public void apply(Config config) throws ModificationException {
-				try {
-					config.createGroup(groupName);
-				}
-				catch (IllegalArgumentException e) {
-					throw new ModificationException();
+			public void undo() {
+				synchronized (groups) {
+					groups.remove(groupName);
 				}
 			}
 		});
 		
+		recorder.append(Operation.Type.CREATE_GROUP, groupName);
+		
 		return group;
 	}
 
@@ -282,30 +306,33 @@ public final class Config {
 	 * 	In the latter case it most likely did not exist.
 	 */
 	public boolean removeGroup(Group group) {
+		recorder.checkNotFrozen();
 		Preconditions.checkNotNull(group);
 
-		boolean remove = false;
+		final Group removed;
 		synchronized (groups) {
-			remove = groups.remove(group);
+			removed = groups.remove(group.getName());
 		}
 		
+		boolean remove = removed != null;
 		if (remove) {
+			recorder.logUndo(new Recorder.Undo() {
+				@Override
+				public void undo() {
+					synchronized (groups) {
+						groups.put(removed.getName(), removed);
+					}
+				}
+			});
+			
 			synchronized (repositories) {
-				for (Repository repo : repositories) {
+				for (Repository repo : repositories.values()) {
 					repo.revokePermissions(group);
 				}
 			}
 			
 			final String groupName = group.getName();
-			recorder.append(new Modification("Removing group: " + groupName) {
-				@Override
-				public void apply(Config config) throws ModificationException {
-					Group group = config.getGroup(groupName);
-					if (group == null || !config.removeGroup(group)) {
-						throw new ModificationException();
-					}
-				}
-			});
+			recorder.append(Operation.Type.REMOVE_GROUP, groupName);
 		}
 		
 		return remove;
@@ -342,14 +369,12 @@ public final class Config {
 	public Group getGroup(String groupName) {
 		validateGroupName(groupName);
 		
+		if (recorder.isFrozen()) {
+			return groups.get(groupName);
+		}
 		synchronized (groups) {
-			for (Group group : groups) {
-				if (group.getName().equals(groupName)) {
-					return group;
-				}
-			}
+			return groups.get(groupName);
 		}
-		return null;
 	}
 
 	/**
@@ -358,11 +383,23 @@ public final class Config {
 	 * 	registered in the {@code Config} object. This includes the "@all" {@link Group}.
 	 */
 	public ImmutableSet<Group> getGroups() {
+		if (recorder.isFrozen()) {
+			return ImmutableSortedSet.copyOf(Group.SORT_BY_NAME, groups.values());
+		}
 		synchronized (groups) {
-			return ImmutableSortedSet.copyOf(Group.SORT_BY_NAME, groups);
+			return ImmutableSortedSet.copyOf(Group.SORT_BY_NAME, groups.values());
 		}
 	}
 	
+	/**
+	 * @return
+	 * 	The {@link SortedMap} containing the {@link Group} objects of this {@link Config},
+	 * 	indexed by name. This is not a copy, so it may only be read while synchronizing on it.
+	 */
+	SortedMap<String, Group> getGroupIndex() {
+		return groups;
+	}
+	
 	private void validateGroupName(String groupName) {
 		Preconditions.checkNotNull(groupName);
 		Preconditions.checkArgument(!groupName.isEmpty());
@@ -408,29 +445,28 @@ public final class Config {
 	 *  If the user has already been created, or the given username is null.
 	 */
 	public User createUser(final String userName) {
+		recorder.checkNotFrozen();
 		validateUserName(userName);
 
 		User user = null;
 		synchronized (users) {
-			if (getUser(userName) != null) {
+			if (users.containsKey(userName)) {
 				throw new IllegalArgumentException("The user " + userName + " has already been created!");
 			}
 			
 			user = new User(userName, recorder);
-			users.add(user);
+			users.put(userName, user);
 		}
-
-		recorder.append(new Modification("Creating user: " + userName) {
+		recorder.logUndo(new Recorder.Undo() {
 			@Override
-			public void apply(Config config) throws ModificationException {
-				try {
-					config.createUser(userName);
-				}
-				catch (IllegalArgumentException e) {
-					throw new ModificationException();
+			public void undo() {
+				synchronized (users) {
+					users.remove(userName);
 				}
 			}
 		});
+
+		recorder.append(Operation.Type.CREATE_USER, userName);
 		
 		return user;
 	}
@@ -446,30 +482,33 @@ public final class Config {
 	 * 	In the latter case it most likely did not exist.
 	 */
 	public boolean removeUser(User user) {
+		recorder.checkNotFrozen();
 		Preconditions.checkNotNull(user);
 
-		boolean success = false;
+		final User removed;
 		synchronized (users) {
-			success = users.remove(user);
+			removed = users.remove(user.getName());
 		}
 		
+		boolean success = removed != null;
 		if (success) {
+			recorder.logUndo(new Recorder.Undo() {
+				@Override
+				public void undo() {
+					synchronized (users) {
+						users.put(removed.getName(), removed);
+					}
+				}
+			});
+			
 			synchronized (repositories) {
-				for (Repository repo : repositories) {
+				for (Repository repo : repositories.values()) {
 					repo.revokePermissions(user);
 				}
 			}
 	
 			final String userName = user.getName();
-			recorder.append(new Modification("Removing user: " + userName) {
-				@Override
-				public void apply(Config config) throws ModificationException {
-					User user = config.getUser(userName);
-					if (user == null || !config.removeUser(user)) {
-						throw new ModificationException();
-					}
-				}
-			});
+			recorder.append(Operation.Type.REMOVE_USER, userName);
 		}
 		
 		return success;
@@ -505,14 +544,12 @@ public final class Config {
 	 */
 	public User getUser(String userName) {
 		validateUserName(userName);
+		if (recorder.isFrozen()) {
+			return users.get(userName);
+		}
 		synchronized (users) {
-			for (User user : users) {
-				if (user.getName().equals(userName)) {
-					return user;
-				}
-			}
+			return users.get(userName);
 		}
-		return null;
 	}
 
 	/**
@@ -521,58 +558,139 @@ public final class Config {
 	 * 	registered in the {@code Config} object.
 	 */
 	public ImmutableSet<User> getUsers() {
+		if (recorder.isFrozen()) {
+			return ImmutableSortedSet.copyOf(User.SORT_BY_TYPE_AND_NAME, users.values());
+		}
 		synchronized (users) {
-			return ImmutableSortedSet.copyOf(User.SORT_BY_TYPE_AND_NAME, users);
+			return ImmutableSortedSet.copyOf(User.SORT_BY_TYPE_AND_NAME, users.values());
 		}
 	}
 	
+	/**
+	 * @return
+	 * 	The {@link SortedMap} containing the {@link User} objects of this {@link Config},
+	 * 	indexed by name. This is not a copy, so it may only be read while synchronizing on it.
+	 */
+	SortedMap<String, User> getUserIndex() {
+		return users;
+	}
+	
 	private void validateUserName(String userName) {
 		Preconditions.checkNotNull(userName);
 		Preconditions.checkArgument(!userName.isEmpty());
 	}
 	
 	/**
+	 * This method starts a bulk change of this {@code Config} object, which creates many
+	 * {@link User}s, {@link Group}s and {@link Repository}s at once, and grants many 
+	 * permissions. Nothing is changed until {@link Bulk#apply()} is called.
+	 * 
+	 * @return
+	 * 	A new {@link Bulk} object which collects the changes.
+	 */
+	public Bulk bulk() {
+		return new Bulk(this);
+	}
+	
+	/**
+	 * This method returns an {@link EffectivePermissions} object, which can be used to
+	 * find out which {@link Permission} a {@link User} effectively has on a {@link Repository}.
+	 * It is computed once, and reused until this {@code Config} object is modified. Changes
+	 * of SSH keys don't affect it. When only the permissions of some {@link Repository}s
+	 * have changed, only the access to those {@link Repository}s is computed again. When
+	 * the members of some {@link Group}s have changed, only the members of those 
+	 * {@link Group}s and the {@link Group}s containing them are computed again, and the 
+	 * access to the {@link Repository}s granting permissions to any of them. Only creating
+	 * or removing {@link User}s or {@link Group}s computes everything again.
+	 * 
+	 * @return
+	 * 	The {@link EffectivePermissions} of the current state of this {@code Config} object.
+	 */
+	public EffectivePermissions getEffectivePermissions() {
+		EffectivePermissions current = effectivePermissions;
+		if (current != null && current.getVersion() == recorder.getVersion()) {
+			return current;
+		}
+		
+		synchronized (recorder) {
+			// Changes are registered before the version is increased, so read the version first.
+			long version = recorder.getVersion();
+			long membershipVersion = recorder.getMembershipVersion();
+			Set<String> changedRepositories = recorder.drainChangedRepositories();
+			Set<String> changedGroups = recorder.drainChangedGroups();
+			
+			current = effectivePermissions;
+			if (current == null || current.getMembershipVersion() != membershipVersion) {
+				current = new EffectivePermissions(this, version, membershipVersion);
+			}
+			else if (current.getVersion() != version) {
+				current = new EffectivePermissions(current, this, version, changedRepositories, changedGroups);
+			}
+			effectivePermissions = current;
+			return current;
+		}
+	}
+	
+	/**
+	 * This method sets a savepoint. Until it is released, every change of this {@code Config}
+	 * object logs how it can be undone, so {@link Config#rollbackToSavepoint()} can reverse 
+	 * the changes made since, without copying this {@code Config} object.
+	 */
+	void setSavepoint() {
+		recorder.setSavepoint();
+	}
+	
+	/**
+	 * This method reverses all changes made since the savepoint was set. The reversal 
+	 * is not recorded, and the savepoint remains set.
+	 */
+	void rollbackToSavepoint() {
+		recorder.rollbackToSavepoint();
+	}
+	
+	/**
+	 * This method releases the savepoint, which keeps all changes made since it was set.
+	 */
+	void releaseSavepoint() {
+		recorder.releaseSavepoint();
+	}
+	
+	/**
+	 * This method creates a deep copy of this {@code Config} object. The copy is built
+	 * directly from the internal state: names are not validated again, nothing is 
+	 * recorded, and immutable state such as the keys of a {@link User} is shared.
+	 * 
 	 * @return The created deep copy of this {@code Config} object.
 	 */
 	Config copy() {
 		Config config = new Config();
+		Recorder target = config.getRecorder();
+		target.setRevision(recorder.getRevision());
+		target.setBaseCommit(recorder.getBaseCommit());
 		
 		// Add users.
-		for (User user : getUsers()) {
-			User created = config.createUser(user.getName());
-			for (Entry<String, String> entry : user.getKeys().entrySet()) {
-				created.setKey(entry.getKey(), entry.getValue());
+		synchronized (users) {
+			for (User user : users.values()) {
+				config.users.put(user.getName(), user.copy(target));
 			}
 		}
 		
-		// Add groups and their users.
-		for (Group group : getGroups()) {
-			Group created = config.createGroup(group.getName());
-			for (User member : group.getUsers()) {
-				created.add(member);
+		// Add groups, and then their members.
+		synchronized (groups) {
+			for (Group group : groups.values()) {
+				config.groups.put(group.getName(), group.copy(target));
 			}
-		}
-		
-		// Add sub groups to groups.
-		for (Group group : getGroups()) {
-			Group existing = config.getGroup(group.getName());
-			for (Group member : group.getGroups()) {
-				existing.add(config.getGroup(member.getName()));
+			for (Group group : groups.values()) {
+				config.groups.get(group.getName()).copyMembers(group, config.users, config.groups);
 			}
 		}
 		
-		// Add repositories.
-		for (Repository repo : getRepositories()) {
-			Repository created = config.createRepository(repo.getName());
-			for (Entry<Permission, Identifiable> entry : repo.getPermissions().entries()) {
-				if (entry.getValue() instanceof User) {
-					User user = config.getUser(entry.getValue().getName());
-					created.setPermission(user, entry.getKey());
-				}
-				else {
-					Group group = config.getGroup(entry.getValue().getName());
-					created.setPermission(group, entry.getKey());
-				}
+		// Add repositories and their permissions.
+		synchronized (repositories) {
+			for (Repository repo : repositories.values()) {
+				Repository created = new Repository(repo.getName(), target);
+				created.copyPermissions(repo, config.users, config.groups);
+				config.repositories.put(repo.getName(), created);
 			}
 		}
 		
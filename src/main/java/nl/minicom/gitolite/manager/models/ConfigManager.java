@@ -1,37 +1,58 @@
 package nl.minicom.gitolite.manager.models;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Collection;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import nl.minicom.gitolite.manager.coordination.Coordinator;
 import nl.minicom.gitolite.manager.exceptions.GitException;
 import nl.minicom.gitolite.manager.exceptions.ModificationException;
+import nl.minicom.gitolite.manager.exceptions.PushRejected;
 import nl.minicom.gitolite.manager.exceptions.ServiceUnavailable;
 import nl.minicom.gitolite.manager.git.GitManager;
 import nl.minicom.gitolite.manager.git.JGitManager;
+import nl.minicom.gitolite.manager.git.ObjectGitManager;
+import nl.minicom.gitolite.manager.metrics.Metrics;
 import nl.minicom.gitolite.manager.models.Recorder.Modification;
 
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
-import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 
 /**
@@ -40,7 +61,7 @@ import com.google.common.util.concurrent.SettableFuture;
  * 
  * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
  */
-public class ConfigManager {
+public class ConfigManager implements Closeable {
 	
 	private static final Logger log = LoggerFactory.getLogger(ConfigManager.class);
 	
@@ -62,7 +83,8 @@ public class ConfigManager {
 
 	/**
 	 * Constructs a {@link ConfigManager} which is based on the provided URI and
-	 * {@link CredentialsProvider}.
+	 * {@link CredentialsProvider}. Since the configuration repository is cloned to
+	 * a temporary directory, it's cloned as a bare repository.
 	 * 
 	 * @param gitUri The URI of the remote configuration repository.
 	 * 
@@ -74,7 +96,9 @@ public class ConfigManager {
 	 *         configuration repository.
 	 */
 	public static ConfigManager create(String gitUri, CredentialsProvider credentialProvider) {
-		return create(gitUri, Files.createTempDir(), credentialProvider);
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setBareRepository(true);
+		return create(gitUri, Files.createTempDir(), credentialProvider, settings);
 	}
 
 	/**
@@ -94,17 +118,75 @@ public class ConfigManager {
 	 *         configuration repository.
 	 */
 	public static ConfigManager create(String gitUri, File workingDirectory, CredentialsProvider credentialProvider) {
-		return new ConfigManager(gitUri, new JGitManager(workingDirectory, credentialProvider));
+		return create(gitUri, workingDirectory, credentialProvider, new ConfigManagerSettings());
+	}
+
+	/**
+	 * Constructs a {@link ConfigManager} which is based on the provided URI, a
+	 * working directory, {@link CredentialsProvider} and {@link ConfigManagerSettings}.
+	 * 
+	 * @param gitUri The URI of the remote configuration repository.
+	 * 
+	 * @param workingDirectory The directory where the configuration repository
+	 *           needs to be cloned to.
+	 * 
+	 * @param credentialProvider The {@link CredentialsProvider} which handles
+	 *           the authentication of the git user who accesses the remote
+	 *           repository containing the configuration.
+	 * 
+	 * @param settings The {@link ConfigManagerSettings} which determine how changes
+	 *           are processed.
+	 * 
+	 * @return A {@link ConfigManager} which allows a developer to manipulate the
+	 *         configuration repository.
+	 */
+	public static ConfigManager create(String gitUri, File workingDirectory, CredentialsProvider credentialProvider, 
+			ConfigManagerSettings settings) {
+		Preconditions.checkNotNull(settings);
+		GitManager git;
+		if (settings.isBareRepository()) {
+			git = new ObjectGitManager(workingDirectory, credentialProvider, settings.getBranch(), settings.getDurability());
+		}
+		else {
+			git = new JGitManager(workingDirectory, credentialProvider, settings.getBranch(), settings.getDurability());
+		}
+		return new ConfigManager(gitUri, git, settings);
 	}
 
 	private final String gitUri;
 	private final GitManager git;
+	private final ConfigManagerSettings settings;
 	private final File workingDirectory;
 	private final Worker worker;
+	private final Instruments instruments;
 	
 	private final AtomicReference<Config> config; 
 	private final Object diskLock = new Object();
 	
+	/**
+	 * The {@link Config} object which was last written to, or read from the repository,
+	 * and the contents of the configuration file which were last written.
+	 */
+	private Config written;
+	private String writtenConfigFile;
+	
+	/**
+	 * The buffer which every configuration file is rendered into before it's written.
+	 */
+	private final StringBuilder rendered = new StringBuilder();
+	
+	/**
+	 * The moment the configuration was last known to be up to date with the remote 
+	 * repository, as returned by {@link System#nanoTime()}.
+	 */
+	private volatile long synchronizedNanos;
+	
+	/**
+	 * The executor which periodically refreshes the configuration, if configured.
+	 */
+	private ScheduledExecutorService refresher;
+	private final Random random = new Random();
+	
 	/**
 	 * Constructs a new {@link ConfigManager} object.
 	 * 
@@ -114,32 +196,119 @@ public class ConfigManager {
 	 *           operations.
 	 */
 	ConfigManager(String gitUri, GitManager gitManager) {
+		this(gitUri, gitManager, new ConfigManagerSettings());
+	}
+	
+	/**
+	 * Constructs a new {@link ConfigManager} object.
+	 * 
+	 * @param gitUri The URI to clone from and push changes to.
+	 * 
+	 * @param gitManager The {@link GitManager} which will handle the git
+	 *           operations.
+	 * 
+	 * @param settings The {@link ConfigManagerSettings} which determine how changes
+	 *           are processed.
+	 */
+	ConfigManager(String gitUri, GitManager gitManager, ConfigManagerSettings settings) {
 		Preconditions.checkNotNull(gitUri);
 		Preconditions.checkNotNull(gitManager);
+		Preconditions.checkNotNull(settings);
 
 		this.gitUri = gitUri;
 		this.git = gitManager;
+		this.settings = settings;
 		this.workingDirectory = git.getWorkingDirectory();
 		this.config = new AtomicReference<>();
+		this.instruments = new Instruments(settings.getMetrics());
 		this.worker = new Worker();
+		registerGauges(settings.getMetrics());
 	}
 	
-	private void ensureAdminRepoIsUpToDate() throws ServiceUnavailable, GitException {
-		if (!new File(workingDirectory, ".git").exists()) {
-			log.info("Cloning from: {} to: {}", gitUri, workingDirectory);
-			git.clone(gitUri);
-		}
-		else {
-			log.info("Pulling from: {}", gitUri);
-			git.pull();
-		}
+	private void registerGauges(Metrics metrics) {
+		metrics.gauge("worker.queue.depth", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return worker.modifications.size();
+			}
+		});
+		metrics.gauge("worker.batches.unpublished", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return worker.unpublished.size();
+			}
+		});
+		metrics.gauge("config.staleness.millis", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return getStaleness(TimeUnit.MILLISECONDS);
+			}
+		});
 	}
 	
 	private void ensureAdminRepoPresent() throws IOException, ServiceUnavailable, GitException {
-		if (!new File(workingDirectory, ".git").exists()) {
-			log.info("Cloning from: {} to: {}", gitUri, workingDirectory);
-			git.clone(gitUri);
-			readConfig();
+		if (config.get() != null) {
+			return;
+		}
+		
+		synchronized (diskLock) {
+			if (config.get() == null) {
+				try {
+					git.open();
+					log.info("Pulling from: {} to existing repository in: {}", gitUri, workingDirectory);
+					long start = System.nanoTime();
+					git.pull();
+					record(instruments.pull, start);
+				}
+				catch (IOException e) {
+					log.info("Cloning from: {} to: {}", gitUri, workingDirectory);
+					long start = System.nanoTime();
+					git.clone(gitUri);
+					record(instruments.clone, start);
+				}
+				Config read = readConfig();
+				List<Journal.Entry> journaled = worker.openJournal();
+				worker.remember(read.getRecorder().getBaseCommit(), 0);
+				config.set(read);
+				worker.replay(journaled);
+				
+				Coordinator coordinator = settings.getCoordinator();
+				if (coordinator != null) {
+					coordinator.start(new CoordinatedNode());
+				}
+				if (settings.getRefreshIntervalNanos() > 0) {
+					refresher = Executors.newSingleThreadScheduledExecutor();
+					scheduleRefresh();
+				}
+			}
+		}
+	}
+
+	private void scheduleRefresh() {
+		long delay = settings.getRefreshIntervalNanos();
+		long jitter = settings.getRefreshJitterNanos();
+		if (jitter > 0) {
+			delay += (long) (random.nextDouble() * jitter);
+		}
+		
+		try {
+			refresher.schedule(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						refresh();
+					}
+					catch (IOException | ServiceUnavailable | GitException | RuntimeException e) {
+						log.warn("Could not refresh the configuration from: {}", gitUri, e);
+					}
+					finally {
+						scheduleRefresh();
+					}
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+		}
+		catch (RejectedExecutionException e) {
+			log.debug("Not scheduling a refresh, since the ConfigManager has been closed");
 		}
 	}
 
@@ -156,17 +325,41 @@ public class ConfigManager {
 	 */
 	public Config get() throws IOException, ServiceUnavailable, GitException {
 		ensureAdminRepoPresent();
-		Config copy = config.get().copy();
+		Config copy = copy(config.get());
 		copy.getRecorder().record();
 		return copy;
 	}
 	
+	/**
+	 * This method returns a read-only view of the current gitolite configuration. Unlike 
+	 * {@link ConfigManager#get()} this does not copy the configuration, and the returned 
+	 * {@link Config} object can safely be shared between threads. Any attempt to modify
+	 * the view results in an {@link UnsupportedOperationException}.
+	 * 
+	 * @return A read-only {@link Config} object, representing the gitolite configuration.
+	 * 
+	 * @throws IOException If one or more files in the repository could not be read.
+	 * 
+	 * @throws ServiceUnavailable If the service could not be reached.
+	 * 
+	 * @throws GitException If an exception occurred while using the Git API.
+	 */
+	public Config view() throws IOException, ServiceUnavailable, GitException {
+		ensureAdminRepoPresent();
+		return config.get();
+	}
+	
 	/**
 	 * This method applies any changes that were made to the specified {@link Config} 
 	 * object to the gitolite server. This method returns a {@link ListenableFuture} 
 	 * which can be used to get a notification when the changes have been applied, or 
 	 * if the changes could not be applied due to conflicts.
 	 * 
+	 * The changes wait in a bounded queue until they're applied. If that queue is full,
+	 * the {@link OverflowPolicy} of the {@link ConfigManagerSettings} determines whether
+	 * this method blocks until there is room, or a {@link ListenableFuture} fails with
+	 * a {@link RejectedExecutionException}.
+	 * 
 	 * @param config
 	 * 	The {@link Config} object to apply the changes of to the gitolite server.
 	 * 
@@ -175,7 +368,103 @@ public class ConfigManager {
 	 */
 	public ListenableFuture<Void> applyAsync(Config config) {
 		List<Modification> recording = config.getRecorder().stop();
-		return worker.submit(recording);
+		Coordinator coordinator = settings.getCoordinator();
+		if (coordinator != null && !coordinator.isWriter() && !recording.isEmpty()) {
+			return forward(coordinator, recording, config.getRecorder().getBaseCommit());
+		}
+		return worker.submit(recording, config.getRecorder().getRevision());
+	}
+	
+	/**
+	 * Forwards the specified changes to the writer, and refreshes the configuration
+	 * once the writer has pushed them.
+	 */
+	private ListenableFuture<Void> forward(Coordinator coordinator, List<Modification> recording, String baseCommit) {
+		log.info("Forwarding a new changeset, containing {} changes", recording.size());
+		final SettableFuture<Void> future = SettableFuture.create();
+		Futures.addCallback(coordinator.forward(recording, baseCommit), new FutureCallback<Void>() {
+			@Override
+			public void onSuccess(Void result) {
+				try {
+					refresh();
+				}
+				catch (IOException | ServiceUnavailable | GitException | RuntimeException e) {
+					log.warn("Could not refresh the configuration after the writer applied a changeset", e);
+				}
+				future.set(null);
+			}
+			
+			@Override
+			public void onFailure(Throwable t) {
+				future.setException(t);
+			}
+		});
+		return future;
+	}
+	
+	/**
+	 * This method fetches the configuration repository, and replaces the configuration 
+	 * with the one of the remote branch. Changes which are waiting to be pushed are 
+	 * pushed first. If new changes arrive in the meantime, the configuration is not 
+	 * replaced, since it's replaced when those changes are pushed anyway.
+	 * 
+	 * @throws IOException If one or more files in the repository could not be read.
+	 * 
+	 * @throws ServiceUnavailable If the service could not be reached.
+	 * 
+	 * @throws GitException If an exception occurred while using the Git API.
+	 */
+	public void refresh() throws IOException, ServiceUnavailable, GitException {
+		ensureAdminRepoPresent();
+		try {
+			worker.refresh().get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while refreshing the configuration");
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			Throwables.propagateIfInstanceOf(cause, IOException.class);
+			Throwables.propagateIfInstanceOf(cause, ServiceUnavailable.class);
+			Throwables.propagateIfInstanceOf(cause, GitException.class);
+			throw Throwables.propagate(cause);
+		}
+	}
+	
+	/**
+	 * @param unit The {@link TimeUnit} to express the staleness in.
+	 * 
+	 * @return The time since the configuration was last known to be up to date with the
+	 *         remote repository, because it was read, refreshed or pushed. If the 
+	 *         configuration has not been read yet, {@link Long#MAX_VALUE} is returned.
+	 */
+	public long getStaleness(TimeUnit unit) {
+		if (config.get() == null) {
+			return Long.MAX_VALUE;
+		}
+		return unit.convert(System.nanoTime() - synchronizedNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * This method stops the {@link ConfigManager}. If a {@link Coordinator} is used, another
+	 * {@link ConfigManager} can become the writer. Changesets which have not been applied 
+	 * yet are rejected with a {@link RejectedExecutionException}.
+	 * 
+	 * @throws IOException If the {@link Coordinator} could not be stopped cleanly.
+	 */
+	@Override
+	public void close() throws IOException {
+		Coordinator coordinator = settings.getCoordinator();
+		if (coordinator != null) {
+			coordinator.stop();
+		}
+		synchronized (diskLock) {
+			if (refresher != null) {
+				refresher.shutdownNow();
+			}
+		}
+		worker.stop();
 	}
 	
 	/**
@@ -212,94 +501,276 @@ public class ConfigManager {
 		}
 	}
 	
-	private void writeAndPush() throws IOException, ServiceUnavailable, GitException {
-		Config newConfig = config.get();
+	private void writeAndPush(Config newConfig) throws IOException, ServiceUnavailable, GitException {
 		if (newConfig == null) {
 			throw new IllegalStateException("Config has not yet been loaded!");
 		}
 		
+		boolean changed;
 		synchronized (diskLock) {
-			log.info("Writing Config object to disk");
-			
-			ConfigWriter.write(newConfig, new FileWriter(getConfigFile()));
-			Set<File> writtenKeys = KeyWriter.writeKeys(newConfig, ensureKeyDirectory());
-			Set<File> orphanedKeyFiles = listKeys();
-			orphanedKeyFiles.removeAll(writtenKeys);
-	
-			for (File orphanedKeyFile : orphanedKeyFiles) {
-				git.remove("keydir/" + orphanedKeyFile.getName());
-			}
+			changed = writeChanges(newConfig);
 		}
 		
-		git.commitChanges();
+		if (!changed) {
+			log.info("Config object is unchanged, nothing to commit");
+			return;
+		}
+		
+		long start = System.nanoTime();
+		git.commit("Changed config...");
+		record(instruments.commit, start);
+		
+		start = System.nanoTime();
 		git.push();
+		record(instruments.push, start);
+		synchronizedNanos = System.nanoTime();
 	}
 
-	private Set<File> listKeys() {
-		Set<File> keys = Sets.newHashSet();
-
-		synchronized (diskLock) {
-			File keyDir = new File(workingDirectory, "keydir");
-			if (keyDir.exists()) {
-				File[] keyFiles = keyDir.listFiles(new FileFilter() {
-					@Override
-					public boolean accept(File file) {
-						return file.getName().endsWith(".pub");
-					}
-				});
-	
-				for (File keyFile : keyFiles) {
-					keys.add(keyFile);
-				}
-			}
+	/**
+	 * This method writes only the parts of the specified {@link Config} object which differ 
+	 * from the {@link Config} object that was previously written to, or read from the 
+	 * repository. It stages exactly the files it wrote or removed.
+	 * 
+	 * @return True if any file was written or removed, false otherwise.
+	 */
+	private boolean writeChanges(Config newConfig) throws IOException, GitException {
+		log.info("Writing changes of Config object to disk");
+		boolean changed = false;
+		
+		long start = System.nanoTime();
+		rendered.setLength(0);
+		ConfigWriter.render(newConfig, rendered);
+		String contents = writtenConfigFile;
+		if (contents == null || !contents.contentEquals(rendered)) {
+			contents = rendered.toString();
+			git.write(CONF_DIRECTORY_NAME + "/" + CONF_FILE_NAME, contents.getBytes(Charsets.UTF_8));
+			changed = true;
 		}
-
-		return keys;
+		record(instruments.writeConfig, start);
+		
+		start = System.nanoTime();
+		for (Entry<String, String> keyFile : KeyWriter.getChangedKeyFiles(newConfig, written).entrySet()) {
+			git.write(KEY_DIRECTORY_NAME + "/" + keyFile.getKey(), keyFile.getValue().getBytes(Charsets.UTF_8));
+			changed = true;
+		}
+		
+		Set<String> orphanedKeyFiles = KeyWriter.listKeyFiles(written);
+		orphanedKeyFiles.removeAll(KeyWriter.listKeyFiles(newConfig));
+		for (String orphanedKeyFile : orphanedKeyFiles) {
+			git.remove(KEY_DIRECTORY_NAME + "/" + orphanedKeyFile);
+			changed = true;
+		}
+		record(instruments.writeKeys, start);
+		
+		written = newConfig;
+		writtenConfigFile = contents;
+		return changed;
 	}
 
 	private Config readConfig() throws IOException {
 		synchronized (diskLock) {
-			Config read = ConfigReader.read(new FileReader(getConfigFile()));
-			KeyReader.readKeys(read, ensureKeyDirectory());
-			config.set(read);
+			long start = System.nanoTime();
+			Config read = readConfigFile();
+			
+			Map<String, String> keyFiles = Maps.newTreeMap();
+			for (Entry<String, byte[]> keyFile : git.readDirectory(KEY_DIRECTORY_NAME).entrySet()) {
+				keyFiles.put(keyFile.getKey(), new String(keyFile.getValue(), Charsets.UTF_8));
+			}
+			KeyReader.registerKeys(read, keyFiles);
+			record(instruments.read, start);
+			
+			read.getRecorder().setBaseCommit(git.getHead());
+			read.freeze();
+			synchronizedNanos = System.nanoTime();
+			written = read;
+			writtenConfigFile = null;
 			return read;
 		}
 	}
 
-	private File getConfigFile() {
+	/**
+	 * This method reads only the specified files, which changed since the {@link Config} 
+	 * object that was previously written to, or read from the repository. If the configuration
+	 * file changed, only that file is parsed again, and the keys are carried over from the 
+	 * previous {@link Config} object. Only the changed key files are read.
+	 * 
+	 * @param paths The paths of the changed files, relative to the root of the repository.
+	 */
+	private Config readChanges(Set<String> paths) throws IOException {
 		synchronized (diskLock) {
-			File confDirectory = new File(workingDirectory, CONF_DIRECTORY_NAME);
-			if (!confDirectory.exists()) {
-				throw new IllegalStateException("Could not open " + CONF_DIRECTORY_NAME + "/ directory!");
+			log.debug("Reading {} changed file(s) from the repository", paths.size());
+			long start = System.nanoTime();
+			Config read;
+			if (paths.contains(CONF_DIRECTORY_NAME + "/" + CONF_FILE_NAME)) {
+				read = readConfigFile();
+				for (User user : written.getUsers()) {
+					if (!user.getKeys().isEmpty()) {
+						read.ensureUserExists(user.getName()).copyKeys(user);
+					}
+				}
+				writtenConfigFile = null;
 			}
-	
-			File confFile = new File(confDirectory, CONF_FILE_NAME);
-			return confFile;
+			else {
+				read = copy(written);
+			}
+			
+			String keyDirectory = KEY_DIRECTORY_NAME + "/";
+			Map<String, String> keyFiles = Maps.newTreeMap();
+			List<String> removedKeyFiles = Lists.newArrayList();
+			for (String path : paths) {
+				String fileName = path.substring(path.lastIndexOf('/') + 1);
+				if (!path.equals(keyDirectory + fileName)) {
+					continue;
+				}
+				
+				byte[] keyFile = git.read(path);
+				if (keyFile == null) {
+					removedKeyFiles.add(fileName);
+				}
+				else {
+					keyFiles.put(fileName, new String(keyFile, Charsets.UTF_8));
+				}
+			}
+			KeyReader.unregisterKeys(read, removedKeyFiles);
+			KeyReader.registerKeys(read, keyFiles);
+			record(instruments.readChanges, start);
+			
+			read.getRecorder().setBaseCommit(git.getHead());
+			read.freeze();
+			synchronizedNanos = System.nanoTime();
+			written = read;
+			return read;
 		}
 	}
-
-	private File ensureKeyDirectory() {
-		synchronized (diskLock) {
-			File keyDir = new File(workingDirectory, KEY_DIRECTORY_NAME);
-			keyDir.mkdir();
-			return keyDir;
+	
+	private Config copy(Config source) {
+		long start = System.nanoTime();
+		Config copy = source.copy();
+		record(instruments.copy, start);
+		return copy;
+	}
+	
+	private static void record(Metrics.Timer timer, long start) {
+		timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+	
+	private Config readConfigFile() throws IOException {
+		byte[] configFile = git.read(CONF_DIRECTORY_NAME + "/" + CONF_FILE_NAME);
+		if (configFile == null) {
+			throw new IllegalStateException("Could not open " + CONF_DIRECTORY_NAME + "/" + CONF_FILE_NAME + "!");
 		}
+		return ConfigReader.read(new StringReader(new String(configFile, Charsets.UTF_8)));
 	}
 	
 	/**
-	 * The {@link Worker} class is a simple class which is notified of any incoming {@link Modification}s
-	 * and processes them in batches of at most 10.
+	 * The {@link Worker} class is notified of any incoming {@link Modification}s and processes 
+	 * them in a pipeline of two stages. The first stage applies a batch of {@link UnitOfWork}s
+	 * to the in-memory {@link Config}. The second stage writes the resulting {@link Config} to
+	 * disk, commits and pushes it. While a batch is being pushed, the next batch is already 
+	 * being applied. If several batches are waiting to be published, only the most recent
+	 * {@link Config} is written, committed and pushed.
+	 * 
+	 * The size of each batch adapts to the load: the first stage applies at most as many 
+	 * {@link UnitOfWork}s as it can apply in the time the second stage took to publish the
+	 * previous batch, bounded by {@link Worker#MINIMUM_BATCH_SIZE} and the maximum batch 
+	 * size and bytes of the {@link ConfigManagerSettings}. When a linger time is configured,
+	 * the first stage waits up to that long for more {@link UnitOfWork}s to arrive before it
+	 * starts a batch, so that changesets arriving shortly after each other are committed
+	 * and pushed together, while their {@link ListenableFuture}s still complete individually.
+	 * 
+	 * Before a {@link UnitOfWork} is applied, the first stage checks whether any of the
+	 * {@link EntityKey}s its {@link Modification}s read or write has been changed since the 
+	 * revision the {@link UnitOfWork} is based on. If so, it's rejected with a 
+	 * {@link ModificationException} which reports the conflicting {@link EntityKey}. Each
+	 * {@link UnitOfWork} is applied after a savepoint of the {@link Config}, so a failing
+	 * {@link UnitOfWork} is rolled back by undoing only its own changes.
+	 * 
+	 * Submitted {@link UnitOfWork}s wait in a bounded queue. When it's full, the 
+	 * {@link OverflowPolicy} of the {@link ConfigManagerSettings} determines whether the
+	 * submitter blocks, or a changeset is rejected.
+	 * 
+	 * When a push is rejected because the remote repository has changed, the second stage
+	 * resets the repository to the remote branch, re-applies the {@link Modification}s of
+	 * all unpublished {@link UnitOfWork}s on top of it, and pushes again after an exponential
+	 * backoff, up to the maximum number of push attempts of the {@link ConfigManagerSettings}.
+	 * 
+	 * When a journal directory is configured, each {@link UnitOfWork} is appended to a 
+	 * {@link Journal} and flushed to disk before it's queued, and removed from it once it has
+	 * been pushed or rejected. {@link UnitOfWork}s left in the {@link Journal} by a previous
+	 * process are queued again when the configuration is loaded.
 	 */
 	private class Worker {
 
-		protected static final int MAXIMUM_BATCH_SIZE = 10;
+		protected static final int MINIMUM_BATCH_SIZE = 10;
+		protected static final int REMEMBERED_COMMITS = 1000;
+		
+		private final ExecutorService executor;
+		private final ListeningExecutorService publisher;
+		private final BlockingQueue<UnitOfWork> modifications;
+		private final Queue<Batch> unpublished;
+		private final Journal journal;
+		
+		private volatile long applyNanosPerUnit;
+		private volatile long publishNanos;
+		
+		/**
+		 * The revision of the most recently applied {@link UnitOfWork}, and the revision in which 
+		 * each part of the {@link Config} was last changed, ordered by that revision. At most 
+		 * the conflict history size of the {@link ConfigManagerSettings} parts are remembered. 
+		 * The latest revision in which a forgotten part was changed is kept, so any part which 
+		 * isn't remembered may have been changed in that revision. These are only used by the 
+		 * first stage.
+		 */
+		private long revision;
+		private volatile long forgotten;
+		private final Map<EntityKey, Long> lastWritten;
 		
-		private final ScheduledThreadPoolExecutor executor;
-		private final Queue<UnitOfWork> modifications;
+		/**
+		 * The revision of the {@link Config} which each of the most recently pushed or fetched 
+		 * commits holds, so changesets forwarded by other {@link ConfigManager}s can be checked 
+		 * for conflicts against the commit they're based on.
+		 */
+		private final Map<String, Long> commits;
+		
+		/**
+		 * Guards the {@link Config} of the {@link ConfigManager} while {@link UnitOfWork}s are 
+		 * applied to it, so it's not replaced halfway by the second stage after a rejected push.
+		 */
+		private final Object applyLock = new Object();
 		
 		public Worker() {
-			this.modifications = Queues.newConcurrentLinkedQueue();
-			this.executor = new ScheduledThreadPoolExecutor(1);
+			this.modifications = new LinkedBlockingQueue<>(settings.getQueueCapacity());
+			this.unpublished = Queues.newConcurrentLinkedQueue();
+			this.lastWritten = new LinkedHashMap<EntityKey, Long>() {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(Entry<EntityKey, Long> eldest) {
+					if (size() <= settings.getConflictHistorySize()) {
+						return false;
+					}
+					forgotten = eldest.getValue();
+					return true;
+				}
+			};
+			this.commits = new LinkedHashMap<String, Long>() {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(Entry<String, Long> eldest) {
+					return size() > REMEMBERED_COMMITS;
+				}
+			};
+			this.executor = Executors.newSingleThreadExecutor();
+			this.publisher = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+			
+			File journalDirectory = settings.getJournalDirectory();
+			if (journalDirectory != null) {
+				this.journal = new Journal(journalDirectory, settings.getMaximumJournalSegmentSize());
+			}
+			else {
+				this.journal = null;
+			}
 			
 			startWorker();
 		}
@@ -308,82 +779,456 @@ public class ConfigManager {
 			executor.submit(new Callable<Void>() {
 				@Override
 				public Void call() throws Exception {
-					try {
-						waitUntilModificationsArePresent();
-
-						log.debug("Worker found changes");
-						Collection<SettableFuture<Void>> succeeded = applyChanges(false);
+					while (!Thread.currentThread().isInterrupted()) {
+						List<UnitOfWork> units = takeBatch();
 						
+						log.debug("Worker found changes");
 						try {
-							log.info("Worker is pushing changes to remote repository");
-							writeAndPush();
-						}
-						catch (IOException | ServiceUnavailable | IllegalStateException e) {
-							log.error("Worker failed to push changes to remote repository, notifying owners", e);
-							for (SettableFuture<Void> future : succeeded) {
-								future.setException(e);
+							synchronized (applyLock) {
+								Batch batch = applyChanges(units);
+								if (!batch.getUnits().isEmpty()) {
+									publish(batch);
+								}
 							}
-							return null;
 						}
-						
-						log.debug("Worker is notifying changeset owners");
-						for (SettableFuture<Void> future : succeeded) {
-							future.set(null);
+						catch (RuntimeException e) {
+							log.error("Worker failed to apply changes, notifying owners", e);
+							for (UnitOfWork unit : units) {
+								unit.getFuture().setException(e);
+							}
 						}
-					} 
-					finally {
-						startWorker();
 					}
-					
 					return null;
 				}
-				
 			});
 		}
 
-		private void waitUntilModificationsArePresent() throws InterruptedException {
-			synchronized (modifications) {
-				while (modifications.isEmpty()) {
-					log.debug("Worker is waiting for changes...");
-					modifications.wait();
+		/**
+		 * Blocks until at least one {@link UnitOfWork} is queued, and then takes as many
+		 * {@link UnitOfWork}s from the queue as fit in the next batch. When a linger time is
+		 * configured, it waits until the batch is full, or the linger time of the first
+		 * {@link UnitOfWork} has passed.
+		 */
+		private List<UnitOfWork> takeBatch() throws InterruptedException {
+			log.debug("Worker is waiting for changes...");
+			UnitOfWork first = modifications.take();
+			
+			List<UnitOfWork> units = Lists.newArrayList(first);
+			int batchSize = determineBatchSize();
+			long maximumBytes = settings.getMaximumBatchBytes();
+			long lingerTime = settings.getLingerTimeNanos();
+			long deadline = first.getSubmitted() + lingerTime;
+			long bytes = first.getSize();
+			
+			while (units.size() < batchSize && bytes < maximumBytes) {
+				UnitOfWork unit;
+				long remaining = deadline - System.nanoTime();
+				if (lingerTime > 0 && remaining > 0) {
+					log.debug("Worker is waiting for more changes...");
+					unit = modifications.poll(remaining, TimeUnit.NANOSECONDS);
+				}
+				else {
+					unit = modifications.poll();
 				}
+				
+				if (unit == null) {
+					break;
+				}
+				units.add(unit);
+				bytes += unit.getSize();
 			}
+			return units;
 		}
 		
-		private Collection<SettableFuture<Void>> applyChanges(boolean update) throws ServiceUnavailable, IOException, GitException {
-			if (update) {
-				log.info("Pulling changes from remote repository");
-				ensureAdminRepoIsUpToDate();
+		private int determineBatchSize() {
+			int maximum = settings.getMaximumBatchSize();
+			if (settings.getLingerTimeNanos() > 0) {
+				return maximum;
+			}
+			
+			int minimum = Math.min(MINIMUM_BATCH_SIZE, maximum);
+			long perUnit = applyNanosPerUnit;
+			long lastPublish = publishNanos;
+			if (perUnit <= 0 || lastPublish <= 0) {
+				return minimum;
 			}
 			
-			Collection<SettableFuture<Void>> succeeded = Lists.newArrayList();
-			Config current = config.get().copy();
+			long size = lastPublish / perUnit;
+			return (int) Math.max(minimum, Math.min(maximum, size));
+		}
+		
+		private Batch applyChanges(List<UnitOfWork> units) {
+			long start = System.nanoTime();
+			List<UnitOfWork> succeeded = Lists.newArrayList();
+			Config current = copy(config.get());
 			
-			log.info("Worker is applying {} changeset(s)", modifications.size());
-			while (!modifications.isEmpty() && succeeded.size() < MAXIMUM_BATCH_SIZE) {
-				Config fallback = current.copy();
+			log.info("Worker is applying {} changeset(s), {} more are queued", units.size(), modifications.size());
+			for (UnitOfWork unit : units) {
+				EntityKey conflict = findConflict(unit);
+				if (conflict != null) {
+					log.error("Worker detected a conflicting change of {}, notifying owner", conflict);
+					unit.getFuture().setException(conflict.toException(null));
+					continue;
+				}
+				
+				if (!apply(unit, current)) {
+					continue;
+				}
 				
-				UnitOfWork unit = modifications.poll();
+				revision++;
+				for (Modification change : unit.getModifications()) {
+					for (EntityKey key : change.getWriteSet()) {
+						// Removed first, so the map stays ordered by revision.
+						lastWritten.remove(key);
+						lastWritten.put(key, revision);
+					}
+				}
+				succeeded.add(unit);
+			}
+			
+			current.releaseSavepoint();
+			current.getRecorder().setRevision(revision);
+			current.freeze();
+			config.set(current);
+			
+			long duration = System.nanoTime() - start;
+			applyNanosPerUnit = duration / units.size();
+			instruments.apply.record(duration, TimeUnit.NANOSECONDS);
+			instruments.batchSize.update(units.size());
+			log.info("Worker successfully applied {} changeset(s) in {} ms", succeeded.size(), 
+					TimeUnit.NANOSECONDS.toMillis(duration));
+			return new Batch(current, succeeded);
+		}
+		
+		/**
+		 * Applies the {@link Modification}s of the specified {@link UnitOfWork} to the specified
+		 * {@link Config}. If any of them fails, the owner is notified, and the {@link Config} is
+		 * rolled back to the state it was in before the {@link UnitOfWork} was applied.
+		 * 
+		 * @return True if the {@link UnitOfWork} was applied, false otherwise.
+		 */
+		private boolean apply(UnitOfWork unit, Config current) {
+			current.setSavepoint();
+			try {
+				log.info("Worker is applying {} change(s)", unit.getModifications().size());
+				for (Modification change : unit.getModifications()) {
+					change.apply(current);
+				}
+				return true;
+			}
+			catch (ModificationException | RuntimeException e) {
+				log.error("Worker failed to apply a changeset, notifying owner");
+				unit.getFuture().setException(e);
+				current.rollbackToSavepoint();
+				return false;
+			}
+		}
+		
+		/**
+		 * @return
+		 * 	The {@link EntityKey} of a part of the {@link Config} which the specified {@link UnitOfWork}
+		 * 	reads or writes, and which has been changed since the revision it's based on, or NULL if 
+		 * 	there is no such part. A part which is no longer remembered is considered changed, 
+		 * 	unless the {@link UnitOfWork} is based on a revision from after it was forgotten.
+		 */
+		private EntityKey findConflict(UnitOfWork unit) {
+			for (Modification change : unit.getModifications()) {
+				for (EntityKey key : Iterables.concat(change.getReadSet(), change.getWriteSet())) {
+					Long written = lastWritten.get(key);
+					if (written == null) {
+						written = forgotten;
+					}
+					if (written > unit.getRevision()) {
+						return key;
+					}
+				}
+			}
+			return null;
+		}
+		
+		private void publish(Batch batch) {
+			unpublished.offer(batch);
+			publisher.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					publishPendingBatches();
+					return null;
+				}
+			});
+		}
+		
+		private void publishPendingBatches() {
+			List<Batch> batches = Lists.newArrayList();
+			Batch batch;
+			while ((batch = unpublished.poll()) != null) {
+				batches.add(batch);
+			}
+			if (batches.isEmpty()) {
+				return;
+			}
+			
+			long start = System.nanoTime();
+			Config newest = batches.get(batches.size() - 1).getConfig();
+			try {
+				int attempt = 1;
+				while (true) {
+					try {
+						log.info("Worker is pushing {} batch(es) to remote repository", batches.size());
+						writeAndPush(newest);
+						break;
+					}
+					catch (PushRejected e) {
+						instruments.pushRejected.increment(1);
+						if (attempt >= settings.getMaximumPushAttempts()) {
+							throw e;
+						}
+						
+						long backoff = settings.getPushBackoffNanos() << (attempt - 1);
+						log.warn("Worker's push was rejected, retrying in {} ms", TimeUnit.NANOSECONDS.toMillis(backoff));
+						TimeUnit.NANOSECONDS.sleep(backoff);
+						newest = rebase(batches);
+						attempt++;
+					}
+				}
+			}
+			catch (IOException | ServiceUnavailable | GitException | InterruptedException | RuntimeException e) {
+				if (e instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+				log.error("Worker failed to push changes to remote repository, notifying owners", e);
+				discard();
+				for (Batch failed : batches) {
+					for (UnitOfWork unit : failed.getUnits()) {
+						unit.getFuture().setException(e);
+					}
+				}
+				return;
+			}
+			finally {
+				publishNanos = System.nanoTime() - start;
+				instruments.publish.record(publishNanos, TimeUnit.NANOSECONDS);
+				log.info("Worker published {} batch(es) in {} ms", batches.size(), 
+						TimeUnit.NANOSECONDS.toMillis(publishNanos));
+			}
+			
+			try {
+				String pushed = git.getHead();
+				remember(pushed, newest.getRecorder().getRevision());
+				newest.getRecorder().setBaseCommit(pushed);
+			}
+			catch (IOException e) {
+				log.warn("Worker could not determine which commit it pushed", e);
+			}
+			
+			log.debug("Worker is notifying changeset owners");
+			for (Batch published : batches) {
+				for (UnitOfWork unit : published.getUnits()) {
+					unit.getFuture().set(null);
+				}
+			}
+		}
+		
+		/**
+		 * Resets the repository to the remote branch, reads the {@link Config} from it, and 
+		 * re-applies the {@link UnitOfWork}s of the specified {@link Batch}es on top of it. Any
+		 * {@link Batch}es which have been applied, but are not yet being published, are added 
+		 * to the specified {@link Batch}es, since they're based on the {@link Config} which 
+		 * could not be pushed. {@link UnitOfWork}s which no longer apply to the remote 
+		 * {@link Config} are removed from their {@link Batch}, and their owners are notified.
+		 * 
+		 * @return The resulting frozen {@link Config}.
+		 */
+		private Config rebase(List<Batch> batches) throws IOException, ServiceUnavailable, GitException {
+			synchronized (applyLock) {
+				Batch pending;
+				while ((pending = unpublished.poll()) != null) {
+					batches.add(pending);
+				}
+				
+				log.info("Worker is re-applying {} batch(es) on top of remote repository", batches.size());
+				return reapply(batches, copy(reset(fetch())));
+			}
+		}
+		
+		/**
+		 * Discards the {@link Batch}es which could not be pushed, so they're not pushed along 
+		 * with the next {@link Batch}. The repository is reset to the remote branch, and any 
+		 * {@link Batch}es which have been applied since, but are not yet being published, are
+		 * re-applied on top of it and published as a single {@link Batch}. If the remote branch
+		 * cannot be fetched, the repository is reset to the remote branch as it was last fetched.
+		 */
+		private void discard() {
+			synchronized (applyLock) {
+				List<Batch> pending = Lists.newArrayList();
+				Batch batch;
+				while ((batch = unpublished.poll()) != null) {
+					pending.add(batch);
+				}
+				
+				log.info("Worker is discarding the changes which could not be pushed");
 				try {
-					log.info("Worker is applying {} change(s)", unit.getModifications().size());
-					for (Modification change : unit.getModifications()) {
-						change.apply(current);
+					Config current;
+					try {
+						current = copy(reset(fetch()));
+					}
+					catch (ServiceUnavailable | GitException e) {
+						log.warn("Worker could not fetch the remote repository, resetting to the last fetched commit", e);
+						current = copy(reset(null));
+					}
+					
+					current = reapply(pending, current);
+					List<UnitOfWork> units = Lists.newArrayList();
+					for (Batch applied : pending) {
+						units.addAll(applied.getUnits());
+					}
+					if (!units.isEmpty()) {
+						unpublished.offer(new Batch(current, units));
 					}
-					succeeded.add(unit.getFuture());
 				}
-				catch (ModificationException e) {
-					log.error("Worker failed to apply a changeset, notifying owner");
-					unit.getFuture().setException(e);
-					current = fallback;
+				catch (IOException | GitException | RuntimeException e) {
+					log.error("Worker failed to discard the changes which could not be pushed, notifying owners", e);
+					for (Batch failed : pending) {
+						for (UnitOfWork unit : failed.getUnits()) {
+							unit.getFuture().setException(e);
+						}
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Re-applies the {@link UnitOfWork}s of the specified {@link Batch}es on top of the 
+		 * specified {@link Config}. {@link UnitOfWork}s which no longer apply are removed from 
+		 * their {@link Batch}, and their owners are notified.
+		 * 
+		 * @return The resulting frozen {@link Config}, which has replaced the {@link Config} of 
+		 * 	the {@link ConfigManager}.
+		 */
+		private Config reapply(List<Batch> batches, Config current) {
+			for (Batch batch : batches) {
+				Iterator<UnitOfWork> units = batch.getUnits().iterator();
+				while (units.hasNext()) {
+					if (!apply(units.next(), current)) {
+						units.remove();
+					}
 				}
 			}
 			
-			log.info("Worker successfully applied {} changeset", succeeded.size());
+			current.releaseSavepoint();
+			current.getRecorder().setRevision(revision);
+			current.freeze();
 			config.set(current);
-			return succeeded;
+			return current;
+		}
+
+		private String fetch() throws ServiceUnavailable, GitException {
+			long start = System.nanoTime();
+			String remote = git.fetch();
+			record(instruments.fetch, start);
+			return remote;
+		}
+		
+		/**
+		 * Resets the repository to the specified commit of the remote branch, which was just 
+		 * fetched, and reads the {@link Config} of it. Only the files which differ from the 
+		 * current commit are read again, so the cost is proportional to the remote changes.
+		 */
+		private Config reset(String remote) throws IOException, GitException {
+			String head = git.getHead();
+			long start = System.nanoTime();
+			git.reset();
+			record(instruments.reset, start);
+			if (head == null || remote == null || written == null) {
+				return readConfig();
+			}
+			return readChanges(git.diff(head, remote));
+		}
+
+		/**
+		 * Publishes the pending {@link Batch}es, and then fetches the remote branch. Only if
+		 * it has moved, the {@link Config} is replaced with the one of the remote branch, 
+		 * unless new {@link Batch}es have been applied since.
+		 */
+		private ListenableFuture<Void> refresh() {
+			return publisher.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					publishPendingBatches();
+					synchronized (applyLock) {
+						if (!unpublished.isEmpty()) {
+							log.info("Worker is not refreshing, since new changes are waiting to be pushed");
+							return null;
+						}
+						
+						String remote = fetch();
+						if (remote == null || remote.equals(git.getHead())) {
+							log.debug("Worker found no new commits in remote repository");
+							synchronizedNanos = System.nanoTime();
+							return null;
+						}
+						
+						log.info("Worker is refreshing the configuration from remote repository");
+						Config read = reset(remote);
+						read.getRecorder().setRevision(revision);
+						remember(remote, revision);
+						config.set(read);
+					}
+					return null;
+				}
+			});
+		}
+		
+		/**
+		 * Remembers that the specified commit holds the {@link Config} of the specified revision.
+		 */
+		private void remember(String commit, long revision) {
+			if (commit == null) {
+				return;
+			}
+			synchronized (commits) {
+				commits.put(commit, revision);
+			}
+		}
+		
+		/**
+		 * @return
+		 * 	The revision of the {@link Config} which the specified commit holds. If that commit 
+		 * 	is unknown, or no longer remembered, any part which is no longer remembered either 
+		 * 	may have been changed since, so the revision in which the last forgotten part was 
+		 * 	changed is returned.
+		 */
+		private long revisionOf(String commit) {
+			if (commit != null) {
+				synchronized (commits) {
+					Long known = commits.get(commit);
+					if (known != null) {
+						return known;
+					}
+				}
+			}
+			return forgotten;
+		}
+		
+		private void stop() {
+			executor.shutdownNow();
+			publisher.shutdown();
+			
+			UnitOfWork unit;
+			while ((unit = modifications.poll()) != null) {
+				unit.getFuture().setException(new RejectedExecutionException("The ConfigManager has been closed"));
+			}
+			
+			if (journal != null) {
+				try {
+					journal.close();
+				}
+				catch (IOException e) {
+					log.warn("Could not close the journal", e);
+				}
+			}
 		}
 
-		public ListenableFuture<Void> submit(List<Modification> recording) {
+		public ListenableFuture<Void> submit(List<Modification> recording, long revision) {
 			if (recording == null || recording.isEmpty()) {
 				SettableFuture<Void> future = SettableFuture.create();
 				future.set(null);
@@ -391,14 +1236,212 @@ public class ConfigManager {
 			}
 			
 			log.info("Submitting a new changeset, containing {} changes", recording.size());
-			UnitOfWork unit = new UnitOfWork(recording);
+			UnitOfWork unit = new UnitOfWork(recording, revision);
+			countOutcome(unit);
+			if (journal(unit)) {
+				enqueue(unit);
+			}
+			return unit.getFuture();
+		}
+		
+		/**
+		 * Appends the specified {@link UnitOfWork} to the {@link Journal}, if one is used, and
+		 * waits until it has been flushed to disk. A {@link UnitOfWork} containing other 
+		 * {@link Modification}s than {@link Operation}s cannot be journaled, and is only kept
+		 * in memory.
+		 * 
+		 * @return False if the {@link UnitOfWork} could not be journaled, in which case its
+		 * 	owner has been notified, true otherwise.
+		 */
+		private boolean journal(UnitOfWork unit) {
+			if (journal == null) {
+				return true;
+			}
 			
-			synchronized (modifications) {
-				modifications.offer(unit);
-				modifications.notify();
+			List<Operation> operations = Lists.newArrayList();
+			for (Modification modification : unit.getModifications()) {
+				if (!(modification instanceof Operation)) {
+					log.warn("Not journaling a changeset, since it contains changes which are not operations");
+					return true;
+				}
+				operations.add((Operation) modification);
 			}
 			
-			return unit.getFuture();
+			try {
+				long sequence = journal.append(operations);
+				completeWhenDone(unit, sequence);
+				journal.sync(sequence);
+				return true;
+			}
+			catch (IOException e) {
+				log.error("Could not journal a changeset, rejecting it", e);
+				unit.getFuture().setException(e);
+				return false;
+			}
+		}
+		
+		private void countOutcome(UnitOfWork unit) {
+			Futures.addCallback(unit.getFuture(), new FutureCallback<Void>() {
+				@Override
+				public void onSuccess(Void result) {
+					instruments.unitsSucceeded.increment(1);
+				}
+				
+				@Override
+				public void onFailure(Throwable t) {
+					instruments.unitsFailed.increment(1);
+				}
+			});
+		}
+		
+		/**
+		 * Removes the {@link UnitOfWork} from the {@link Journal} once it has been pushed or rejected.
+		 */
+		private void completeWhenDone(UnitOfWork unit, final long sequence) {
+			unit.getFuture().addListener(new Runnable() {
+				@Override
+				public void run() {
+					journal.complete(sequence);
+				}
+			}, MoreExecutors.sameThreadExecutor());
+		}
+		
+		/**
+		 * @return The changesets which remained in the {@link Journal} when the previous process
+		 * 	stopped, or an empty {@link List} if no {@link Journal} is used.
+		 */
+		private List<Journal.Entry> openJournal() throws IOException {
+			if (journal == null) {
+				return ImmutableList.of();
+			}
+			return journal.open();
+		}
+		
+		/**
+		 * Applies and pushes the specified changesets again. They were accepted by a previous 
+		 * process, so their revisions are unrelated, and they're not appended to the 
+		 * {@link Journal} again. A changeset which was already pushed before the previous process
+		 * stopped usually conflicts with itself, in which case it's rejected and only logged.
+		 */
+		private void replay(List<Journal.Entry> entries) {
+			for (Journal.Entry entry : entries) {
+				log.info("Replaying journaled changeset, containing {} changes", entry.getChangeset().size());
+				UnitOfWork unit = new UnitOfWork(entry.getChangeset(), Long.MAX_VALUE);
+				countOutcome(unit);
+				completeWhenDone(unit, entry.getSequence());
+				Futures.addCallback(unit.getFuture(), new FutureCallback<Void>() {
+					@Override
+					public void onSuccess(Void result) {
+						log.info("Journaled changeset was pushed");
+					}
+					
+					@Override
+					public void onFailure(Throwable t) {
+						log.warn("Journaled changeset could not be applied", t);
+					}
+				});
+				enqueue(unit);
+			}
+		}
+		
+		private void enqueue(UnitOfWork unit) {
+			switch (settings.getOverflowPolicy()) {
+				case FAIL_FAST:
+					if (!modifications.offer(unit)) {
+						log.warn("The queue of changesets is full, rejecting the new changeset");
+						unit.getFuture().setException(new RejectedExecutionException("The queue of changesets is full"));
+					}
+					break;
+					
+				case DROP_OLDEST:
+					while (!modifications.offer(unit)) {
+						UnitOfWork oldest = modifications.poll();
+						if (oldest != null) {
+							log.warn("The queue of changesets is full, dropping the oldest changeset");
+							oldest.getFuture().setException(
+									new RejectedExecutionException("The changeset was dropped, because the queue of changesets was full"));
+						}
+					}
+					break;
+					
+				default:
+					try {
+						modifications.put(unit);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						unit.getFuture().setException(e);
+					}
+			}
+		}
+		
+	}
+	
+	/**
+	 * The {@link CoordinatedNode} class lets a {@link Coordinator} prepare this
+	 * {@link ConfigManager} for writing, and submit changesets forwarded by others.
+	 */
+	private class CoordinatedNode implements Coordinator.Node {
+		
+		@Override
+		public void becameWriter() throws Exception {
+			refresh();
+		}
+		
+		/**
+		 * Forwarded changesets are based on the configuration of another {@link ConfigManager}, 
+		 * whose revisions are unrelated, so they're checked for conflicts against the revision 
+		 * of the commit that configuration was read from.
+		 */
+		@Override
+		public ListenableFuture<Void> submit(List<Modification> changeset, String baseCommit) {
+			return worker.submit(changeset, worker.revisionOf(baseCommit));
+		}
+		
+	}
+	
+	/**
+	 * The {@link Instruments} class holds the instruments of the {@link Metrics} which the
+	 * {@link ConfigManager} updates, so each of them is looked up only once.
+	 */
+	private static class Instruments {
+		
+		private final Metrics.Timer clone;
+		private final Metrics.Timer pull;
+		private final Metrics.Timer fetch;
+		private final Metrics.Timer reset;
+		private final Metrics.Timer commit;
+		private final Metrics.Timer push;
+		private final Metrics.Timer read;
+		private final Metrics.Timer readChanges;
+		private final Metrics.Timer copy;
+		private final Metrics.Timer apply;
+		private final Metrics.Timer writeConfig;
+		private final Metrics.Timer writeKeys;
+		private final Metrics.Timer publish;
+		private final Metrics.Histogram batchSize;
+		private final Metrics.Counter pushRejected;
+		private final Metrics.Counter unitsSucceeded;
+		private final Metrics.Counter unitsFailed;
+		
+		public Instruments(Metrics metrics) {
+			this.clone = metrics.timer("git.clone");
+			this.pull = metrics.timer("git.pull");
+			this.fetch = metrics.timer("git.fetch");
+			this.reset = metrics.timer("git.reset");
+			this.commit = metrics.timer("git.commit");
+			this.push = metrics.timer("git.push");
+			this.read = metrics.timer("config.read");
+			this.readChanges = metrics.timer("config.read.changes");
+			this.copy = metrics.timer("config.copy");
+			this.apply = metrics.timer("worker.apply");
+			this.writeConfig = metrics.timer("config.write");
+			this.writeKeys = metrics.timer("keys.write");
+			this.publish = metrics.timer("worker.publish");
+			this.batchSize = metrics.histogram("worker.batch.size");
+			this.pushRejected = metrics.counter("worker.push.rejected");
+			this.unitsSucceeded = metrics.counter("worker.units.succeeded");
+			this.unitsFailed = metrics.counter("worker.units.failed");
 		}
 		
 	}
@@ -413,10 +1456,33 @@ public class ConfigManager {
 		
 		private final ImmutableList<Modification> modifications;
 		private final SettableFuture<Void> future;
+		private final long submitted;
+		private final long size;
+		private final long revision;
 		
-		public UnitOfWork(List<Modification> modifications) {
-			this.modifications = ImmutableList.copyOf(modifications);
+		public UnitOfWork(List<? extends Modification> modifications, long revision) {
+			this.modifications = ImmutableList.<Modification>copyOf(modifications);
 			this.future = SettableFuture.create();
+			this.submitted = System.nanoTime();
+			this.revision = revision;
+			
+			long size = 0;
+			for (Modification modification : modifications) {
+				size += modification.getSize();
+			}
+			this.size = size;
+		}
+		
+		public long getSubmitted() {
+			return submitted;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		public long getRevision() {
+			return revision;
 		}
 		
 		public ImmutableList<Modification> getModifications() {
@@ -428,5 +1494,30 @@ public class ConfigManager {
 		}
 		
 	}
+	
+	/**
+	 * The {@link Batch} class is a data object, which holds the frozen {@link Config} 
+	 * resulting from applying a batch of {@link UnitOfWork}s, and the {@link UnitOfWork}s 
+	 * which were successfully applied.
+	 */
+	private static class Batch {
+		
+		private final Config config;
+		private final List<UnitOfWork> units;
+		
+		public Batch(Config config, List<UnitOfWork> units) {
+			this.config = config;
+			this.units = units;
+		}
+		
+		public Config getConfig() {
+			return config;
+		}
+		
+		public List<UnitOfWork> getUnits() {
+			return units;
+		}
+		
+	}
 
 }
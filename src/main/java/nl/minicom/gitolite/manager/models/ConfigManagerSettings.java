@@ -0,0 +1,432 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import nl.minicom.gitolite.manager.coordination.Coordinator;
+import nl.minicom.gitolite.manager.git.Durability;
+import nl.minicom.gitolite.manager.metrics.Metrics;
+import nl.minicom.gitolite.manager.metrics.NoopMetrics;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The {@link ConfigManagerSettings} class holds the settings which determine how a
+ * {@link ConfigManager} processes changes. A newly constructed {@link ConfigManagerSettings}
+ * object contains the default settings. The settings are passed to the {@link ConfigManager}
+ * when it's created, and should not be changed afterwards.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public class ConfigManagerSettings {
+
+	private long lingerTimeNanos = 0;
+	private int maximumBatchSize = 1000;
+	private long maximumBatchBytes = Long.MAX_VALUE;
+	private int queueCapacity = 10000;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	private int conflictHistorySize = 100000;
+	private int maximumPushAttempts = 5;
+	private long pushBackoffNanos = TimeUnit.MILLISECONDS.toNanos(100);
+	private long refreshIntervalNanos = 0;
+	private long refreshJitterNanos = 0;
+	private boolean bareRepository = false;
+	private String branch = null;
+	private Durability durability = Durability.NONE;
+	private Coordinator coordinator = null;
+	private File journalDirectory = null;
+	private long maximumJournalSegmentSize = 16 * 1024 * 1024;
+	private Metrics metrics = new NoopMetrics();
+
+	/**
+	 * @return
+	 * 	The time in nanoseconds the {@link ConfigManager} waits for more changes to arrive
+	 * 	after receiving a change, so they can be committed and pushed together.
+	 */
+	public long getLingerTimeNanos() {
+		return lingerTimeNanos;
+	}
+
+	/**
+	 * This method sets the time the {@link ConfigManager} waits for more changes to arrive
+	 * after receiving a change, so they can be committed and pushed together. The waiting
+	 * stops early when the batch is full. By default this is 0, which means that changes
+	 * are processed as soon as they arrive.
+	 *
+	 * @param lingerTime
+	 * 	The amount of time to wait. This may not be negative.
+	 *
+	 * @param unit
+	 * 	The {@link TimeUnit} of the specified time. This may not be NULL.
+	 */
+	public void setLingerTime(long lingerTime, TimeUnit unit) {
+		Preconditions.checkArgument(lingerTime >= 0);
+		Preconditions.checkNotNull(unit);
+		this.lingerTimeNanos = unit.toNanos(lingerTime);
+	}
+
+	/**
+	 * @return
+	 * 	The maximum number of changesets which are committed and pushed together.
+	 */
+	public int getMaximumBatchSize() {
+		return maximumBatchSize;
+	}
+
+	/**
+	 * This method sets the maximum number of changesets which are committed and pushed
+	 * together. By default this is 1000.
+	 *
+	 * @param maximumBatchSize
+	 * 	The maximum number of changesets in a batch. This must be a positive number.
+	 */
+	public void setMaximumBatchSize(int maximumBatchSize) {
+		Preconditions.checkArgument(maximumBatchSize > 0);
+		this.maximumBatchSize = maximumBatchSize;
+	}
+
+	/**
+	 * @return
+	 * 	The maximum estimated size in bytes of the changesets which are committed
+	 * 	and pushed together.
+	 */
+	public long getMaximumBatchBytes() {
+		return maximumBatchBytes;
+	}
+
+	/**
+	 * This method sets the maximum estimated size in bytes of the changesets which are
+	 * committed and pushed together. A batch always contains at least one changeset,
+	 * even if that changeset is larger. By default there is no limit.
+	 *
+	 * @param maximumBatchBytes
+	 * 	The maximum size of a batch in bytes. This must be a positive number.
+	 */
+	public void setMaximumBatchBytes(long maximumBatchBytes) {
+		Preconditions.checkArgument(maximumBatchBytes > 0);
+		this.maximumBatchBytes = maximumBatchBytes;
+	}
+
+	/**
+	 * @return
+	 * 	The maximum number of changesets which can wait to be applied.
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * This method sets the maximum number of changesets which can wait to be applied. When
+	 * this many changesets are waiting, the {@link OverflowPolicy} determines what happens
+	 * to new changesets. By default this is 10000.
+	 *
+	 * @param queueCapacity
+	 * 	The maximum number of waiting changesets. This must be a positive number.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		Preconditions.checkArgument(queueCapacity > 0);
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @return
+	 * 	The {@link OverflowPolicy} which determines what happens to new changesets
+	 * 	when the queue of waiting changesets is full.
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * This method sets the {@link OverflowPolicy} which determines what happens to new 
+	 * changesets when the queue of waiting changesets is full. By default this is
+	 * {@link OverflowPolicy#BLOCK}.
+	 *
+	 * @param overflowPolicy
+	 * 	The {@link OverflowPolicy} to use. This may not be NULL.
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = Preconditions.checkNotNull(overflowPolicy);
+	}
+
+	/**
+	 * @return
+	 * 	The number of changed parts of the configuration which the {@link ConfigManager}
+	 * 	remembers to detect conflicting changesets.
+	 */
+	public int getConflictHistorySize() {
+		return conflictHistorySize;
+	}
+
+	/**
+	 * This method sets the number of changed parts of the configuration, such as repositories,
+	 * permissions and keys, which the {@link ConfigManager} remembers to detect conflicting 
+	 * changesets. When more parts have been changed, the ones which were changed longest ago 
+	 * are forgotten, and a changeset based on a configuration from before they were changed 
+	 * is rejected when it touches a part which is not remembered. By default this is 100000.
+	 *
+	 * @param conflictHistorySize
+	 * 	The number of changed parts to remember. This must be a positive number.
+	 */
+	public void setConflictHistorySize(int conflictHistorySize) {
+		Preconditions.checkArgument(conflictHistorySize > 0);
+		this.conflictHistorySize = conflictHistorySize;
+	}
+
+	/**
+	 * @return
+	 * 	The maximum number of times the {@link ConfigManager} tries to push a batch of
+	 * 	changes, when pushing is rejected because the remote repository has changed.
+	 */
+	public int getMaximumPushAttempts() {
+		return maximumPushAttempts;
+	}
+
+	/**
+	 * This method sets the maximum number of times the {@link ConfigManager} tries to push 
+	 * a batch of changes. When pushing is rejected because the remote repository has changed,
+	 * for instance because another administrator pushed first, the {@link ConfigManager} 
+	 * fetches the remote repository, re-applies the changes on top of it, and tries again.
+	 * By default this is 5.
+	 *
+	 * @param maximumPushAttempts
+	 * 	The maximum number of attempts. This must be a positive number.
+	 */
+	public void setMaximumPushAttempts(int maximumPushAttempts) {
+		Preconditions.checkArgument(maximumPushAttempts > 0);
+		this.maximumPushAttempts = maximumPushAttempts;
+	}
+
+	/**
+	 * @return
+	 * 	The time in nanoseconds the {@link ConfigManager} waits before it tries to push 
+	 * 	again after the first rejected push.
+	 */
+	public long getPushBackoffNanos() {
+		return pushBackoffNanos;
+	}
+
+	/**
+	 * This method sets the time the {@link ConfigManager} waits before it tries to push
+	 * again after the first rejected push. The time is doubled after every following
+	 * rejected push. By default this is 100 milliseconds.
+	 *
+	 * @param pushBackoff
+	 * 	The amount of time to wait. This may not be negative.
+	 *
+	 * @param unit
+	 * 	The {@link TimeUnit} of the specified time. This may not be NULL.
+	 */
+	public void setPushBackoff(long pushBackoff, TimeUnit unit) {
+		Preconditions.checkArgument(pushBackoff >= 0);
+		Preconditions.checkNotNull(unit);
+		this.pushBackoffNanos = unit.toNanos(pushBackoff);
+	}
+
+	/**
+	 * @return
+	 * 	The time in nanoseconds between two refreshes of the configuration, or 0 if
+	 * 	the configuration is not refreshed periodically.
+	 */
+	public long getRefreshIntervalNanos() {
+		return refreshIntervalNanos;
+	}
+
+	/**
+	 * This method sets the time between two refreshes of the configuration. On every 
+	 * refresh the {@link ConfigManager} fetches the remote repository, and only reads
+	 * the configuration again if new commits were found. By default this is 0, which 
+	 * means that the configuration is never refreshed periodically.
+	 *
+	 * @param refreshInterval
+	 * 	The amount of time between two refreshes. This may not be negative.
+	 *
+	 * @param unit
+	 * 	The {@link TimeUnit} of the specified time. This may not be NULL.
+	 */
+	public void setRefreshInterval(long refreshInterval, TimeUnit unit) {
+		Preconditions.checkArgument(refreshInterval >= 0);
+		Preconditions.checkNotNull(unit);
+		this.refreshIntervalNanos = unit.toNanos(refreshInterval);
+	}
+
+	/**
+	 * @return
+	 * 	The maximum time in nanoseconds which is randomly added to the refresh interval.
+	 */
+	public long getRefreshJitterNanos() {
+		return refreshJitterNanos;
+	}
+
+	/**
+	 * This method sets the maximum time which is randomly added to every refresh interval,
+	 * so several {@link ConfigManager}s started at the same time don't all fetch at the
+	 * same moment. By default this is 0.
+	 *
+	 * @param refreshJitter
+	 * 	The maximum amount of time to add. This may not be negative.
+	 *
+	 * @param unit
+	 * 	The {@link TimeUnit} of the specified time. This may not be NULL.
+	 */
+	public void setRefreshJitter(long refreshJitter, TimeUnit unit) {
+		Preconditions.checkArgument(refreshJitter >= 0);
+		Preconditions.checkNotNull(unit);
+		this.refreshJitterNanos = unit.toNanos(refreshJitter);
+	}
+
+	/**
+	 * @return
+	 * 	True if the configuration repository is cloned as a bare repository, or
+	 * 	false if it's cloned with a working directory.
+	 */
+	public boolean isBareRepository() {
+		return bareRepository;
+	}
+
+	/**
+	 * This method sets whether the configuration repository is cloned as a bare
+	 * repository. A bare repository has no working directory, so the configuration
+	 * files are never checked out, and changes are written straight into the git
+	 * objects of the repository. By default this is false.
+	 *
+	 * @param bareRepository
+	 * 	True if the repository should be cloned as a bare repository.
+	 */
+	public void setBareRepository(boolean bareRepository) {
+		this.bareRepository = bareRepository;
+	}
+
+	/**
+	 * @return
+	 * 	The name of the only branch which is cloned, or NULL if all branches are cloned.
+	 */
+	public String getBranch() {
+		return branch;
+	}
+
+	/**
+	 * This method sets the name of the only branch of the configuration repository which
+	 * is cloned, for instance "master". Other branches are never fetched. By default this
+	 * is NULL, which means that all branches are cloned and the default branch is used.
+	 *
+	 * @param branch
+	 * 	The name of the branch to clone, or NULL to clone all branches.
+	 */
+	public void setBranch(String branch) {
+		Preconditions.checkArgument(branch == null || !branch.isEmpty());
+		this.branch = branch;
+	}
+
+	/**
+	 * @return
+	 * 	The {@link Durability} of the files which are written to the configuration repository.
+	 */
+	public Durability getDurability() {
+		return durability;
+	}
+
+	/**
+	 * This method sets the {@link Durability} of the files which are written to the 
+	 * configuration repository. With {@link Durability#BATCH}, all files written for a commit 
+	 * have been flushed to disk before it's made. By default this is {@link Durability#NONE}.
+	 *
+	 * @param durability
+	 * 	The {@link Durability} to use. This cannot be NULL.
+	 */
+	public void setDurability(Durability durability) {
+		Preconditions.checkNotNull(durability);
+		this.durability = durability;
+	}
+
+	/**
+	 * @return
+	 * 	The {@link Coordinator} which coordinates the {@link ConfigManager} with other
+	 * 	{@link ConfigManager}s managing the same repository, or NULL if there are none.
+	 */
+	public Coordinator getCoordinator() {
+		return coordinator;
+	}
+
+	/**
+	 * This method sets the {@link Coordinator} which coordinates the {@link ConfigManager}
+	 * with other {@link ConfigManager}s managing the same repository. Only the one which 
+	 * is elected as writer applies and pushes changes. The others forward their changes 
+	 * to it. Each {@link ConfigManager} needs its own {@link Coordinator}. By default 
+	 * this is NULL, which means that the {@link ConfigManager} is the only writer.
+	 *
+	 * @param coordinator
+	 * 	The {@link Coordinator} to use, or NULL to use none.
+	 */
+	public void setCoordinator(Coordinator coordinator) {
+		this.coordinator = coordinator;
+	}
+
+	/**
+	 * @return
+	 * 	The directory in which changes are journaled until they're pushed, or NULL if
+	 * 	changes are not journaled.
+	 */
+	public File getJournalDirectory() {
+		return journalDirectory;
+	}
+
+	/**
+	 * This method sets the directory in which the {@link ConfigManager} journals changes
+	 * until they're pushed. Changes are flushed to the journal before they're accepted,
+	 * and changes which were accepted but not pushed when the process stopped, are applied
+	 * again when the configuration is loaded next time. Only changes made through the 
+	 * methods of {@link Config} and its models can be journaled. By default this is NULL, 
+	 * which means that changes are not journaled.
+	 *
+	 * @param journalDirectory
+	 * 	The directory to store the journal in, or NULL to disable the journal.
+	 */
+	public void setJournalDirectory(File journalDirectory) {
+		this.journalDirectory = journalDirectory;
+	}
+
+	/**
+	 * @return
+	 * 	The size in bytes after which the journal starts a new segment file.
+	 */
+	public long getMaximumJournalSegmentSize() {
+		return maximumJournalSegmentSize;
+	}
+
+	/**
+	 * This method sets the size in bytes after which the journal starts a new segment
+	 * file. A segment file is removed once all changes in it have been pushed or rejected.
+	 * By default this is 16 MB.
+	 *
+	 * @param maximumJournalSegmentSize
+	 * 	The maximum size of a segment file. This must be a positive number.
+	 */
+	public void setMaximumJournalSegmentSize(long maximumJournalSegmentSize) {
+		Preconditions.checkArgument(maximumJournalSegmentSize > 0);
+		this.maximumJournalSegmentSize = maximumJournalSegmentSize;
+	}
+
+	/**
+	 * @return
+	 * 	The {@link Metrics} which the {@link ConfigManager} reports its metrics to.
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * This method sets the {@link Metrics} which the {@link ConfigManager} reports its
+	 * metrics to, such as the time spent in each stage of reading, applying and pushing
+	 * changes, the depth of the queue, and the number of failed changesets. By default 
+	 * these are {@link NoopMetrics}, which discard everything.
+	 *
+	 * @param metrics
+	 * 	The {@link Metrics} to report to. This may not be NULL.
+	 */
+	public void setMetrics(Metrics metrics) {
+		Preconditions.checkNotNull(metrics);
+		this.metrics = metrics;
+	}
+
+}
@@ -1,11 +1,10 @@
 package nl.minicom.gitolite.manager.models;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Arrays;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 
 /**
  * This class contains a method to read a gitolite configuration file, and
@@ -32,83 +31,296 @@ public final class ConfigReader {
 	public static Config read(Reader reader) throws IOException {
 		Preconditions.checkNotNull(reader);
 		
-		BufferedReader bufferedReader = new BufferedReader(reader);
 		try {
-			return parseConfig(bufferedReader);
+			return new Parser(reader).parse();
 		}
 		finally {
-			bufferedReader.close();
+			reader.close();
 		}
 	}
 
-	private static Config parseConfig(BufferedReader reader) throws IOException {
-		Config config = new Config();
+	/**
+	 * The {@link Parser} class reads the configuration file in a single pass. It reads
+	 * the characters in blocks, strips comments while copying each line into a reusable
+	 * buffer, and splits the tokens in place. Only names are turned into {@link String}s,
+	 * and every distinct name is created just once.
+	 */
+	private static final class Parser {
+
+		private static final int BUFFER_SIZE = 8192;
 		
-		String line;
-		Repository currentRepo = null;
-		int lineNumber = 0;
-		while ((line = reader.readLine()) != null) {
-			lineNumber++;
-			line = line.trim();
-			line = line.replaceAll("#.*", "");
+		private final Reader reader;
+		private final char[] buffer = new char[BUFFER_SIZE];
+		private final NameTable names = new NameTable();
+		
+		private int position = 0;
+		private int limit = 0;
+		private boolean skipLineFeed = false;
+		
+		private char[] line = new char[256];
+		private int lineNumber = 0;
+		private int start;
+		private int end;
+
+		private Parser(Reader reader) {
+			this.reader = reader;
+		}
+
+		private Config parse() throws IOException {
+			Config config = new Config();
 			
-			if (!line.isEmpty()) {
-				if (line.charAt(0) == '@') {
-					addIdentifiablesToGroup(config, line);
+			Repository currentRepo = null;
+			while (readLine()) {
+				if (start == end) {
+					continue;
 				}
-				else if (line.startsWith("repo")) {
-					currentRepo = createRepo(config, line);
+				
+				if (line[start] == '@') {
+					addIdentifiablesToGroup(config);
+				}
+				else if (startsWith("repo")) {
+					currentRepo = createRepo(config);
 				}
 				else if (currentRepo != null) {
-					createPermissionRule(config, currentRepo, line);
+					createPermissionRule(config, currentRepo);
 				}
 				else {
 					throw new IllegalArgumentException("Incorrect syntax at line: " + lineNumber);
 				}
 			}
+			return config;
 		}
-		return config;
-	}
-
-	private static void addIdentifiablesToGroup(Config config, String line) {
-		int indexOfEqualsSign = line.indexOf('=');
-		String groupName = line.substring(0, indexOfEqualsSign).trim();
-		String identifiables = line.substring(indexOfEqualsSign + 1).trim();
-		Iterable<String> ids = Splitter.on(' ').omitEmptyStrings().split(identifiables);
 		
-		Group group = config.ensureGroupExists(groupName);
-		for (String id : ids) {
-			if (id.startsWith("@")) {
-				group.add(config.ensureGroupExists(id));
+		/**
+		 * Reads the next line into the line buffer, without its comment, and sets
+		 * start and end to the trimmed contents of the line.
+		 * 
+		 * @return False if the end of the stream was reached before any line was read.
+		 */
+		private boolean readLine() throws IOException {
+			int length = 0;
+			boolean comment = false;
+			boolean read = false;
+			
+			while (true) {
+				if (position == limit) {
+					limit = reader.read(buffer, 0, BUFFER_SIZE);
+					position = 0;
+					if (limit <= 0) {
+						limit = 0;
+						if (!read) {
+							return false;
+						}
+						break;
+					}
+				}
+				
+				char c = buffer[position++];
+				if (skipLineFeed) {
+					skipLineFeed = false;
+					if (c == '\n') {
+						continue;
+					}
+				}
+				
+				read = true;
+				if (c == '\n') {
+					break;
+				}
+				else if (c == '\r') {
+					skipLineFeed = true;
+					break;
+				}
+				else if (c == '#') {
+					comment = true;
+				}
+				else if (!comment) {
+					if (length == line.length) {
+						line = Arrays.copyOf(line, length * 2);
+					}
+					line[length++] = c;
+				}
 			}
-			else {
-				group.add(config.ensureUserExists(id));
+			
+			lineNumber++;
+			start = skipWhitespace(0, length);
+			end = length;
+			while (end > start && line[end - 1] <= ' ') {
+				end--;
 			}
+			return true;
 		}
-	}
 
-	private static Repository createRepo(Config config, String line) {
-		String repoName = line.substring("repo".length()).trim();
-		return config.createRepository(repoName);
-	}
+		private void addIdentifiablesToGroup(Config config) {
+			int indexOfEqualsSign = indexOfEqualsSign();
+			Group group = config.ensureGroupExists(name(start, indexOfEqualsSign));
+			
+			int index = skipWhitespace(indexOfEqualsSign + 1, end);
+			while (index < end) {
+				int tokenEnd = skipToken(index, end);
+				String id = names.get(line, index, tokenEnd);
+				if (line[index] == '@') {
+					group.add(config.ensureGroupExists(id));
+				}
+				else {
+					group.add(config.ensureUserExists(id));
+				}
+				index = skipWhitespace(tokenEnd, end);
+			}
+		}
 
-	private static void createPermissionRule(Config config, Repository currentRepo, String line) {
-		int indexOfEqualsSign = line.indexOf('=');
-		String permissionLevel = line.substring(0, indexOfEqualsSign).trim();
-		Permission permission = Permission.getByLevel(permissionLevel);
-		String identifiables = line.substring(indexOfEqualsSign + 1).trim();
-		Iterable<String> ids = Splitter.on(' ').omitEmptyStrings().split(identifiables);
+		private Repository createRepo(Config config) {
+			return config.createRepository(name(start + "repo".length(), end));
+		}
 
-		for (String id : ids) {
-			if (id.charAt(0) == '@') {
-				Group group = config.ensureGroupExists(id);
-				currentRepo.setPermission(group, permission);
+		private void createPermissionRule(Config config, Repository currentRepo) {
+			int indexOfEqualsSign = indexOfEqualsSign();
+			Permission permission = getPermission(start, indexOfEqualsSign);
+			
+			int index = skipWhitespace(indexOfEqualsSign + 1, end);
+			while (index < end) {
+				int tokenEnd = skipToken(index, end);
+				String id = names.get(line, index, tokenEnd);
+				if (line[index] == '@') {
+					currentRepo.setPermission(config.ensureGroupExists(id), permission);
+				}
+				else {
+					currentRepo.setPermission(config.ensureUserExists(id), permission);
+				}
+				index = skipWhitespace(tokenEnd, end);
+			}
+		}
+		
+		private Permission getPermission(int from, int to) {
+			int levelStart = skipWhitespace(from, to);
+			int levelEnd = to;
+			while (levelEnd > levelStart && line[levelEnd - 1] <= ' ') {
+				levelEnd--;
+			}
+			
+			for (Permission permission : Permission.values()) {
+				if (regionMatches(levelStart, levelEnd, permission.getLevel())) {
+					return permission;
+				}
 			}
-			else {
-				User user = config.ensureUserExists(id);
-				currentRepo.setPermission(user, permission);
+			throw new IllegalArgumentException("Unknown permission at line: " + lineNumber);
+		}
+		
+		private String name(int from, int to) {
+			int nameStart = skipWhitespace(from, to);
+			int nameEnd = to;
+			while (nameEnd > nameStart && line[nameEnd - 1] <= ' ') {
+				nameEnd--;
 			}
+			return names.get(line, nameStart, nameEnd);
 		}
+		
+		private int indexOfEqualsSign() {
+			for (int i = start; i < end; i++) {
+				if (line[i] == '=') {
+					return i;
+				}
+			}
+			throw new IllegalArgumentException("Incorrect syntax at line: " + lineNumber);
+		}
+		
+		private boolean startsWith(String prefix) {
+			return end - start >= prefix.length() && regionMatches(start, start + prefix.length(), prefix);
+		}
+		
+		private boolean regionMatches(int from, int to, String value) {
+			if (to - from != value.length()) {
+				return false;
+			}
+			for (int i = 0; i < value.length(); i++) {
+				if (line[from + i] != value.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		private int skipWhitespace(int index, int to) {
+			while (index < to && line[index] <= ' ') {
+				index++;
+			}
+			return index;
+		}
+		
+		private int skipToken(int index, int to) {
+			while (index < to && line[index] > ' ') {
+				index++;
+			}
+			return index;
+		}
+		
+	}
+	
+	/**
+	 * The {@link NameTable} class is a small open-addressing hash table, which returns
+	 * the same {@link String} for every occurrence of a name. A name is looked up by
+	 * its characters, so a {@link String} is only created the first time it's seen.
+	 */
+	private static final class NameTable {
+		
+		private String[] table = new String[256];
+		private int size = 0;
+		
+		private String get(char[] chars, int from, int to) {
+			int hash = 0;
+			for (int i = from; i < to; i++) {
+				hash = 31 * hash + chars[i];
+			}
+			
+			int mask = table.length - 1;
+			int index = mix(hash) & mask;
+			String name;
+			while ((name = table[index]) != null) {
+				if (name.hashCode() == hash && equals(name, chars, from, to)) {
+					return name;
+				}
+				index = (index + 1) & mask;
+			}
+			
+			name = new String(chars, from, to - from);
+			table[index] = name;
+			if (++size > table.length / 2) {
+				resize();
+			}
+			return name;
+		}
+		
+		private void resize() {
+			String[] old = table;
+			table = new String[old.length * 2];
+			int mask = table.length - 1;
+			for (String name : old) {
+				if (name != null) {
+					int index = mix(name.hashCode()) & mask;
+					while (table[index] != null) {
+						index = (index + 1) & mask;
+					}
+					table[index] = name;
+				}
+			}
+		}
+		
+		private static int mix(int hash) {
+			return hash ^ (hash >>> 16);
+		}
+		
+		private static boolean equals(String name, char[] chars, int from, int to) {
+			if (name.length() != to - from) {
+				return false;
+			}
+			for (int i = 0; i < name.length(); i++) {
+				if (name.charAt(i) != chars[from + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
 	}
 	
 	private ConfigReader() {
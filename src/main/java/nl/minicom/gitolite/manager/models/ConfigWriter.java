@@ -3,12 +3,12 @@ package nl.minicom.gitolite.manager.models;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.SortedSet;
 
-import com.google.common.base.Function;
-import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Collections2;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.SortedSetMultimap;
 
 /**
  * This class contains a method to write a configuration file 
@@ -21,12 +21,6 @@ public final class ConfigWriter {
 	private static final String PERMISSION_INDENT = "    ";
 	private static final int PADDING = 20;
 	
-	private static final Function<Identifiable, String> TO_NAME = new Function<Identifiable, String>() {
-		public String apply(Identifiable entity) {
-			return entity.getName();
-		}
-	};
-
 	/**
 	 * This method writes a configuration file based on the specified {@link Config} object,
 	 * to the specified {@link Writer}.
@@ -44,56 +38,98 @@ public final class ConfigWriter {
 		Preconditions.checkNotNull(config);
 		Preconditions.checkNotNull(writer);
 		
-		writeGroups(config, writer);
-		writeRepositories(config, writer);
+		StringBuilder builder = new StringBuilder();
+		render(config, builder);
 		
+		writer.write(builder.toString());
 		writer.flush();
 		writer.close();
 	}
+	
+	/**
+	 * This method renders the configuration file of the specified {@link Config} object,
+	 * and appends it to the specified {@link StringBuilder}. This allows the caller to
+	 * reuse the same {@link StringBuilder} for every configuration file it renders.
+	 * 
+	 * @param config
+	 * 	The {@link Config} object to render. This cannot be NULL.
+	 * 
+	 * @param builder
+	 * 	The {@link StringBuilder} to append the configuration file to. This cannot be NULL.
+	 */
+	static void render(Config config, StringBuilder builder) {
+		Preconditions.checkNotNull(config);
+		Preconditions.checkNotNull(builder);
+		
+		renderGroups(config, builder);
+		renderRepositories(config, builder);
+	}
 
-	private static void writeGroups(Config config, Writer writer) throws IOException {
-		Collection<Group> groups = config.getGroups();
-		if (!groups.isEmpty()) {
-			for (Group group : groups) {
+	private static void renderGroups(Config config, StringBuilder builder) {
+		SortedMap<String, Group> groups = config.getGroupIndex();
+		synchronized (groups) {
+			if (groups.isEmpty()) {
+				return;
+			}
+			
+			for (Group group : groups.values()) {
 				if (group.getName().equals("@all")) {
 					continue;
 				}
 				
-				Collection<String> names = Collections2.transform(group.getAllMembers(), TO_NAME);
-				writer.write(pad(group.getName(), PADDING) + " = " + Joiner.on(" ").join(names) + "\n");
+				pad(builder.append(group.getName()), group.getName().length(), PADDING);
+				builder.append(" = ");
+				int start = builder.length();
+				SortedSet<Group> childGroups = group.getGroupMembers();
+				synchronized (childGroups) {
+					appendNames(builder, start, childGroups);
+				}
+				SortedSet<User> childUsers = group.getUserMembers();
+				synchronized (childUsers) {
+					appendNames(builder, start, childUsers);
+				}
+				builder.append('\n');
 			}
-			writer.write("\n");
 		}
+		builder.append('\n');
 	}
 
-	private static void writeRepositories(Config config, Writer writer) throws IOException {
-		Collection<Repository> repos = config.getRepositories();
-		for (Repository repo : repos) {
-			writer.write("repo " + repo.getName() + "\n");
-			Multimap<Permission, Identifiable> permissions = repo.getPermissions();
-			for (Permission right : permissions.keySet()) {
-				Collection<Identifiable> entities = permissions.get(right);
+	private static void renderRepositories(Config config, StringBuilder builder) {
+		SortedMap<String, Repository> repos = config.getRepositoryIndex();
+		synchronized (repos) {
+			for (Repository repo : repos.values()) {
+				builder.append("repo ").append(repo.getName()).append('\n');
 				
-				Collection<String> names = Collections2.transform(entities, new Function<Identifiable, String>() {
-					@Override
-					public String apply(Identifiable entity) {
-						return entity.getName();
+				SortedSetMultimap<Permission, Identifiable> permissions = repo.getPermissionIndex();
+				synchronized (permissions) {
+					for (Entry<Permission, Collection<Identifiable>> entry : permissions.asMap().entrySet()) {
+						String level = entry.getKey().getLevel();
+						builder.append(PERMISSION_INDENT).append(level);
+						pad(builder, level.length(), PADDING - PERMISSION_INDENT.length());
+						builder.append(" = ");
+						appendNames(builder, builder.length(), entry.getValue());
+						builder.append('\n');
 					}
-				});
-				
-				writer.write(PERMISSION_INDENT + pad(right.getLevel(), PADDING - PERMISSION_INDENT.length()) + " = ");
-				writer.write(Joiner.on(" ").join(names) + "\n");
+				}
+				builder.append('\n');
+			}
+		}
+	}
+	
+	private static void appendNames(StringBuilder builder, int start, Collection<? extends Identifiable> entities) {
+		for (Identifiable entity : entities) {
+			if (builder.length() > start) {
+				builder.append(' ');
 			}
-			writer.write("\n");
+			builder.append(entity.getName());
 		}
 	}
 	
-	private static String pad(String input, int limit) {
-		String result = input;
-		while (result.length() < limit) {
-			result += " ";
+	private static StringBuilder pad(StringBuilder builder, int length, int limit) {
+		for (int i = length; i < limit; i++) {
+			builder.append(' ');
 		}
-		return result;
+		return builder;
 	}
 	
 	private ConfigWriter() {
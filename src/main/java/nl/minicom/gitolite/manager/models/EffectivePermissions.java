@@ -0,0 +1,393 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+
+/**
+ * The {@link EffectivePermissions} class answers which {@link Permission} a {@link User}
+ * effectively has on a {@link Repository}, taking (nested) {@link Group} memberships
+ * into account. The transitive members of every {@link Group} are computed once, when
+ * this object is constructed, so queries don't have to walk the {@link Group} hierarchy.
+ * When only the permissions of some {@link Repository}s, or the members of some {@link Group}s
+ * have changed, a new object is derived from the previous one. It only computes the members
+ * of the changed {@link Group}s and the {@link Group}s containing them again, and the access
+ * to the changed {@link Repository}s and the {@link Repository}s granting permissions to any
+ * of those {@link Group}s, and shares everything else.
+ *
+ * Use {@link Config#getEffectivePermissions()} to obtain an instance. The instance
+ * reflects the state of the {@link Config} at the moment it was computed.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public final class EffectivePermissions {
+
+	private static final String ALL_GROUP = "@all";
+	private static final Permission[] LEVELS = Permission.values();
+
+	private final long version;
+	private final long membershipVersion;
+	private final ImmutableList<User> users;
+	private final Map<String, Integer> userIds;
+	private final Map<String, BitSet> groupMembers;
+	private final Map<String, Access> repositoryAccess;
+	private final ImmutableList<Group> groups;
+
+	/**
+	 * Constructs a new {@link EffectivePermissions} object.
+	 *
+	 * @param config
+	 * 	The {@link Config} to compute the effective permissions of. This may not be NULL.
+	 *
+	 * @param version
+	 * 	The version of the {@link Config} which is being computed.
+	 *
+	 * @param membershipVersion
+	 * 	The membership version of the {@link Config} which is being computed.
+	 */
+	EffectivePermissions(Config config, long version, long membershipVersion) {
+		Preconditions.checkNotNull(config);
+
+		this.version = version;
+		this.membershipVersion = membershipVersion;
+		this.users = ImmutableList.copyOf(config.getUsers());
+		this.userIds = Maps.newHashMapWithExpectedSize(users.size());
+		for (int i = 0; i < users.size(); i++) {
+			userIds.put(users.get(i).getName(), i);
+		}
+
+		this.groups = ImmutableList.copyOf(config.getGroups());
+		this.groupMembers = Maps.newHashMapWithExpectedSize(groups.size());
+		for (Group group : groups) {
+			resolveMembers(group);
+		}
+
+		ImmutableSet<Repository> repositories = config.getRepositories();
+		this.repositoryAccess = Maps.newHashMapWithExpectedSize(repositories.size());
+		for (Repository repository : repositories) {
+			repositoryAccess.put(repository.getName(), resolveAccess(repository));
+		}
+	}
+
+	/**
+	 * Constructs a new {@link EffectivePermissions} object, for a {@link Config} whose
+	 * {@link User}s and {@link Group}s have not been created or removed since the specified 
+	 * one was computed.
+	 *
+	 * @param previous
+	 * 	The {@link EffectivePermissions} object to derive the new one from. This may not be NULL.
+	 *
+	 * @param config
+	 * 	The {@link Config} to compute the effective permissions of. This may not be NULL.
+	 *
+	 * @param version
+	 * 	The version of the {@link Config} which is being computed.
+	 *
+	 * @param changedRepositories
+	 * 	The names of the {@link Repository}s which have been changed, created or removed
+	 * 	since the previous {@link EffectivePermissions} object was computed.
+	 *
+	 * @param changedGroups
+	 * 	The names of the {@link Group}s whose direct members have been added or removed
+	 * 	since the previous {@link EffectivePermissions} object was computed.
+	 */
+	EffectivePermissions(EffectivePermissions previous, Config config, long version, 
+			Set<String> changedRepositories, Set<String> changedGroups) {
+		
+		Preconditions.checkNotNull(previous);
+		Preconditions.checkNotNull(config);
+
+		this.version = version;
+		this.membershipVersion = previous.membershipVersion;
+		this.users = previous.users;
+		this.userIds = previous.userIds;
+		this.groups = previous.groups;
+
+		Set<String> affectedGroups = findContainingGroups(changedGroups);
+		if (affectedGroups.isEmpty()) {
+			this.groupMembers = previous.groupMembers;
+		}
+		else {
+			this.groupMembers = Maps.newHashMap(previous.groupMembers);
+			groupMembers.keySet().removeAll(affectedGroups);
+			for (String groupName : affectedGroups) {
+				Group group = config.getGroup(groupName);
+				if (group != null) {
+					resolveMembers(group);
+				}
+			}
+		}
+
+		if (changedRepositories.isEmpty() && affectedGroups.isEmpty()) {
+			this.repositoryAccess = previous.repositoryAccess;
+			return;
+		}
+
+		this.repositoryAccess = Maps.newHashMap(previous.repositoryAccess);
+		if (!affectedGroups.isEmpty()) {
+			for (Access access : previous.repositoryAccess.values()) {
+				if (!Collections.disjoint(access.groups, affectedGroups)) {
+					repositoryAccess.put(access.repository.getName(), resolveAccess(access.repository));
+				}
+			}
+		}
+		for (String repoName : changedRepositories) {
+			Repository repository = config.getRepository(repoName);
+			if (repository == null) {
+				repositoryAccess.remove(repoName);
+			}
+			else {
+				repositoryAccess.put(repoName, resolveAccess(repository));
+			}
+		}
+	}
+
+	/**
+	 * @return
+	 * 	The names of the specified {@link Group}s, and of the {@link Group}s which contain any
+	 * 	of them, directly or through one of their child {@link Group}s. Only the members of 
+	 * 	these {@link Group}s can have changed.
+	 */
+	private Set<String> findContainingGroups(Set<String> changedGroups) {
+		if (changedGroups.isEmpty()) {
+			return changedGroups;
+		}
+
+		Multimap<String, String> parents = HashMultimap.create();
+		for (Group group : groups) {
+			for (Group child : group.getGroups()) {
+				parents.put(child.getName(), group.getName());
+			}
+		}
+
+		Set<String> found = Sets.newHashSet(changedGroups);
+		List<String> pending = Lists.newArrayList(changedGroups);
+		while (!pending.isEmpty()) {
+			for (String parent : parents.get(pending.remove(pending.size() - 1))) {
+				if (found.add(parent)) {
+					pending.add(parent);
+				}
+			}
+		}
+		return found;
+	}
+
+	private Access resolveAccess(Repository repository) {
+		BitSet[] levels = new BitSet[LEVELS.length];
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = new BitSet(users.size());
+		}
+
+		ImmutableSet.Builder<String> grantedGroups = ImmutableSet.builder();
+		for (Entry<Permission, Identifiable> entry : repository.getPermissions().entries()) {
+			BitSet level = levels[entry.getKey().ordinal()];
+			Identifiable entity = entry.getValue();
+			if (entity instanceof Group) {
+				grantedGroups.add(entity.getName());
+				BitSet members = groupMembers.get(entity.getName());
+				if (members != null) {
+					level.or(members);
+				}
+			}
+			else {
+				Integer id = userIds.get(entity.getName());
+				if (id != null) {
+					level.set(id);
+				}
+			}
+		}
+		return new Access(repository, levels, grantedGroups.build());
+	}
+
+	private BitSet resolveMembers(Group group) {
+		BitSet members = groupMembers.get(group.getName());
+		if (members != null) {
+			return members;
+		}
+
+		members = new BitSet(users.size());
+		if (ALL_GROUP.equals(group.getName())) {
+			members.set(0, users.size());
+		}
+		else {
+			for (User user : group.getUsers()) {
+				Integer id = userIds.get(user.getName());
+				if (id != null) {
+					members.set(id);
+				}
+			}
+			for (Group child : group.getGroups()) {
+				members.or(resolveMembers(child));
+			}
+		}
+
+		groupMembers.put(group.getName(), members);
+		return members;
+	}
+
+	/**
+	 * @return
+	 * 	The version of the {@link Config} this {@link EffectivePermissions} object was computed for.
+	 */
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return
+	 * 	The membership version of the {@link Config} this {@link EffectivePermissions} object 
+	 * 	was computed for.
+	 */
+	long getMembershipVersion() {
+		return membershipVersion;
+	}
+
+	/**
+	 * This method returns the highest {@link Permission} the specified {@link User} has
+	 * on the specified {@link Repository}, either directly or through one of its {@link Group}s.
+	 *
+	 * @param user
+	 * 	The {@link User} to look up. This may not be NULL.
+	 *
+	 * @param repository
+	 * 	The {@link Repository} to look up. This may not be NULL.
+	 *
+	 * @return
+	 * 	The effective {@link Permission}, or NULL if the {@link User} has no access.
+	 */
+	public Permission getPermission(User user, Repository repository) {
+		Preconditions.checkNotNull(user);
+		Preconditions.checkNotNull(repository);
+
+		Integer id = userIds.get(user.getName());
+		Access access = repositoryAccess.get(repository.getName());
+		if (id == null || access == null) {
+			return null;
+		}
+		return getPermission(id, access);
+	}
+
+	private Permission getPermission(int id, Access access) {
+		for (Permission level : LEVELS) {
+			if (access.levels[level.ordinal()].get(id)) {
+				return level;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * This method returns all {@link User}s who have access to the specified {@link Repository}.
+	 *
+	 * @param repository
+	 * 	The {@link Repository} to look up. This may not be NULL.
+	 *
+	 * @return
+	 * 	An {@link ImmutableMap} of {@link User}s, and their effective {@link Permission}.
+	 */
+	public ImmutableMap<User, Permission> getUsers(Repository repository) {
+		Preconditions.checkNotNull(repository);
+
+		ImmutableSortedMap.Builder<User, Permission> builder = ImmutableSortedMap.orderedBy(User.SORT_BY_NAME);
+		Access access = repositoryAccess.get(repository.getName());
+		if (access != null) {
+			BitSet seen = new BitSet(users.size());
+			for (Permission level : LEVELS) {
+				BitSet granted = access.levels[level.ordinal()];
+				for (int id = granted.nextSetBit(0); id >= 0; id = granted.nextSetBit(id + 1)) {
+					if (!seen.get(id)) {
+						seen.set(id);
+						builder.put(users.get(id), level);
+					}
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * This method returns all {@link Repository}s the specified {@link User} has access to.
+	 *
+	 * @param user
+	 * 	The {@link User} to look up. This may not be NULL.
+	 *
+	 * @return
+	 * 	An {@link ImmutableMap} of {@link Repository}s, and the effective {@link Permission}
+	 * 	the {@link User} has on them.
+	 */
+	public ImmutableMap<Repository, Permission> getRepositories(User user) {
+		Preconditions.checkNotNull(user);
+
+		ImmutableSortedMap.Builder<Repository, Permission> builder = ImmutableSortedMap.orderedBy(Repository.SORT_BY_NAME);
+		Integer id = userIds.get(user.getName());
+		if (id != null) {
+			for (Access access : repositoryAccess.values()) {
+				Permission permission = getPermission(id, access);
+				if (permission != null) {
+					builder.put(access.repository, permission);
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * This method returns all {@link Group}s the specified {@link User} is a member of,
+	 * either directly or through one of its child {@link Group}s.
+	 *
+	 * @param user
+	 * 	The {@link User} to look up. This may not be NULL.
+	 *
+	 * @return
+	 * 	An {@link ImmutableSet} of {@link Group}s the {@link User} is a member of.
+	 */
+	public ImmutableSet<Group> getGroups(User user) {
+		Preconditions.checkNotNull(user);
+
+		ImmutableSortedSet.Builder<Group> builder = ImmutableSortedSet.orderedBy(Group.SORT_BY_NAME);
+		Integer id = userIds.get(user.getName());
+		if (id != null) {
+			for (Group group : groups) {
+				if (groupMembers.get(group.getName()).get(id)) {
+					builder.add(group);
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * The {@link Access} class holds the {@link User}s who have each {@link Permission} on
+	 * a {@link Repository}, as a {@link BitSet} of {@link User} ids per {@link Permission},
+	 * and the names of the {@link Group}s it grants permissions to.
+	 */
+	private static final class Access {
+
+		private final Repository repository;
+		private final BitSet[] levels;
+		private final ImmutableSet<String> groups;
+
+		private Access(Repository repository, BitSet[] levels, ImmutableSet<String> groups) {
+			this.repository = repository;
+			this.levels = levels;
+			this.groups = groups;
+		}
+
+	}
+
+}
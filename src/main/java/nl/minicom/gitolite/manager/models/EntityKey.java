@@ -0,0 +1,210 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.Serializable;
+
+import nl.minicom.gitolite.manager.exceptions.ModificationException;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The {@link EntityKey} class identifies a part of a {@link Config} which an {@link Operation}
+ * reads or writes. Besides {@link Repository}s, {@link Group}s and {@link User}s, it can identify
+ * a single permission, group membership or SSH key, so that changes to different parts of the 
+ * same entity do not conflict with each other.
+ * 
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public final class EntityKey implements Serializable {
+	
+	private static final long serialVersionUID = 4260397286421305512L;
+
+	/**
+	 * The kinds of parts of a {@link Config} an {@link EntityKey} can identify.
+	 */
+	public enum Type {
+		REPOSITORY	("repository '%s'"),
+		GROUP		("group '%s'"),
+		USER		("user '%s'"),
+		PERMISSION	("permission of '%2$s' on repository '%1$s'"),
+		MEMBERSHIP	("membership of '%2$s' in group '%1$s'"),
+		KEY			("key '%2$s' of user '%1$s'");
+		
+		private final String description;
+		
+		private Type(String description) {
+			this.description = description;
+		}
+	}
+	
+	/**
+	 * @param repoName
+	 * 	The name of the {@link Repository}.
+	 * 
+	 * @return
+	 * 	The {@link EntityKey} of the {@link Repository} with the specified name.
+	 */
+	public static EntityKey repository(String repoName) {
+		return new EntityKey(Type.REPOSITORY, repoName, "");
+	}
+	
+	/**
+	 * @param groupName
+	 * 	The name of the {@link Group}.
+	 * 
+	 * @return
+	 * 	The {@link EntityKey} of the {@link Group} with the specified name.
+	 */
+	public static EntityKey group(String groupName) {
+		return new EntityKey(Type.GROUP, groupName, "");
+	}
+	
+	/**
+	 * @param userName
+	 * 	The name of the {@link User}.
+	 * 
+	 * @return
+	 * 	The {@link EntityKey} of the {@link User} with the specified name.
+	 */
+	public static EntityKey user(String userName) {
+		return new EntityKey(Type.USER, userName, "");
+	}
+	
+	/**
+	 * @param repoName
+	 * 	The name of the {@link Repository}.
+	 * 
+	 * @param name
+	 * 	The name of the {@link User} or {@link Group} which has the permission.
+	 * 
+	 * @return
+	 * 	The {@link EntityKey} of the permissions of a {@link User} or {@link Group} 
+	 * 	on the {@link Repository} with the specified name.
+	 */
+	public static EntityKey permission(String repoName, String name) {
+		return new EntityKey(Type.PERMISSION, repoName, name);
+	}
+	
+	/**
+	 * @param groupName
+	 * 	The name of the {@link Group}.
+	 * 
+	 * @param memberName
+	 * 	The name of the member {@link User} or {@link Group}.
+	 * 
+	 * @return
+	 * 	The {@link EntityKey} of the membership of a {@link User} or {@link Group}
+	 * 	in the {@link Group} with the specified name.
+	 */
+	public static EntityKey membership(String groupName, String memberName) {
+		return new EntityKey(Type.MEMBERSHIP, groupName, memberName);
+	}
+	
+	/**
+	 * @param userName
+	 * 	The name of the {@link User}.
+	 * 
+	 * @param keyName
+	 * 	The name of the SSH key.
+	 * 
+	 * @return
+	 * 	The {@link EntityKey} of the SSH key with the specified name of the {@link User}.
+	 */
+	public static EntityKey key(String userName, String keyName) {
+		return new EntityKey(Type.KEY, userName, keyName);
+	}
+	
+	/**
+	 * @param exception
+	 * 	The {@link ModificationException} which reports a conflicting part of a {@link Config}.
+	 * 
+	 * @return
+	 * 	The {@link EntityKey} of the conflicting part, or NULL if it's unknown.
+	 */
+	public static EntityKey of(ModificationException exception) {
+		if (exception.getEntityType() == null) {
+			return null;
+		}
+		return new EntityKey(Type.valueOf(exception.getEntityType()), exception.getEntityName(), 
+				exception.getEntityPart());
+	}
+	
+	private final Type type;
+	private final String name;
+	private final String part;
+	
+	private EntityKey(Type type, String name, String part) {
+		this.type = Preconditions.checkNotNull(type);
+		this.name = Preconditions.checkNotNull(name);
+		this.part = Preconditions.checkNotNull(part);
+	}
+	
+	/**
+	 * @return
+	 * 	The {@link Type} of the identified part of the {@link Config}.
+	 */
+	public Type getType() {
+		return type;
+	}
+	
+	/**
+	 * @return
+	 * 	The name of the {@link Repository}, {@link Group} or {@link User} which is, 
+	 * 	or which contains the identified part of the {@link Config}.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return
+	 * 	The name of the identified permission holder, member or SSH key, or an empty 
+	 * 	{@link String} if this {@link EntityKey} identifies a {@link Repository}, 
+	 * 	{@link Group} or {@link User}.
+	 */
+	public String getPart() {
+		return part;
+	}
+	
+	/**
+	 * @param cause
+	 * 	The exception which caused the change to fail, or NULL.
+	 * 
+	 * @return
+	 * 	A new {@link ModificationException} which reports the part of the {@link Config} 
+	 * 	identified by this {@link EntityKey} as conflicting.
+	 */
+	ModificationException toException(Throwable cause) {
+		return new ModificationException(type.name(), name, part, cause);
+	}
+	
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder()
+			.append(type)
+			.append(name)
+			.append(part)
+			.toHashCode();
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof EntityKey)) {
+			return false;
+		}
+		EntityKey key = (EntityKey) other;
+		return new EqualsBuilder()
+			.append(type, key.type)
+			.append(name, key.name)
+			.append(part, key.part)
+			.isEquals();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format(type.description, name, part);
+	}
+	
+}
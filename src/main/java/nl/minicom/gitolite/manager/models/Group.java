@@ -1,11 +1,11 @@
 package nl.minicom.gitolite.manager.models;
 
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
-
-import nl.minicom.gitolite.manager.exceptions.ModificationException;
-import nl.minicom.gitolite.manager.models.Recorder.Modification;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -31,6 +31,8 @@ public final class Group implements Identifiable {
 		}
 	};
 	
+	private static final Pattern NAME_PATTERN = Pattern.compile("^\\@\\w[\\w._\\@+-]+$");
+	
 	private final String name;
 	private final Recorder recorder;
 	private final SortedSet<Group> groups;
@@ -56,16 +58,118 @@ public final class Group implements Identifiable {
 	 * 	The {@link Recorder} to use when recording changes of this {@link Group}. 
 	 */
 	Group(String name, Recorder recorder) {
-		Preconditions.checkNotNull(name);
-		Preconditions.checkArgument(!name.isEmpty());
-		Preconditions.checkArgument(name.matches("^\\@\\w[\\w._\\@+-]+$"), "\"" + name + "\" is not a valid group name");
-		Preconditions.checkNotNull(recorder);
+		this(name, recorder, true);
+	}
+	
+	/**
+	 * Constructs a new {@link Group} object with the specified name.
+	 * 
+	 * @param name
+	 * 	The name of the group.
+	 * 
+	 * @param recorder
+	 * 	The {@link Recorder} to use when recording changes of this {@link Group}.
+	 * 
+	 * @param validate
+	 * 	False if the name has already been validated with {@link Group#validateName(String)}.
+	 */
+	Group(String name, Recorder recorder, boolean validate) {
+		if (validate) {
+			validateName(name);
+			Preconditions.checkNotNull(recorder);
+		}
 		
 		this.name = name;
 		this.recorder = recorder;
 		this.groups = Sets.newTreeSet(Group.SORT_BY_NAME);
 		this.users = Sets.newTreeSet(User.SORT_BY_NAME);
 	}
+	
+	/**
+	 * This method validates the name of a {@link Group}.
+	 * 
+	 * @param name
+	 * 	The name to validate.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 	If the name is empty, or not a valid group name.
+	 */
+	static void validateName(String name) {
+		Preconditions.checkNotNull(name);
+		Preconditions.checkArgument(!name.isEmpty());
+		Preconditions.checkArgument(NAME_PATTERN.matcher(name).matches(), "\"" + name + "\" is not a valid group name");
+	}
+	
+	/**
+	 * This method creates an empty copy of this {@link Group} which uses the specified 
+	 * {@link Recorder}. The name is not validated again. Use 
+	 * {@link Group#copyMembers(Group, Map, Map)} to copy the members afterwards.
+	 * 
+	 * @param recorder
+	 * 	The {@link Recorder} to use when recording changes of the copy.
+	 * 
+	 * @return
+	 * 	The created copy of this {@link Group}.
+	 */
+	Group copy(Recorder recorder) {
+		return new Group(name, recorder, false);
+	}
+	
+	/**
+	 * This method copies all members of the specified {@link Group} to this {@link Group},
+	 * without recording these changes or checking for cycles.
+	 * 
+	 * @param source
+	 * 	The {@link Group} to copy the members of.
+	 * 
+	 * @param userIndex
+	 * 	The {@link User}s to use as members, indexed by name.
+	 * 
+	 * @param groupIndex
+	 * 	The {@link Group}s to use as members, indexed by name.
+	 */
+	void copyMembers(Group source, Map<String, User> userIndex, Map<String, Group> groupIndex) {
+		synchronized (source.users) {
+			synchronized (users) {
+				for (User user : source.users) {
+					users.add(userIndex.get(user.getName()));
+				}
+			}
+		}
+		synchronized (source.groups) {
+			synchronized (groups) {
+				for (Group group : source.groups) {
+					groups.add(groupIndex.get(group.getName()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method adds the specified {@link User}s to this {@link Group}, without recording
+	 * this change or logging how it can be undone.
+	 * 
+	 * @param added
+	 * 	The {@link User}s to add, which may not be members of this {@link Group} yet.
+	 */
+	void addUsers(Collection<User> added) {
+		synchronized (users) {
+			users.addAll(added);
+		}
+	}
+	
+	/**
+	 * This method removes the specified {@link User}s from this {@link Group}, without 
+	 * recording this change or logging how it can be undone.
+	 * 
+	 * @param removed
+	 * 	The {@link User}s to remove.
+	 */
+	void removeUsers(Collection<User> removed) {
+		synchronized (users) {
+			users.removeAll(removed);
+		}
+	}
 
 	/**
 	 * @return
@@ -84,7 +188,8 @@ public final class Group implements Identifiable {
 	 * 	In case the {@link User} is already a member of this group an 
 	 * 	{@link IllegalArgumentException} is thrown.
 	 */
-	public void add(User user) {
+	public void add(final User user) {
+		recorder.checkNotFrozen();
 		Preconditions.checkArgument(!isAllGroup());
 		Preconditions.checkNotNull(user);
 		
@@ -94,16 +199,17 @@ public final class Group implements Identifiable {
 			}
 			users.add(user);
 		}
-
-		final String childName = user.getName();
-		recorder.append(new Modification("Adding user: '%s' to group: '%s'", childName, getName()) {
+		recorder.logUndo(new Recorder.Undo() {
 			@Override
-			public void apply(Config config) throws ModificationException {
-				Group parent = config.getGroup(getName());
-				User child = config.getUser(childName);
-				parent.add(child);
+			public void undo() {
+				synchronized (users) {
+					users.remove(user);
+				}
 			}
 		});
+
+		final String childName = user.getName();
+		recorder.append(Operation.Type.ADD_USER_TO_GROUP, getName(), childName);
 	}
 
 	/**
@@ -114,7 +220,8 @@ public final class Group implements Identifiable {
 	 * 	In case the {@link User} is not a member of this group an 
 	 * 	{@link IllegalArgumentException} is thrown.
 	 */
-	public void remove(User user) {
+	public void remove(final User user) {
+		recorder.checkNotFrozen();
 		Preconditions.checkArgument(!isAllGroup());
 		Preconditions.checkNotNull(user);
 		
@@ -124,16 +231,17 @@ public final class Group implements Identifiable {
 			}
 			users.remove(user);
 		}
-
-		final String childName = user.getName();
-		recorder.append(new Modification("Removing user: '%s' from group: '%s'", childName, getName()) {
+		recorder.logUndo(new Recorder.Undo() {
 			@Override
-			public void apply(Config config) throws ModificationException {
-				Group parent = config.getGroup(getName());
-				User child = config.getUser(childName);
-				parent.remove(child);
+			public void undo() {
+				synchronized (users) {
+					users.add(user);
+				}
 			}
 		});
+
+		final String childName = user.getName();
+		recorder.append(Operation.Type.REMOVE_USER_FROM_GROUP, getName(), childName);
 	}
 
 	/**
@@ -144,7 +252,8 @@ public final class Group implements Identifiable {
 	 * 	In case the {@link Group} is already a member of this group an 
 	 * 	{@link IllegalArgumentException} is thrown.
 	 */
-	public void add(Group group) {
+	public void add(final Group group) {
+		recorder.checkNotFrozen();
 		Preconditions.checkArgument(!isAllGroup());
 		Preconditions.checkNotNull(group);
 		
@@ -161,16 +270,17 @@ public final class Group implements Identifiable {
 				throw new IllegalArgumentException("Cannot add group: '" + group.getName() + "'. This would create a cycle!");
 			}
 		}
-
-		final String groupName = group.getName();
-		recorder.append(new Modification("Adding group: '%s' to group: '%s'", groupName, getName()) {
+		recorder.logUndo(new Recorder.Undo() {
 			@Override
-			public void apply(Config config) throws ModificationException {
-				Group parent = config.getGroup(getName());
-				Group child = config.getGroup(groupName);
-				parent.add(child);
+			public void undo() {
+				synchronized (groups) {
+					groups.remove(group);
+				}
 			}
 		});
+
+		final String groupName = group.getName();
+		recorder.append(Operation.Type.ADD_GROUP_TO_GROUP, getName(), groupName);
 	}
 
 	/**
@@ -181,7 +291,8 @@ public final class Group implements Identifiable {
 	 * 	In case the {@link Group} is already a member of this group an 
 	 * 	{@link IllegalArgumentException} is thrown.
 	 */
-	public void remove(Group group) {
+	public void remove(final Group group) {
+		recorder.checkNotFrozen();
 		Preconditions.checkArgument(!isAllGroup());
 		Preconditions.checkNotNull(group);
 		
@@ -191,16 +302,17 @@ public final class Group implements Identifiable {
 			}
 			groups.remove(group);
 		}
-
-		final String groupName = group.getName();
-		recorder.append(new Modification("Removing group: '%s' from group: '%s'", groupName, getName()) {
+		recorder.logUndo(new Recorder.Undo() {
 			@Override
-			public void apply(Config config) throws ModificationException {
-				Group parent = config.getGroup(getName());
-				Group child = config.getGroup(groupName);
-				parent.remove(child);
+			public void undo() {
+				synchronized (groups) {
+					groups.add(group);
+				}
 			}
 		});
+
+		final String groupName = group.getName();
+		recorder.append(Operation.Type.REMOVE_GROUP_FROM_GROUP, getName(), groupName);
 	}
 
 	/**
@@ -230,13 +342,16 @@ public final class Group implements Identifiable {
 	 */
 	public boolean containsGroup(Group group) {
 		Preconditions.checkNotNull(group);
-		if (getGroups().contains(group)) {
-			return true;
-		}
-		for (Group child : getGroups()) {
-			if (child.containsGroup(group)) {
+		
+		List<Group> toVisit = Lists.newArrayList(getGroups());
+		while (!toVisit.isEmpty()) {
+			Group visiting = toVisit.remove(toVisit.size() - 1);
+			if (visiting.equals(group)) {
 				return true;
 			}
+			synchronized (visiting.groups) {
+				toVisit.addAll(visiting.groups);
+			}
 		}
 		return false;
 	}
@@ -246,6 +361,9 @@ public final class Group implements Identifiable {
 	 * 	An {@link ImmutableSet} of child {@link Group}s of this {@link Group}.
 	 */
 	public ImmutableSet<Group> getGroups() {
+		if (recorder.isFrozen()) {
+			return ImmutableSortedSet.copyOf(SORT_BY_NAME, groups);
+		}
 		synchronized (groups) {
 			return ImmutableSortedSet.copyOf(SORT_BY_NAME, groups);
 		}
@@ -256,6 +374,9 @@ public final class Group implements Identifiable {
 	 * 	An {@link ImmutableSet} of child {@link User}s of this {@link Group}.
 	 */
 	public ImmutableSet<User> getUsers() {
+		if (recorder.isFrozen()) {
+			return ImmutableSortedSet.copyOf(User.SORT_BY_NAME, users);
+		}
 		synchronized (users) {
 			return ImmutableSortedSet.copyOf(User.SORT_BY_NAME, users);
 		}
@@ -276,7 +397,29 @@ public final class Group implements Identifiable {
 		return builder.build();
 	}
 	
-	private boolean isAllGroup() {
+	/**
+	 * @return
+	 * 	The {@link SortedSet} of child {@link Group}s of this {@link Group}. This is not
+	 * 	a copy, so it may only be read while synchronizing on it.
+	 */
+	SortedSet<Group> getGroupMembers() {
+		return groups;
+	}
+	
+	/**
+	 * @return
+	 * 	The {@link SortedSet} of child {@link User}s of this {@link Group}. This is not
+	 * 	a copy, so it may only be read while synchronizing on it.
+	 */
+	SortedSet<User> getUserMembers() {
+		return users;
+	}
+	
+	/**
+	 * @return
+	 * 	True if this is the "@all" {@link Group}, which implicitly contains every {@link User}.
+	 */
+	boolean isAllGroup() {
 		return name.equals("@all");
 	}
 
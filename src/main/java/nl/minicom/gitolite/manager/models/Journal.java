@@ -0,0 +1,437 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * The {@link Journal} class is an append-only log of changesets, which are accepted by a
+ * {@link ConfigManager} but not yet pushed. A changeset is appended as a single record,
+ * consisting of its length, a CRC32 checksum, and the {@link Operation.Type} and arguments
+ * of each of its {@link Operation}s. When a changeset has been pushed or rejected, a record
+ * marking it as completed is appended. Records are appended to segment files, which are 
+ * named after the sequence number of their first record. A new segment is started when the
+ * current one exceeds the maximum segment size. The journal is truncated by removing the 
+ * oldest segments, as soon as all of their changesets have completed.
+ *
+ * Appending only writes to the operating system. {@link Journal#sync(long)} flushes the
+ * current segment to disk, which makes every record appended so far durable at once.
+ * Flushing doesn't block appending, so when several threads append and sync concurrently,
+ * the records appended during one flush are all made durable by the next one, and most 
+ * threads find their record already flushed by another one.
+ *
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+final class Journal implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(Journal.class);
+
+	private static final String SEGMENT_SUFFIX = ".journal";
+	private static final int HEADER_SIZE = 8;
+	private static final byte CHANGESET_RECORD = 0;
+	private static final byte COMPLETION_RECORD = 1;
+
+	private final File directory;
+	private final long maximumSegmentSize;
+
+	/**
+	 * The number of changesets which have not completed yet, per segment.
+	 */
+	private final NavigableMap<Long, Integer> outstanding = Maps.newTreeMap();
+
+	/**
+	 * Held while flushing a segment to disk, so only one thread flushes at a time.
+	 */
+	private final Object flushLock = new Object();
+
+	private FileChannel segment;
+	private long segmentStart;
+	private long segmentSize;
+	private long lastSequence;
+	private long synced;
+
+	/**
+	 * Constructs a new {@link Journal} object.
+	 *
+	 * @param directory
+	 * 	The directory in which the segment files are stored. It's created if it doesn't exist.
+	 *
+	 * @param maximumSegmentSize
+	 * 	The size in bytes after which a new segment file is started.
+	 */
+	Journal(File directory, long maximumSegmentSize) {
+		Preconditions.checkNotNull(directory);
+		Preconditions.checkArgument(maximumSegmentSize > 0);
+
+		this.directory = directory;
+		this.maximumSegmentSize = maximumSegmentSize;
+	}
+
+	/**
+	 * This method reads all changesets which are still in the journal, and starts a new
+	 * segment for the changesets which are appended from now on. Reading a segment stops
+	 * at the first record which is incomplete or has an invalid checksum, since that's
+	 * where the previous process stopped writing.
+	 *
+	 * @return
+	 * 	The changesets which have not completed yet, in the order they were appended. They
+	 * 	remain in the journal until they're completed.
+	 *
+	 * @throws IOException
+	 * 	If the journal could not be read, or the new segment could not be created.
+	 */
+	synchronized List<Entry> open() throws IOException {
+		Preconditions.checkState(segment == null, "The journal has already been opened");
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create journal directory: " + directory);
+		}
+
+		File[] files = directory.listFiles();
+		Arrays.sort(files);
+
+		Map<Long, Entry> entries = Maps.newLinkedHashMap();
+		Set<Long> completed = Sets.newHashSet();
+		for (File file : files) {
+			if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+				long start = getSegmentStart(file);
+				outstanding.put(start, 0);
+				readSegment(file, entries, completed);
+				lastSequence = Math.max(lastSequence, start);
+			}
+		}
+
+		entries.keySet().removeAll(completed);
+		for (Long sequence : entries.keySet()) {
+			Map.Entry<Long, Integer> segmentEntry = outstanding.floorEntry(sequence);
+			outstanding.put(segmentEntry.getKey(), segmentEntry.getValue() + 1);
+			lastSequence = Math.max(lastSequence, sequence);
+		}
+		for (Long sequence : completed) {
+			lastSequence = Math.max(lastSequence, sequence);
+		}
+
+		if (!entries.isEmpty()) {
+			log.info("Found {} changeset(s) in journal: {}", entries.size(), directory);
+		}
+		synced = lastSequence;
+		truncate();
+		startSegment();
+		return Lists.newArrayList(entries.values());
+	}
+
+	/**
+	 * This method appends a changeset to the journal. It's not durable until
+	 * {@link Journal#sync(long)} has been called with the returned sequence number.
+	 *
+	 * @param changeset
+	 * 	The {@link Operation}s of the changeset.
+	 *
+	 * @return
+	 * 	The sequence number of the changeset.
+	 *
+	 * @throws IOException
+	 * 	If the changeset could not be written.
+	 */
+	synchronized long append(List<Operation> changeset) throws IOException {
+		Preconditions.checkState(segment != null, "The journal has not been opened");
+
+		if (segmentSize >= maximumSegmentSize && lastSequence >= segmentStart) {
+			segment.force(false);
+			segment.close();
+			synced = lastSequence;
+			startSegment();
+			truncate();
+		}
+
+		long sequence = lastSequence + 1;
+		write(encode(sequence, changeset));
+		lastSequence = sequence;
+		outstanding.put(segmentStart, outstanding.get(segmentStart) + 1);
+		return sequence;
+	}
+
+	/**
+	 * This method ensures that the changeset with the specified sequence number, and all
+	 * changesets appended before it, have been flushed to disk.
+	 *
+	 * @param sequence
+	 * 	The sequence number of the changeset.
+	 *
+	 * @throws IOException
+	 * 	If the journal could not be flushed to disk.
+	 */
+	void sync(long sequence) throws IOException {
+		synchronized (flushLock) {
+			FileChannel channel;
+			long flushed;
+			synchronized (this) {
+				if (synced >= sequence) {
+					return;
+				}
+				channel = segment;
+				flushed = lastSequence;
+			}
+
+			try {
+				channel.force(false);
+			}
+			catch (ClosedChannelException e) {
+				// A new segment has been started, which flushed the old one before closing it.
+				synchronized (this) {
+					if (synced >= sequence) {
+						return;
+					}
+				}
+				throw e;
+			}
+
+			synchronized (this) {
+				synced = Math.max(synced, flushed);
+			}
+		}
+	}
+
+	/**
+	 * This method marks the changeset with the specified sequence number as completed,
+	 * because it has been pushed or rejected, so it's not returned by {@link Journal#open()}
+	 * again. The mark is flushed to disk along with the next changeset which is synced.
+	 *
+	 * @param sequence
+	 * 	The sequence number of the changeset.
+	 */
+	synchronized void complete(long sequence) {
+		Map.Entry<Long, Integer> entry = outstanding.floorEntry(sequence);
+		if (entry == null) {
+			return;
+		}
+		outstanding.put(entry.getKey(), entry.getValue() - 1);
+
+		if (segment != null) {
+			try {
+				write(encode(sequence));
+			}
+			catch (IOException e) {
+				log.warn("Could not mark changeset: {} as completed in the journal", sequence, e);
+			}
+		}
+		truncate();
+	}
+
+	/**
+	 * This method closes the current segment. Changesets which have not completed
+	 * remain in the journal.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (segment == null) {
+			return;
+		}
+
+		segment.close();
+		segment = null;
+		truncate();
+	}
+
+	/**
+	 * Removes the oldest segments, as long as all of their changesets have completed. Since
+	 * a segment only marks changesets in itself or older segments as completed, the marks
+	 * are never removed before the changesets they refer to. The current segment is only 
+	 * removed once it has been closed.
+	 */
+	private void truncate() {
+		while (!outstanding.isEmpty()) {
+			Map.Entry<Long, Integer> oldest = outstanding.firstEntry();
+			if (oldest.getValue() > 0 || (segment != null && oldest.getKey() == segmentStart)) {
+				break;
+			}
+			removeSegment(oldest.getKey());
+		}
+	}
+
+	private void write(ByteBuffer record) throws IOException {
+		int size = record.remaining();
+		while (record.hasRemaining()) {
+			segment.write(record);
+		}
+		segmentSize += size;
+	}
+
+	private void startSegment() throws IOException {
+		segmentStart = lastSequence + 1;
+		segmentSize = 0;
+		segment = FileChannel.open(getSegmentFile(segmentStart).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		outstanding.put(segmentStart, 0);
+		KeyWriter.syncDirectory(directory.toPath());
+	}
+
+	private void removeSegment(long start) {
+		outstanding.remove(start);
+		try {
+			Files.deleteIfExists(getSegmentFile(start).toPath());
+		}
+		catch (IOException e) {
+			log.warn("Could not remove completed journal segment: {}", getSegmentFile(start), e);
+		}
+	}
+
+	private File getSegmentFile(long start) {
+		return new File(directory, String.format("%016x", start) + SEGMENT_SUFFIX);
+	}
+
+	private static long getSegmentStart(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+	}
+
+	private static ByteBuffer encode(long sequence, List<Operation> changeset) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeLong(0);
+		output.writeByte(CHANGESET_RECORD);
+		output.writeLong(sequence);
+		output.writeInt(changeset.size());
+		for (Operation operation : changeset) {
+			output.writeUTF(operation.getType().name());
+			output.writeInt(operation.getArguments().size());
+			for (String argument : operation.getArguments()) {
+				byte[] encoded = argument.getBytes(Charsets.UTF_8);
+				output.writeInt(encoded.length);
+				output.write(encoded);
+			}
+		}
+		output.flush();
+		return seal(bytes.toByteArray());
+	}
+
+	private static ByteBuffer encode(long completedSequence) {
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 9);
+		record.position(HEADER_SIZE);
+		record.put(COMPLETION_RECORD);
+		record.putLong(completedSequence);
+		return seal(record.array());
+	}
+
+	/**
+	 * Fills in the length and checksum of a record, whose header has been left blank.
+	 */
+	private static ByteBuffer seal(byte[] bytes) {
+		ByteBuffer record = ByteBuffer.wrap(bytes);
+		CRC32 checksum = new CRC32();
+		checksum.update(record.array(), HEADER_SIZE, record.limit() - HEADER_SIZE);
+		record.putInt(0, record.limit() - HEADER_SIZE);
+		record.putInt(4, (int) checksum.getValue());
+		return record;
+	}
+
+	/**
+	 * Reads the changesets of a segment into the specified {@link Map}, and the sequence 
+	 * numbers of the changesets it marks as completed into the specified {@link Set}.
+	 */
+	private static void readSegment(File file, Map<Long, Entry> entries, Set<Long> completed) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		while (buffer.remaining() >= HEADER_SIZE) {
+			int length = buffer.getInt();
+			int expected = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				log.warn("Journal segment: {} ends with an incomplete record", file);
+				break;
+			}
+
+			CRC32 checksum = new CRC32();
+			checksum.update(buffer.array(), buffer.position(), length);
+			if ((int) checksum.getValue() != expected) {
+				log.warn("Journal segment: {} contains a record with an invalid checksum", file);
+				break;
+			}
+
+			ByteBuffer payload = buffer.slice();
+			payload.limit(length);
+			buffer.position(buffer.position() + length);
+			if (payload.get() == COMPLETION_RECORD) {
+				completed.add(payload.getLong());
+			}
+			else {
+				Entry entry = decode(payload);
+				entries.put(entry.getSequence(), entry);
+			}
+		}
+	}
+
+	private static Entry decode(ByteBuffer payload) throws IOException {
+		try {
+			long sequence = payload.getLong();
+			int count = payload.getInt();
+			ImmutableList.Builder<Operation> changeset = ImmutableList.builder();
+			for (int i = 0; i < count; i++) {
+				Operation.Type type = Operation.Type.valueOf(readString(payload, payload.getShort() & 0xFFFF));
+				int argumentCount = payload.getInt();
+				List<String> arguments = Lists.newArrayListWithCapacity(argumentCount);
+				for (int j = 0; j < argumentCount; j++) {
+					arguments.add(readString(payload, payload.getInt()));
+				}
+				changeset.add(new Operation(type, arguments));
+			}
+			return new Entry(sequence, changeset.build());
+		}
+		catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("The journal contains a record which cannot be decoded", e);
+		}
+	}
+
+	private static String readString(ByteBuffer payload, int length) {
+		byte[] encoded = new byte[length];
+		payload.get(encoded);
+		return new String(encoded, Charsets.UTF_8);
+	}
+
+	/**
+	 * The {@link Entry} class is a data object, which holds a changeset read from the
+	 * {@link Journal}, and its sequence number.
+	 */
+	static final class Entry {
+
+		private final long sequence;
+		private final ImmutableList<Operation> changeset;
+
+		Entry(long sequence, ImmutableList<Operation> changeset) {
+			this.sequence = sequence;
+			this.changeset = changeset;
+		}
+
+		long getSequence() {
+			return sequence;
+		}
+
+		ImmutableList<Operation> getChangeset() {
+			return changeset;
+		}
+
+	}
+
+}
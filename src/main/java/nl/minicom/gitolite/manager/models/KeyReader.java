@@ -2,12 +2,21 @@ package nl.minicom.gitolite.manager.models;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
-
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * This class contains a method to read all SSH keys from a specific directory
@@ -19,7 +28,8 @@ public final class KeyReader {
 
 	/**
 	 * This method reads all SSH keys from the specified key directory, and registers them
-	 * with the specified {@link Config} object.
+	 * with the specified {@link Config} object. The key files are read concurrently, using
+	 * as many threads as there are available processors.
 	 * 
 	 * @param config
 	 * 	The {@link Config} to register the keys with.
@@ -31,34 +41,148 @@ public final class KeyReader {
 	 * 	If there were problems when reading the key directory.
 	 */
 	public static void readKeys(Config config, File keyDir) throws IOException {
+		readKeys(config, keyDir, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * This method reads all SSH keys from the specified key directory, and registers them
+	 * with the specified {@link Config} object. The key files are read concurrently, and
+	 * once all of them have been read, the keys are registered in one go.
+	 * 
+	 * @param config
+	 * 	The {@link Config} to register the keys with.
+	 * 
+	 * @param keyDir
+	 * 	The directory where all the SSH keys are registered.
+	 * 
+	 * @param parallelism
+	 * 	The maximum number of key files which are read at the same time. This must be a
+	 * 	positive number. If it's 1, the key files are read on the calling thread.
+	 * 
+	 * @throws IOException
+	 * 	If there were problems when reading the key directory.
+	 */
+	public static void readKeys(Config config, File keyDir, int parallelism) throws IOException {
 		Preconditions.checkNotNull(config);
 		Preconditions.checkNotNull(keyDir);
 		Preconditions.checkArgument(keyDir.isDirectory(), "The argument 'keyDir' must be a directory!");
+		Preconditions.checkArgument(parallelism > 0);
+		
+		final List<Path> keyFiles = Lists.newArrayList();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(keyDir.toPath(), "*.pub")) {
+			for (Path keyFile : stream) {
+				keyFiles.add(keyFile);
+			}
+		}
 		
-		File[] files = keyDir.listFiles(new FilenameFilter() {
+		final String[] contents = new String[keyFiles.size()];
+		Parallel.forEachIndex(contents.length, parallelism, new Parallel.Task() {
 			@Override
-			public boolean accept(File arg0, String arg1) {
-				return arg1.endsWith(".pub");
+			public void run(int index) throws IOException {
+				byte[] bytes = Files.readAllBytes(keyFiles.get(index));
+				contents[index] = readKeyFile(new StringReader(new String(bytes, Charsets.UTF_8)));
 			}
 		});
 		
-		for (File keyFile : files) {
-			String fileName = keyFile.getName();
-			if (!fileName.contains("@")) {
-				fileName = fileName.replace(".pub", "@.pub");
+		Map<String, String> parsed = Maps.newHashMapWithExpectedSize(contents.length);
+		for (int i = 0; i < contents.length; i++) {
+			parsed.put(keyFiles.get(i).getFileName().toString(), contents[i]);
+		}
+		registerParsedKeys(config, parsed);
+	}
+
+	/**
+	 * This method parses all SSH keys from the specified key files, and registers them
+	 * with the specified {@link Config} object. Files which are not SSH key files are ignored.
+	 * The keys of each {@link User} are registered in one go.
+	 * 
+	 * @param config
+	 * 	The {@link Config} to register the keys with.
+	 * 
+	 * @param keyFiles
+	 * 	A {@link Map} of file names to the contents of the key files.
+	 * 
+	 * @throws IOException
+	 * 	If there were problems when reading the key files.
+	 */
+	public static void registerKeys(Config config, Map<String, String> keyFiles) throws IOException {
+		Preconditions.checkNotNull(config);
+		Preconditions.checkNotNull(keyFiles);
+		
+		Map<String, String> parsed = Maps.newHashMapWithExpectedSize(keyFiles.size());
+		for (Entry<String, String> keyFile : keyFiles.entrySet()) {
+			if (keyFile.getKey().endsWith(".pub")) {
+				parsed.put(keyFile.getKey(), readKeyFile(new StringReader(keyFile.getValue())));
 			}
-			
-			int indexOfAt = fileName.indexOf('@');
-			String userName = fileName.substring(0, indexOfAt);
-			String keyName = fileName.substring(indexOfAt + 1, fileName.indexOf(".pub"));
-			String content = readKeyFile(keyFile);
-			
-			config.ensureUserExists(userName).setKey(keyName, content);
 		}
+		registerParsedKeys(config, parsed);
+	}
+	
+	/**
+	 * This method removes the SSH keys of the specified key files, which no longer exist,
+	 * from the specified {@link Config} object.
+	 * 
+	 * @param config
+	 * 	The {@link Config} to remove the keys from.
+	 * 
+	 * @param keyFileNames
+	 * 	The names of the removed key files.
+	 */
+	public static void unregisterKeys(Config config, Collection<String> keyFileNames) {
+		Preconditions.checkNotNull(config);
+		Preconditions.checkNotNull(keyFileNames);
+		
+		for (String fileName : keyFileNames) {
+			if (fileName.endsWith(".pub")) {
+				String[] names = parseKeyFileName(fileName);
+				User user = config.getUser(names[0]);
+				if (user != null) {
+					user.removeKey(names[1]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Groups the keys of the specified key files by {@link User}, and sets the keys of 
+	 * each {@link User} at once.
+	 * 
+	 * @param keyFiles
+	 * 	A {@link Map} of file names to the parsed keys of the key files.
+	 */
+	private static void registerParsedKeys(Config config, Map<String, String> keyFiles) {
+		Map<String, Map<String, String>> keys = Maps.newTreeMap();
+		for (Entry<String, String> keyFile : keyFiles.entrySet()) {
+			String[] names = parseKeyFileName(keyFile.getKey());
+			Map<String, String> userKeys = keys.get(names[0]);
+			if (userKeys == null) {
+				userKeys = Maps.newTreeMap();
+				keys.put(names[0], userKeys);
+			}
+			userKeys.put(names[1], keyFile.getValue());
+		}
+		
+		for (Entry<String, Map<String, String>> userKeys : keys.entrySet()) {
+			config.ensureUserExists(userKeys.getKey()).setKeys(userKeys.getValue());
+		}
+	}
+	
+	/**
+	 * @return The name of the user, and the name of the key the key file belongs to.
+	 */
+	private static String[] parseKeyFileName(String fileName) {
+		if (!fileName.contains("@")) {
+			fileName = fileName.replace(".pub", "@.pub");
+		}
+		
+		int indexOfAt = fileName.indexOf('@');
+		String userName = fileName.substring(0, indexOfAt);
+		String keyName = fileName.substring(indexOfAt + 1, fileName.indexOf(".pub"));
+		return new String[] { userName, keyName };
 	}
 
-	private static String readKeyFile(File keyFile) throws IOException {
-		BufferedReader reader = new BufferedReader(new FileReader(keyFile));
+	private static String readKeyFile(Reader keyFile) throws IOException {
+		BufferedReader reader = new BufferedReader(keyFile);
 		StringBuilder builder = new StringBuilder();
 		
 		try {
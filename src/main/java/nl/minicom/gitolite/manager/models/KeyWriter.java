@@ -1,15 +1,30 @@
 package nl.minicom.gitolite.manager.models;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import nl.minicom.gitolite.manager.git.Durability;
 
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -19,6 +34,8 @@ import com.google.common.collect.Sets;
  * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
  */
 public final class KeyWriter {
+	
+	private static final Logger log = LoggerFactory.getLogger(KeyWriter.class);
 
 	/**
 	 * This method writes all SSH keys currently present in the provided {@link Config} object
@@ -37,45 +54,248 @@ public final class KeyWriter {
 	 * 	If a problem occurred when writing the SSH key files.
 	 */
 	public static Set<File> writeKeys(Config config, File keyDir) throws IOException {
+		return writeKeys(config, keyDir, Durability.NONE);
+	}
+
+	/**
+	 * This method writes all SSH keys currently present in the provided {@link Config} object
+	 * to the specified key directory. Existing keys are not removed, but may be overwritten.
+	 * The key files are written concurrently to temporary files, which are moved into the
+	 * key directory once all of them have been written.
+	 * 
+	 * @param config
+	 * 	The {@link Config} object, containing all the SSH keys. This cannot be NULL.
+	 * 
+	 * @param keyDir
+	 * 	The directory where all the keys should be stored. This cannot be NULL.
+	 * 
+	 * @param durability
+	 * 	The {@link Durability} of the written key files. This cannot be NULL.
+	 * 
+	 * @return
+	 * 	A {@link Set} of {@link File} handles of all written SSH key files.
+	 * 
+	 * @throws IOException
+	 * 	If a problem occurred when writing the SSH key files.
+	 */
+	public static Set<File> writeKeys(Config config, File keyDir, Durability durability) throws IOException {
 		Preconditions.checkNotNull(config);
 		Preconditions.checkNotNull(keyDir);
 		Preconditions.checkArgument(keyDir.isDirectory(), "The argument 'keyDir' must be a directory!");
+		Preconditions.checkNotNull(durability);
 	
-		Set<File> keysWritten = Sets.newHashSet();
+		Map<String, String> keyFiles = Maps.newTreeMap();
 		for (User user : config.getUsers()) {
 			for (Entry<String, String> keyEntry : user.getKeys().entrySet()) {
-				String userName = user.getName();
+				keyFiles.put(getKeyFileName(user.getName(), keyEntry.getKey()), keyEntry.getValue());
+			}
+		}
+		
+		return createKeyFiles(keyDir, keyFiles, durability);
+	}
+
+	/**
+	 * This method writes the SSH keys present in the provided {@link Config} object, which 
+	 * are not present in the previous {@link Config} object, or have different contents, to 
+	 * the specified key directory. Keys which were removed are not deleted.
+	 * 
+	 * @param config
+	 * 	The {@link Config} object, containing all the SSH keys. This cannot be NULL.
+	 * 
+	 * @param previous
+	 * 	The {@link Config} object which was previously written to the key directory. This cannot be NULL.
+	 * 
+	 * @param keyDir
+	 * 	The directory where all the keys should be stored. This cannot be NULL.
+	 * 
+	 * @return
+	 * 	A {@link Set} of {@link File} handles of all written SSH key files.
+	 * 
+	 * @throws IOException
+	 * 	If a problem occurred when writing the SSH key files.
+	 */
+	public static Set<File> writeKeys(Config config, Config previous, File keyDir) throws IOException {
+		return writeKeys(config, previous, keyDir, Durability.NONE);
+	}
+
+	/**
+	 * This method writes the SSH keys present in the provided {@link Config} object, which 
+	 * are not present in the previous {@link Config} object, or have different contents, to 
+	 * the specified key directory. Keys which were removed are not deleted. The key files are
+	 * written concurrently to temporary files, which are moved into the key directory once 
+	 * all of them have been written.
+	 * 
+	 * @param config
+	 * 	The {@link Config} object, containing all the SSH keys. This cannot be NULL.
+	 * 
+	 * @param previous
+	 * 	The {@link Config} object which was previously written to the key directory. This cannot be NULL.
+	 * 
+	 * @param keyDir
+	 * 	The directory where all the keys should be stored. This cannot be NULL.
+	 * 
+	 * @param durability
+	 * 	The {@link Durability} of the written key files. This cannot be NULL.
+	 * 
+	 * @return
+	 * 	A {@link Set} of {@link File} handles of all written SSH key files.
+	 * 
+	 * @throws IOException
+	 * 	If a problem occurred when writing the SSH key files.
+	 */
+	public static Set<File> writeKeys(Config config, Config previous, File keyDir, Durability durability) 
+			throws IOException {
+		
+		Preconditions.checkNotNull(config);
+		Preconditions.checkNotNull(previous);
+		Preconditions.checkNotNull(keyDir);
+		Preconditions.checkArgument(keyDir.isDirectory(), "The argument 'keyDir' must be a directory!");
+		Preconditions.checkNotNull(durability);
+		
+		return createKeyFiles(keyDir, getChangedKeyFiles(config, previous), durability);
+	}
+	
+	/**
+	 * This method determines which SSH keys present in the provided {@link Config} object
+	 * are not present in the previous {@link Config} object, or have different contents.
+	 * 
+	 * @param config
+	 * 	The {@link Config} object, containing all the SSH keys. This cannot be NULL.
+	 * 
+	 * @param previous
+	 * 	The {@link Config} object to compare with. This cannot be NULL.
+	 * 
+	 * @return
+	 * 	A {@link Map} of file names, relative to the key directory, to the contents 
+	 * 	of the key files which need to be written.
+	 */
+	public static Map<String, String> getChangedKeyFiles(Config config, Config previous) {
+		Preconditions.checkNotNull(config);
+		Preconditions.checkNotNull(previous);
+		
+		Map<String, String> changed = Maps.newTreeMap();
+		for (User user : config.getUsers()) {
+			User existing = previous.getUser(user.getName());
+			Map<String, String> previousKeys = existing == null ? ImmutableMap.<String, String>of() : existing.getKeys();
+			
+			for (Entry<String, String> keyEntry : user.getKeys().entrySet()) {
 				String keyName = keyEntry.getKey();
 				String keyContent = keyEntry.getValue();
 				
-				keysWritten.add(createKeyFile(keyDir, userName, keyName, keyContent));
+				if (!keyContent.equals(previousKeys.get(keyName))) {
+					changed.put(getKeyFileName(user.getName(), keyName), keyContent);
+				}
 			}
 		}
 		
-		return keysWritten;
+		return changed;
+	}
+	
+	/**
+	 * This method lists the names of all SSH key files which represent the keys
+	 * present in the provided {@link Config} object.
+	 * 
+	 * @param config
+	 * 	The {@link Config} object, containing all the SSH keys. This cannot be NULL.
+	 * 
+	 * @return
+	 * 	A {@link Set} of file names, relative to the key directory.
+	 */
+	public static Set<String> listKeyFiles(Config config) {
+		Preconditions.checkNotNull(config);
+		
+		Set<String> fileNames = Sets.newHashSet();
+		for (User user : config.getUsers()) {
+			for (String keyName : user.getKeys().keySet()) {
+				fileNames.add(getKeyFileName(user.getName(), keyName));
+			}
+		}
+		return fileNames;
 	}
 
-	private static File createKeyFile(File keyDir, String userName, String name, String content) throws IOException {
+	private static String getKeyFileName(String userName, String name) {
 		StringBuilder builder = new StringBuilder();
 		builder.append(userName);
 		if (StringUtils.isNotEmpty(name)) {
 			builder.append("@" + name);
 		}
 		builder.append(".pub");
+		return builder.toString();
+	}
+
+	/**
+	 * Writes all key files to temporary files in the key directory, using as many threads as
+	 * there are available processors. Only when all of them have been written, they're moved
+	 * into place, so a failure never leaves a key file which is written halfway.
+	 */
+	private static Set<File> createKeyFiles(File keyDir, Map<String, String> keyFiles, final Durability durability) 
+			throws IOException {
+		
+		final Path directory = keyDir.toPath();
+		final List<Entry<String, String>> entries = Lists.newArrayList(keyFiles.entrySet());
+		final Path[] temporaryFiles = new Path[entries.size()];
 		
-		FileWriter writer = null;
-		File file = new File(keyDir, builder.toString());
 		try {
-			writer = new FileWriter(file);
-			writer.write(content);
+			Parallel.forEachIndex(entries.size(), Runtime.getRuntime().availableProcessors(), new Parallel.Task() {
+				@Override
+				public void run(int index) throws IOException {
+					Entry<String, String> entry = entries.get(index);
+					temporaryFiles[index] = Files.createTempFile(directory, "." + entry.getKey(), ".tmp");
+					writeFile(temporaryFiles[index], entry.getValue().getBytes(Charsets.UTF_8), durability);
+				}
+			});
+			
+			Set<File> keysWritten = Sets.newHashSet();
+			for (int i = 0; i < temporaryFiles.length; i++) {
+				Path target = directory.resolve(entries.get(i).getKey());
+				moveIntoPlace(temporaryFiles[i], target);
+				temporaryFiles[i] = null;
+				keysWritten.add(target.toFile());
+			}
+			
+			if (durability == Durability.BATCH && !keysWritten.isEmpty()) {
+				syncDirectory(directory);
+			}
+			return keysWritten;
 		}
 		finally {
-			if (writer != null) {
-				writer.close();
+			for (Path temporaryFile : temporaryFiles) {
+				if (temporaryFile != null) {
+					Files.deleteIfExists(temporaryFile);
+				}
 			}
 		}
-		
-		return file;
+	}
+	
+	private static void writeFile(Path path, byte[] contents, Durability durability) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(contents);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			if (durability == Durability.BATCH) {
+				channel.force(true);
+			}
+		}
+	}
+	
+	private static void moveIntoPlace(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	static void syncDirectory(Path directory) throws IOException {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+		catch (IOException e) {
+			// Not every platform allows a directory to be opened or flushed.
+			log.debug("Could not flush directory: " + directory, e);
+		}
 	}
 	
 	private KeyWriter() {
@@ -0,0 +1,324 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.List;
+
+import nl.minicom.gitolite.manager.exceptions.ModificationException;
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The {@link Operation} class is a {@link Modification} which is described entirely by its 
+ * {@link Type} and its arguments, which are all {@link String}s. Unlike an arbitrary 
+ * {@link Modification}, it can be serialized, and it declares which parts of a {@link Config}
+ * it reads and writes, so that conflicting changes can be detected without applying them.
+ * 
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public final class Operation extends Modification {
+	
+	private static final long serialVersionUID = -2713582236505227834L;
+
+	/**
+	 * The kinds of changes an {@link Operation} can apply to a {@link Config}.
+	 */
+	public enum Type {
+		CREATE_REPOSITORY			("Create repository: %s"),
+		REMOVE_REPOSITORY			("Remove repository: %s"),
+		CREATE_GROUP				("Creating group: %s"),
+		REMOVE_GROUP				("Removing group: %s"),
+		CREATE_USER					("Creating user: %s"),
+		REMOVE_USER					("Removing user: %s"),
+		ADD_USER_TO_GROUP			("Adding user: '%2$s' to group: '%1$s'"),
+		REMOVE_USER_FROM_GROUP		("Removing user: '%2$s' from group: '%1$s'"),
+		ADD_GROUP_TO_GROUP			("Adding group: '%2$s' to group: '%1$s'"),
+		REMOVE_GROUP_FROM_GROUP		("Removing group: '%2$s' from group: '%1$s'"),
+		SET_USER_PERMISSION			("Setting permission for user: '%2$s' to repository: '%1$s'"),
+		SET_GROUP_PERMISSION		("Setting permission for: '%2$s' to: '%1$s'"),
+		REVOKE_USER_PERMISSIONS		("Revoking permission for: '%2$s' from: '%1$s'"),
+		REVOKE_GROUP_PERMISSIONS	("Revoking permission for: '%2$s' to: '%1$s'"),
+		SET_KEY						("Setting key: '%2$s' for user: '%1$s'"),
+		REMOVE_KEY					("Removing key: '%2$s' for user: '%1$s'");
+		
+		private final String description;
+		
+		private Type(String description) {
+			this.description = description;
+		}
+	}
+	
+	static Operation createRepository(String repoName) {
+		return new Operation(Type.CREATE_REPOSITORY, repoName);
+	}
+	
+	static Operation removeRepository(String repoName) {
+		return new Operation(Type.REMOVE_REPOSITORY, repoName);
+	}
+	
+	static Operation createGroup(String groupName) {
+		return new Operation(Type.CREATE_GROUP, groupName);
+	}
+	
+	static Operation removeGroup(String groupName) {
+		return new Operation(Type.REMOVE_GROUP, groupName);
+	}
+	
+	static Operation createUser(String userName) {
+		return new Operation(Type.CREATE_USER, userName);
+	}
+	
+	static Operation removeUser(String userName) {
+		return new Operation(Type.REMOVE_USER, userName);
+	}
+	
+	static Operation addUser(String groupName, String userName) {
+		return new Operation(Type.ADD_USER_TO_GROUP, groupName, userName);
+	}
+	
+	static Operation removeUser(String groupName, String userName) {
+		return new Operation(Type.REMOVE_USER_FROM_GROUP, groupName, userName);
+	}
+	
+	static Operation addGroup(String groupName, String childName) {
+		return new Operation(Type.ADD_GROUP_TO_GROUP, groupName, childName);
+	}
+	
+	static Operation removeGroup(String groupName, String childName) {
+		return new Operation(Type.REMOVE_GROUP_FROM_GROUP, groupName, childName);
+	}
+	
+	static Operation setPermission(String repoName, User user, Permission level) {
+		return new Operation(Type.SET_USER_PERMISSION, repoName, user.getName(), level.name());
+	}
+	
+	static Operation setPermission(String repoName, Group group, Permission level) {
+		return new Operation(Type.SET_GROUP_PERMISSION, repoName, group.getName(), level.name());
+	}
+	
+	static Operation revokePermissions(String repoName, User user) {
+		return new Operation(Type.REVOKE_USER_PERMISSIONS, repoName, user.getName());
+	}
+	
+	static Operation revokePermissions(String repoName, Group group) {
+		return new Operation(Type.REVOKE_GROUP_PERMISSIONS, repoName, group.getName());
+	}
+	
+	static Operation setKey(String userName, String keyName, String content) {
+		return new Operation(Type.SET_KEY, userName, keyName, content);
+	}
+	
+	static Operation removeKey(String userName, String keyName) {
+		return new Operation(Type.REMOVE_KEY, userName, keyName);
+	}
+	
+	private final Type type;
+	private final ImmutableList<String> arguments;
+	
+	/**
+	 * Constructs a new {@link Operation} object.
+	 * 
+	 * @param type
+	 * 	The {@link Type} of the {@link Operation}. This may not be NULL.
+	 * 
+	 * @param arguments
+	 * 	The arguments of the {@link Operation}. The first argument is always the name of the
+	 * 	{@link Repository}, {@link Group} or {@link User} which is changed. This may not be NULL.
+	 */
+	public Operation(Type type, List<String> arguments) {
+		this.type = type;
+		this.arguments = ImmutableList.copyOf(arguments);
+		Preconditions.checkArgument(!this.arguments.isEmpty());
+	}
+	
+	private Operation(Type type, String... arguments) {
+		this(type, ImmutableList.copyOf(arguments));
+	}
+	
+	/**
+	 * @return
+	 * 	The {@link Type} of this {@link Operation}.
+	 */
+	public Type getType() {
+		return type;
+	}
+	
+	/**
+	 * @return
+	 * 	The arguments of this {@link Operation}.
+	 */
+	public ImmutableList<String> getArguments() {
+		return arguments;
+	}
+	
+	@Override
+	public ImmutableSet<EntityKey> getReadSet() {
+		String name = arguments.get(0);
+		switch (type) {
+			case ADD_USER_TO_GROUP:
+			case REMOVE_USER_FROM_GROUP:
+				return ImmutableSet.of(EntityKey.group(name), EntityKey.user(arguments.get(1)));
+			case ADD_GROUP_TO_GROUP:
+			case REMOVE_GROUP_FROM_GROUP:
+				return ImmutableSet.of(EntityKey.group(name), EntityKey.group(arguments.get(1)));
+			case SET_USER_PERMISSION:
+			case REVOKE_USER_PERMISSIONS:
+				return ImmutableSet.of(EntityKey.repository(name), EntityKey.user(arguments.get(1)));
+			case SET_GROUP_PERMISSION:
+			case REVOKE_GROUP_PERMISSIONS:
+				return ImmutableSet.of(EntityKey.repository(name), EntityKey.group(arguments.get(1)));
+			case SET_KEY:
+			case REMOVE_KEY:
+				return ImmutableSet.of(EntityKey.user(name));
+			default:
+				return ImmutableSet.of();
+		}
+	}
+	
+	@Override
+	public ImmutableSet<EntityKey> getWriteSet() {
+		return ImmutableSet.of(getTarget());
+	}
+	
+	/**
+	 * @return
+	 * 	The {@link EntityKey} of the part of the {@link Config} this {@link Operation} changes.
+	 */
+	private EntityKey getTarget() {
+		String name = arguments.get(0);
+		switch (type) {
+			case CREATE_REPOSITORY:
+			case REMOVE_REPOSITORY:
+				return EntityKey.repository(name);
+			case CREATE_GROUP:
+			case REMOVE_GROUP:
+				return EntityKey.group(name);
+			case CREATE_USER:
+			case REMOVE_USER:
+				return EntityKey.user(name);
+			case ADD_USER_TO_GROUP:
+			case REMOVE_USER_FROM_GROUP:
+			case ADD_GROUP_TO_GROUP:
+			case REMOVE_GROUP_FROM_GROUP:
+				return EntityKey.membership(name, arguments.get(1));
+			case SET_USER_PERMISSION:
+			case SET_GROUP_PERMISSION:
+			case REVOKE_USER_PERMISSIONS:
+			case REVOKE_GROUP_PERMISSIONS:
+				return EntityKey.permission(name, arguments.get(1));
+			default:
+				return EntityKey.key(name, arguments.get(1));
+		}
+	}
+	
+	@Override
+	public void apply(Config config) throws ModificationException {
+		try {
+			applyTo(config);
+		}
+		catch (IllegalArgumentException e) {
+			throw getTarget().toException(e);
+		}
+	}
+	
+	private void applyTo(Config config) throws ModificationException {
+		String name = arguments.get(0);
+		switch (type) {
+			case CREATE_REPOSITORY:
+				config.createRepository(name);
+				break;
+			case REMOVE_REPOSITORY:
+				config.removeRepository(requireRepository(config, name));
+				break;
+			case CREATE_GROUP:
+				config.createGroup(name);
+				break;
+			case REMOVE_GROUP:
+				config.removeGroup(requireGroup(config, name));
+				break;
+			case CREATE_USER:
+				config.createUser(name);
+				break;
+			case REMOVE_USER:
+				config.removeUser(requireUser(config, name));
+				break;
+			case ADD_USER_TO_GROUP:
+				requireGroup(config, name).add(requireUser(config, arguments.get(1)));
+				break;
+			case REMOVE_USER_FROM_GROUP:
+				requireGroup(config, name).remove(requireUser(config, arguments.get(1)));
+				break;
+			case ADD_GROUP_TO_GROUP:
+				requireGroup(config, name).add(requireGroup(config, arguments.get(1)));
+				break;
+			case REMOVE_GROUP_FROM_GROUP:
+				requireGroup(config, name).remove(requireGroup(config, arguments.get(1)));
+				break;
+			case SET_USER_PERMISSION:
+				requireRepository(config, name).setPermission(requireUser(config, arguments.get(1)), 
+						Permission.valueOf(arguments.get(2)));
+				break;
+			case SET_GROUP_PERMISSION:
+				requireRepository(config, name).setPermission(requireGroup(config, arguments.get(1)), 
+						Permission.valueOf(arguments.get(2)));
+				break;
+			case REVOKE_USER_PERMISSIONS:
+				requireRepository(config, name).revokePermissions(requireUser(config, arguments.get(1)));
+				break;
+			case REVOKE_GROUP_PERMISSIONS:
+				requireRepository(config, name).revokePermissions(requireGroup(config, arguments.get(1)));
+				break;
+			case SET_KEY:
+				requireUser(config, name).setKey(arguments.get(1), arguments.get(2));
+				break;
+			case REMOVE_KEY:
+				requireUser(config, name).removeKey(arguments.get(1));
+				break;
+		}
+	}
+	
+	private static Repository requireRepository(Config config, String repoName) throws ModificationException {
+		Repository repository = config.getRepository(repoName);
+		if (repository == null) {
+			throw EntityKey.repository(repoName).toException(null);
+		}
+		return repository;
+	}
+	
+	private static Group requireGroup(Config config, String groupName) throws ModificationException {
+		Group group = config.getGroup(groupName);
+		if (group == null) {
+			throw EntityKey.group(groupName).toException(null);
+		}
+		return group;
+	}
+	
+	private static User requireUser(Config config, String userName) throws ModificationException {
+		User user = config.getUser(userName);
+		if (user == null) {
+			throw EntityKey.user(userName).toException(null);
+		}
+		return user;
+	}
+	
+	/**
+	 * @return
+	 * 	An estimate of the size in bytes of this {@link Operation}: the length of its 
+	 * 	description and its arguments, without formatting the description.
+	 */
+	@Override
+	public int getSize() {
+		int size = type.description.length();
+		for (String argument : arguments) {
+			size += argument.length();
+		}
+		return size;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format(type.description, arguments.toArray());
+	}
+	
+}
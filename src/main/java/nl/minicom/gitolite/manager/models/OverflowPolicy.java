@@ -0,0 +1,30 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This enum contains the ways in which a {@link ConfigManager} can handle a new changeset,
+ * when its queue of changesets which are waiting to be applied is full.
+ * 
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+public enum OverflowPolicy {
+	
+	/**
+	 * The thread submitting the changeset blocks until there is room in the queue.
+	 */
+	BLOCK,
+	
+	/**
+	 * The new changeset is not queued, and its future fails immediately with a 
+	 * {@link RejectedExecutionException}.
+	 */
+	FAIL_FAST,
+	
+	/**
+	 * The oldest queued changeset is removed from the queue to make room for the new 
+	 * changeset, and its future fails with a {@link RejectedExecutionException}.
+	 */
+	DROP_OLDEST;
+	
+}
@@ -0,0 +1,104 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+/**
+ * This class contains a method to perform an I/O bound task for a range of indices,
+ * using a bounded number of threads.
+ * 
+ * @author Michael de Jong &lt;<a href="mailto:michaelj@minicom.nl">michaelj@minicom.nl</a>&gt;
+ */
+final class Parallel {
+	
+	/**
+	 * The task to perform for every index.
+	 */
+	interface Task {
+		
+		/**
+		 * @param index
+		 * 	The index to perform the task for.
+		 * 
+		 * @throws IOException
+		 * 	If the task could not be performed.
+		 */
+		void run(int index) throws IOException;
+		
+	}
+	
+	/**
+	 * This method performs the specified {@link Task} for every index from 0 up to, but not 
+	 * including the specified count. Each thread handles every n-th index, where n is the 
+	 * number of threads. This method returns when the {@link Task} has been performed for
+	 * all indices, or when one of them failed.
+	 * 
+	 * @param count
+	 * 	The number of indices to perform the {@link Task} for.
+	 * 
+	 * @param parallelism
+	 * 	The maximum number of threads to use. If it's 1, the {@link Task} is performed
+	 * 	on the calling thread.
+	 * 
+	 * @param task
+	 * 	The {@link Task} to perform.
+	 * 
+	 * @throws IOException
+	 * 	If the {@link Task} failed for any of the indices, or the calling thread was interrupted.
+	 */
+	static void forEachIndex(final int count, int parallelism, final Task task) throws IOException {
+		final int threads = Math.min(parallelism, count);
+		if (threads <= 1) {
+			for (int i = 0; i < count; i++) {
+				task.run(i);
+			}
+			return;
+		}
+		
+		List<Callable<Void>> stripes = Lists.newArrayListWithCapacity(threads);
+		for (int i = 0; i < threads; i++) {
+			final int offset = i;
+			stripes.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					for (int index = offset; index < count; index += threads) {
+						task.run(index);
+					}
+					return null;
+				}
+			});
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (Future<Void> future : executor.invokeAll(stripes)) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for tasks to complete");
+		}
+		catch (ExecutionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+			throw new IOException(e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	private Parallel() {
+		//Prevent instantiation.
+	}
+	
+}
@@ -1,12 +1,17 @@
 package nl.minicom.gitolite.manager.models;
 
-import java.util.List;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import nl.minicom.gitolite.manager.exceptions.ModificationException;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 
 /**
  * The {@link Recorder} class is a simple class which can be used to keep track 
@@ -15,15 +20,42 @@ import com.google.common.collect.Lists;
  */
 public class Recorder {
 	
-	private final List<Modification> modifications;
+	/**
+	 * The maximum number of changed {@link Repository}s which are tracked, before any further
+	 * change is treated as a change of the {@link Group} memberships.
+	 */
+	private static final int MAXIMUM_CHANGED_REPOSITORIES = 1024;
+	
+	/**
+	 * The maximum number of {@link Group}s whose members have changed which are tracked, 
+	 * before any further change is treated as a change of all {@link Group} memberships.
+	 */
+	private static final int MAXIMUM_CHANGED_GROUPS = 1024;
+	
+	private final Changelog modifications;
+	private final Deque<Undo> undoLog;
 	private final AtomicBoolean recording;
+	private final AtomicLong version;
+	private final AtomicLong membershipVersion;
+	private final Set<String> changedRepositories;
+	private final Set<String> changedGroups;
+	private volatile boolean tracking;
+	private volatile boolean frozen;
+	private volatile long revision;
+	private volatile String baseCommit;
+	private volatile boolean savepoint;
 	
 	/**
 	 * Constructs a new {@link Recorder} object.
 	 */
 	Recorder() {
-		this.modifications = Lists.newArrayList();
+		this.modifications = new Changelog();
+		this.undoLog = new ArrayDeque<>();
 		this.recording = new AtomicBoolean();
+		this.version = new AtomicLong();
+		this.membershipVersion = new AtomicLong();
+		this.changedRepositories = Sets.newHashSet();
+		this.changedGroups = Sets.newHashSet();
 	}
 	
 	/**
@@ -33,6 +65,35 @@ public class Recorder {
 		recording.set(true);
 	}
 	
+	/**
+	 * This method freezes the objects which use this {@link Recorder}. From now on
+	 * {@link Recorder#checkNotFrozen()} will reject any attempt to modify them.
+	 */
+	void freeze() {
+		frozen = true;
+	}
+	
+	/**
+	 * @return
+	 * 	True if the objects which use this {@link Recorder} have been frozen, false otherwise.
+	 * 	Frozen objects are never modified again, and can be read without locking.
+	 */
+	boolean isFrozen() {
+		return frozen;
+	}
+	
+	/**
+	 * This method must be called before an object which uses this {@link Recorder} is modified.
+	 * 
+	 * @throws UnsupportedOperationException
+	 * 	If the objects which use this {@link Recorder} have been frozen.
+	 */
+	void checkNotFrozen() {
+		if (frozen) {
+			throw new UnsupportedOperationException("This configuration is a read-only view!");
+		}
+	}
+	
 	/**
 	 * This method can be called when you want to record a certain {@link Modification}.
 	 * 
@@ -40,6 +101,14 @@ public class Recorder {
 	 * 	The {@link Modification} to record, for later playback.
 	 */
 	void append(Modification modification) {
+		if (modification instanceof Operation) {
+			Operation operation = (Operation) modification;
+			changed(operation.getType(), operation.getArguments().get(0));
+		}
+		else {
+			membershipVersion.incrementAndGet();
+		}
+		version.incrementAndGet();
 		if (recording.get()) {
 			synchronized (modifications) {
 				modifications.add(modification);
@@ -47,41 +116,315 @@ public class Recorder {
 		}
 	}
 
+	/**
+	 * This method can be called when you want to record an {@link Operation}. Unlike 
+	 * {@link Recorder#append(Modification)}, it doesn't construct the {@link Operation} 
+	 * unless it's being recorded, and then only when the recording is stopped.
+	 * 
+	 * @param type
+	 * 	The {@link Operation.Type} of the {@link Operation} to record.
+	 * 
+	 * @param name
+	 * 	The name of the {@link Repository}, {@link Group} or {@link User} which is changed.
+	 */
+	void append(Operation.Type type, String name) {
+		append(type, name, null, null);
+	}
+	
+	/**
+	 * This method can be called when you want to record an {@link Operation} with two arguments.
+	 * 
+	 * @see Recorder#append(Operation.Type, String)
+	 */
+	void append(Operation.Type type, String name, String argument) {
+		append(type, name, argument, null);
+	}
+	
+	/**
+	 * This method can be called when you want to record an {@link Operation} with three arguments.
+	 * 
+	 * @see Recorder#append(Operation.Type, String)
+	 */
+	void append(Operation.Type type, String name, String argument, String value) {
+		changed(type, name);
+		version.incrementAndGet();
+		if (recording.get()) {
+			synchronized (modifications) {
+				modifications.add(type, name, argument, value);
+			}
+		}
+	}
+
+	/**
+	 * This method can be called when you want to record several changes at once. They 
+	 * are recorded in the order of the specified {@link Changelog}, and no other 
+	 * {@link Modification} is recorded in between.
+	 * 
+	 * @param changelog
+	 * 	The {@link Changelog} which contains the changes to record, for later playback.
+	 */
+	void append(Changelog changelog) {
+		for (int i = 0; i < changelog.size(); i++) {
+			Operation.Type type = changelog.getType(i);
+			if (type == null) {
+				membershipVersion.incrementAndGet();
+			}
+			else {
+				changed(type, changelog.getName(i));
+			}
+		}
+		version.incrementAndGet();
+		if (recording.get()) {
+			synchronized (modifications) {
+				modifications.addAll(changelog);
+			}
+		}
+	}
+
+	/**
+	 * This method sets a savepoint. From now on every change of the objects which use 
+	 * this {@link Recorder} logs an {@link Undo}, until the savepoint is released. Any 
+	 * earlier savepoint is discarded.
+	 */
+	void setSavepoint() {
+		synchronized (undoLog) {
+			undoLog.clear();
+			savepoint = true;
+		}
+	}
+	
+	/**
+	 * This method can be called when a change has been made, to log how it can be undone. 
+	 * It does nothing if no savepoint has been set.
+	 * 
+	 * @param undo
+	 * 	The {@link Undo} which reverses the change.
+	 */
+	void logUndo(Undo undo) {
+		if (savepoint) {
+			synchronized (undoLog) {
+				undoLog.push(undo);
+			}
+		}
+	}
+	
+	/**
+	 * This method reverses all changes which have been made since the savepoint was set, 
+	 * in reverse order. The savepoint remains set.
+	 */
+	void rollbackToSavepoint() {
+		synchronized (undoLog) {
+			while (!undoLog.isEmpty()) {
+				undoLog.pop().undo();
+			}
+		}
+		membershipVersion.incrementAndGet();
+		version.incrementAndGet();
+	}
+	
+	/**
+	 * This method releases the savepoint, which keeps all changes made since it was set.
+	 */
+	void releaseSavepoint() {
+		synchronized (undoLog) {
+			savepoint = false;
+			undoLog.clear();
+		}
+	}
+
+	/**
+	 * @return
+	 * 	A number which is increased on every change of the objects which use this
+	 * 	{@link Recorder}, regardless of whether the change is being recorded.
+	 */
+	long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * @return
+	 * 	A number which is increased on every change of the objects which use this 
+	 * 	{@link Recorder} which may change which {@link User}s are (transitively) a member
+	 * 	of a {@link Group}, other than the tracked changes of the members of a single 
+	 * 	{@link Group}. It's increased before {@link Recorder#getVersion()}.
+	 */
+	long getMembershipVersion() {
+		return membershipVersion.get();
+	}
+	
+	/**
+	 * This method returns the names of the {@link Repository}s whose permissions have been
+	 * changed, created or removed since this method was last called, and starts tracking 
+	 * them if that wasn't done already. A {@link Repository} is registered as changed before 
+	 * {@link Recorder#getVersion()} is increased. While no {@link Repository}s are tracked, 
+	 * or when too many have been changed, every change increases the membership version 
+	 * instead.
+	 * 
+	 * @return
+	 * 	The names of the changed {@link Repository}s.
+	 */
+	ImmutableSet<String> drainChangedRepositories() {
+		synchronized (changedRepositories) {
+			tracking = true;
+			ImmutableSet<String> changed = ImmutableSet.copyOf(changedRepositories);
+			changedRepositories.clear();
+			return changed;
+		}
+	}
+	
+	/**
+	 * This method returns the names of the {@link Group}s whose direct members have been 
+	 * added or removed since this method was last called, in the same way as 
+	 * {@link Recorder#drainChangedRepositories()}. Creating or removing a {@link Group} or
+	 * {@link User} still increases the membership version.
+	 * 
+	 * @return
+	 * 	The names of the changed {@link Group}s.
+	 */
+	ImmutableSet<String> drainChangedGroups() {
+		synchronized (changedGroups) {
+			tracking = true;
+			ImmutableSet<String> changed = ImmutableSet.copyOf(changedGroups);
+			changedGroups.clear();
+			return changed;
+		}
+	}
+	
+	/**
+	 * Registers which part of the objects which use this {@link Recorder} an {@link Operation}
+	 * of the specified {@link Operation.Type} changes.
+	 */
+	private void changed(Operation.Type type, String name) {
+		switch (type) {
+			case SET_KEY:
+			case REMOVE_KEY:
+				return;
+			case CREATE_REPOSITORY:
+			case REMOVE_REPOSITORY:
+			case SET_USER_PERMISSION:
+			case SET_GROUP_PERMISSION:
+			case REVOKE_USER_PERMISSIONS:
+			case REVOKE_GROUP_PERMISSIONS:
+				if (tracking) {
+					synchronized (changedRepositories) {
+						if (changedRepositories.size() < MAXIMUM_CHANGED_REPOSITORIES) {
+							changedRepositories.add(name);
+							return;
+						}
+					}
+				}
+				membershipVersion.incrementAndGet();
+				return;
+			case ADD_USER_TO_GROUP:
+			case REMOVE_USER_FROM_GROUP:
+			case ADD_GROUP_TO_GROUP:
+			case REMOVE_GROUP_FROM_GROUP:
+				if (tracking) {
+					synchronized (changedGroups) {
+						if (changedGroups.size() < MAXIMUM_CHANGED_GROUPS) {
+							changedGroups.add(name);
+							return;
+						}
+					}
+				}
+				membershipVersion.incrementAndGet();
+				return;
+			default:
+				membershipVersion.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return
+	 * 	The revision of the configuration of the {@link ConfigManager} which the objects 
+	 * 	using this {@link Recorder} are based on. 
+	 */
+	long getRevision() {
+		return revision;
+	}
+	
+	/**
+	 * This method sets the revision of the configuration of the {@link ConfigManager} 
+	 * which the objects using this {@link Recorder} are based on.
+	 * 
+	 * @param revision
+	 * 	The revision of the configuration.
+	 */
+	void setRevision(long revision) {
+		this.revision = revision;
+	}
+	
+	/**
+	 * @return
+	 * 	The id of the commit of the configuration repository which the objects using this
+	 * 	{@link Recorder} were read from, or NULL if it's unknown.
+	 */
+	String getBaseCommit() {
+		return baseCommit;
+	}
+	
+	/**
+	 * This method sets the id of the commit of the configuration repository which the 
+	 * objects using this {@link Recorder} were read from.
+	 * 
+	 * @param baseCommit
+	 * 	The id of the commit, or NULL if it's unknown.
+	 */
+	void setBaseCommit(String baseCommit) {
+		this.baseCommit = baseCommit;
+	}
+
 	/**
 	 * This method ensures that the {@link Recorder} stops recording changes.
 	 * 
 	 * @return
 	 * 	The method returns an {@link ImmutableList} of {@link Modification} objects
 	 * 	which represent all recorded changes since this {@link Recorder} started 
-	 * 	recording changes.
+	 * 	recording changes. The recorded changes are discarded, so the next recording
+	 * 	starts empty.
 	 */
 	ImmutableList<Modification> stop() {
 		recording.set(false);
 		synchronized (modifications) {
-			return ImmutableList.<Modification>builder().addAll(modifications).build();
+			ImmutableList<Modification> recorded = modifications.toList();
+			modifications.clear();
+			return recorded;
 		}
 	}
 	
 	@Override
 	public String toString() {
-		StringBuilder builder = new StringBuilder();
 		synchronized (modifications) {
-			for (Modification change : modifications) {
-				builder.append(change.toString() + '\n');
-			}
+			return modifications.toString();
 		}
-		return builder.toString();
+	}
+	
+	/**
+	 * This interface represents the reversal of a single change, which is logged while 
+	 * a savepoint is set. It modifies the objects directly, without recording anything.
+	 */
+	interface Undo {
+		
+		/**
+		 * This method reverses the change.
+		 */
+		void undo();
+		
 	}
 	
 	/**
 	 * This abstract class represents a change which can be re-applied to any {@link Config} object.
 	 */
-	public abstract static class Modification {
+	public abstract static class Modification implements Serializable {
+		
+		private static final long serialVersionUID = -4396457216880785627L;
 		
 		private final String description;
+		private final Object[] parameters;
 
 		/**
 		 * Constructs a new {@link Modification} object, based on a description and some description paramters.
+		 * The description is only formatted when it's requested.
 		 * 
 		 * @param description
 		 * 	The description of this {@link Modification} object.
@@ -90,7 +433,17 @@ public class Recorder {
 		 * 	The parameters of this description.
 		 */
 		public Modification(String description, Object... parameters) {
-			this.description = String.format(description, parameters);
+			this.description = description;
+			this.parameters = parameters;
+		}
+		
+		/**
+		 * Constructs a new {@link Modification} object without a description. Subclasses which 
+		 * use this constructor must override {@link Modification#toString()}.
+		 */
+		protected Modification() {
+			this.description = null;
+			this.parameters = null;
 		}
 		
 		/**
@@ -104,9 +457,36 @@ public class Recorder {
 		 */
 		public abstract void apply(Config config) throws ModificationException;
 		
+		/**
+		 * @return
+		 * 	The {@link EntityKey}s of the parts of a {@link Config} which this {@link Modification}
+		 * 	depends on, without changing them. By default this is empty, which means unknown.
+		 */
+		public Set<EntityKey> getReadSet() {
+			return ImmutableSet.of();
+		}
+		
+		/**
+		 * @return
+		 * 	The {@link EntityKey}s of the parts of a {@link Config} which this {@link Modification}
+		 * 	changes. By default this is empty, which means unknown.
+		 */
+		public Set<EntityKey> getWriteSet() {
+			return ImmutableSet.of();
+		}
+		
+		/**
+		 * @return
+		 * 	An estimate of the size in bytes of this {@link Modification}. By default 
+		 * 	this is the length of its description.
+		 */
+		public int getSize() {
+			return toString().length();
+		}
+		
 		@Override
 		public String toString() {
-			return description;
+			return String.format(description, parameters);
 		}
 		
 	}
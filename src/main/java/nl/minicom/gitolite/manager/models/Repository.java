@@ -1,15 +1,17 @@
 package nl.minicom.gitolite.manager.models;
 
 import java.util.Comparator;
-
-import nl.minicom.gitolite.manager.exceptions.ModificationException;
-import nl.minicom.gitolite.manager.models.Recorder.Modification;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.TreeMultimap;
 
 /**
@@ -50,6 +52,70 @@ public final class Repository {
 		this.rights = TreeMultimap.create(Permission.SORT_ON_ORDINAL, Identifiable.SORT_BY_TYPE_AND_NAME);
 	}
 
+	/**
+	 * This method copies all permissions of the specified {@link Repository} to this
+	 * {@link Repository}, without recording these changes.
+	 * 
+	 * @param source
+	 * 	The {@link Repository} to copy the permissions of.
+	 * 
+	 * @param userIndex
+	 * 	The {@link User}s to grant permissions to, indexed by name.
+	 * 
+	 * @param groupIndex
+	 * 	The {@link Group}s to grant permissions to, indexed by name.
+	 */
+	void copyPermissions(Repository source, Map<String, User> userIndex, Map<String, Group> groupIndex) {
+		synchronized (source.rights) {
+			synchronized (rights) {
+				for (Entry<Permission, Identifiable> entry : source.rights.entries()) {
+					Identifiable entity = entry.getValue();
+					if (entity instanceof User) {
+						rights.put(entry.getKey(), userIndex.get(entity.getName()));
+					}
+					else {
+						rights.put(entry.getKey(), groupIndex.get(entity.getName()));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method grants a {@link Permission} on this {@link Repository}, without recording
+	 * this change or logging how it can be undone.
+	 * 
+	 * @param level
+	 * 	The {@link Permission} to grant.
+	 * 
+	 * @param entity
+	 * 	The {@link User} or {@link Group} to grant the {@link Permission} to.
+	 * 
+	 * @return
+	 * 	True if the {@link Permission} was not granted yet, false otherwise.
+	 */
+	boolean grantPermission(Permission level, Identifiable entity) {
+		synchronized (rights) {
+			return rights.put(level, entity);
+		}
+	}
+	
+	/**
+	 * This method revokes a {@link Permission} on this {@link Repository}, without recording
+	 * this change or logging how it can be undone.
+	 * 
+	 * @param level
+	 * 	The {@link Permission} to revoke.
+	 * 
+	 * @param entity
+	 * 	The {@link User} or {@link Group} to revoke the {@link Permission} of.
+	 */
+	void revokePermission(Permission level, Identifiable entity) {
+		synchronized (rights) {
+			rights.remove(level, entity);
+		}
+	}
+
 	/**
 	 * @return
 	 * 	The name of the repository
@@ -67,23 +133,27 @@ public final class Repository {
 	 * @param level
 	 * 	The {@link Permission} which the specified {@link User} should have.
 	 */
-	public void setPermission(User user, final Permission level) {
+	public void setPermission(final User user, final Permission level) {
+		recorder.checkNotFrozen();
 		Preconditions.checkNotNull(user);
 		Preconditions.checkNotNull(level);
 		
+		final boolean added;
 		synchronized (rights) {
-			rights.put(level, user);
+			added = rights.put(level, user);
+		}
+		if (added) {
+			recorder.logUndo(new Recorder.Undo() {
+				@Override
+				public void undo() {
+					synchronized (rights) {
+						rights.remove(level, user);
+					}
+				}
+			});
 		}
 		
-		final String userName = user.getName();
-		recorder.append(new Modification("Setting permission for user: '%s' to repository: '%s'", userName, getName()) {
-			@Override
-			public void apply(Config config) throws ModificationException {
-				Repository repo = config.getRepository(getName());
-				User user = config.getUser(userName);
-				repo.setPermission(user, level);
-			}
-		});
+		recorder.append(Operation.Type.SET_USER_PERMISSION, getName(), user.getName(), level.name());
 	}
 
 	/**
@@ -95,23 +165,27 @@ public final class Repository {
 	 * @param level
 	 * 	The {@link Permission} which the specified {@link Group} should have.
 	 */
-	public void setPermission(Group group, final Permission level) {
+	public void setPermission(final Group group, final Permission level) {
+		recorder.checkNotFrozen();
 		Preconditions.checkNotNull(group);
 		Preconditions.checkNotNull(level);
 		
+		final boolean added;
 		synchronized (rights) {
-			rights.put(level, group);
+			added = rights.put(level, group);
+		}
+		if (added) {
+			recorder.logUndo(new Recorder.Undo() {
+				@Override
+				public void undo() {
+					synchronized (rights) {
+						rights.remove(level, group);
+					}
+				}
+			});
 		}
 		
-		final String groupName = group.getName();
-		recorder.append(new Modification("Setting permission for: '%s' to: '%s'", groupName, getName()) {
-			@Override
-			public void apply(Config config) throws ModificationException {
-				Repository repo = config.getRepository(getName());
-				Group group = config.getGroup(groupName);
-				repo.setPermission(group, level);
-			}
-		});
+		recorder.append(Operation.Type.SET_GROUP_PERMISSION, getName(), group.getName(), level.name());
 	}
 
 	/**
@@ -121,30 +195,30 @@ public final class Repository {
 	 * @param user
 	 * 	The {@link User} whose permissions need to be revoked.
 	 */
-	public void revokePermissions(User user) {
+	public void revokePermissions(final User user) {
+		recorder.checkNotFrozen();
+		final List<Permission> revoked = Lists.newArrayListWithCapacity(1);
 		synchronized (rights) {
 			for (Permission permission : Permission.values()) {
-				rights.remove(permission, user);
+				if (rights.remove(permission, user)) {
+					revoked.add(permission);
+				}
 			}
 		}
-		
-		final String userName = user.getName();
-		recorder.append(new Modification("Revoking permission for: '%s' from: '%s'", userName, getName()) {
-			@Override
-			public void apply(Config config) throws ModificationException {
-				Repository repo = config.getRepository(getName());
-				if (repo == null) {
-					throw new ModificationException();
+		if (!revoked.isEmpty()) {
+			recorder.logUndo(new Recorder.Undo() {
+				@Override
+				public void undo() {
+					synchronized (rights) {
+						for (Permission permission : revoked) {
+							rights.put(permission, user);
+						}
+					}
 				}
-				
-				User user = config.getUser(userName);
-				if (user == null) {
-					throw new ModificationException();
-				}
-				
-				repo.revokePermissions(user);
-			}
-		});
+			});
+		}
+		
+		recorder.append(Operation.Type.REVOKE_USER_PERMISSIONS, getName(), user.getName());
 	}
 
 	/**
@@ -154,30 +228,30 @@ public final class Repository {
 	 * @param group
 	 * 	The {@link Group} whose permissions need to be revoked.
 	 */
-	public void revokePermissions(Group group) {
+	public void revokePermissions(final Group group) {
+		recorder.checkNotFrozen();
+		final List<Permission> revoked = Lists.newArrayListWithCapacity(1);
 		synchronized (rights) {
 			for (Permission permission : Permission.values()) {
-				rights.remove(permission, group);
+				if (rights.remove(permission, group)) {
+					revoked.add(permission);
+				}
 			}
 		}
-		
-		final String groupName = group.getName();
-		recorder.append(new Modification("Revoking permission for: '%s' to: '%s'", groupName, getName()) {
-			@Override
-			public void apply(Config config) throws ModificationException {
-				Repository repo = config.getRepository(getName());
-				if (repo == null) {
-					throw new ModificationException();
-				}
-				
-				Group group = config.getGroup(groupName);
-				if (group == null) {
-					throw new ModificationException();
+		if (!revoked.isEmpty()) {
+			recorder.logUndo(new Recorder.Undo() {
+				@Override
+				public void undo() {
+					synchronized (rights) {
+						for (Permission permission : revoked) {
+							rights.put(permission, group);
+						}
+					}
 				}
-				
-				repo.revokePermissions(group);
-			}
-		});
+			});
+		}
+		
+		recorder.append(Operation.Type.REVOKE_GROUP_PERMISSIONS, getName(), group.getName());
 	}
 
 	/**
@@ -188,11 +262,23 @@ public final class Repository {
 	 * 	contains one or more {@link User}s and {@link Group}s.
 	 */
 	public ImmutableMultimap<Permission, Identifiable> getPermissions() {
+		if (recorder.isFrozen()) {
+			return ImmutableMultimap.copyOf(rights);
+		}
 		synchronized (rights) {
 			return ImmutableMultimap.copyOf(rights);
 		}
 	}
 	
+	/**
+	 * @return
+	 * 	The {@link SortedSetMultimap} containing the permissions of this {@link Repository}.
+	 * 	This is not a copy, so it may only be read while synchronizing on it.
+	 */
+	SortedSetMultimap<Permission, Identifiable> getPermissionIndex() {
+		return rights;
+	}
+	
 	@Override
 	public int hashCode() {
 		return new HashCodeBuilder()
@@ -2,15 +2,15 @@ package nl.minicom.gitolite.manager.models;
 
 import java.util.Comparator;
 import java.util.Map;
-
-import nl.minicom.gitolite.manager.exceptions.ModificationException;
-import nl.minicom.gitolite.manager.models.Recorder.Modification;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Maps;
 
 /**
@@ -27,9 +27,19 @@ public final class User implements Identifiable {
 		}
 	};
 
+	private static final Pattern NAME_PATTERN = Pattern.compile("^\\w[\\w._\\@+-]+$");
+	private static final Pattern KEY_NAME_PATTERN = Pattern.compile("^[\\w._+-]*$");
+	private static final Pattern KEY_CONTENT_PATTERN = Pattern.compile("^ssh-rsa\\s.+$");
+
 	private final String name;
-	private final Map<String, String> keys;
 	private final Recorder recorder;
+	private final Object keysLock = new Object();
+	
+	/**
+	 * The keys are replaced as a whole on every change, which allows copies of 
+	 * this {@link User} to share the same {@link ImmutableSortedMap}.
+	 */
+	private volatile ImmutableSortedMap<String, String> keys;
 
 	/**
 	 * Constructs a new {@link User} object with the provided name and public key.
@@ -51,14 +61,124 @@ public final class User implements Identifiable {
 	 * 	The {@link Recorder} to use when recording changes of this {@link User}.
 	 */
 	User(String name, Recorder recorder) {
-		Preconditions.checkNotNull(name);
-		Preconditions.checkArgument(!name.isEmpty());
-		Preconditions.checkArgument(name.matches("^\\w[\\w._\\@+-]+$"), "\"" + name + "\" is not a valid user name");
+		this(name, recorder, ImmutableSortedMap.<String, String>of());
+		validateName(name);
 		Preconditions.checkNotNull(recorder);
-		
+	}
+	
+	/**
+	 * Constructs a new {@link User} object with the provided name and keys. The name is
+	 * not validated, so it must have been validated with {@link User#validateName(String)}.
+	 * 
+	 * @param name
+	 * 	The name of the user.
+	 * 
+	 * @param recorder
+	 * 	The {@link Recorder} to use when recording changes of this {@link User}.
+	 * 
+	 * @param keys
+	 * 	The SSH keys of the user, indexed by name.
+	 */
+	User(String name, Recorder recorder, ImmutableSortedMap<String, String> keys) {
 		this.name = name;
 		this.recorder = recorder;
-		this.keys = Maps.newTreeMap();
+		this.keys = keys;
+	}
+	
+	/**
+	 * This method creates a copy of this {@link User} which uses the specified {@link Recorder}.
+	 * The name is not validated again, and the keys are shared with this {@link User}.
+	 * 
+	 * @param recorder
+	 * 	The {@link Recorder} to use when recording changes of the copy.
+	 * 
+	 * @return
+	 * 	The created copy of this {@link User}.
+	 */
+	User copy(Recorder recorder) {
+		return new User(name, recorder, keys);
+	}
+	
+	/**
+	 * This method validates the name of a {@link User}.
+	 * 
+	 * @param name
+	 * 	The name to validate.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 	If the name is empty, or not a valid user name.
+	 */
+	static void validateName(String name) {
+		Preconditions.checkNotNull(name);
+		Preconditions.checkArgument(!name.isEmpty());
+		Preconditions.checkArgument(NAME_PATTERN.matcher(name).matches(), "\"" + name + "\" is not a valid user name");
+	}
+	
+	/**
+	 * This method validates the name and contents of an SSH key.
+	 * 
+	 * @param name
+	 * 	The name of the key.
+	 * 
+	 * @param content
+	 * 	The content of the public key file.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 	If the name is not a valid key name, or the content is not a valid key.
+	 */
+	static void validateKey(String name, String content) {
+		Preconditions.checkNotNull(name);
+		Preconditions.checkNotNull(content);
+		Preconditions.checkArgument(KEY_NAME_PATTERN.matcher(name).matches(), "\"" + name + "\" is not a valid key name");
+		Preconditions.checkArgument(KEY_CONTENT_PATTERN.matcher(content).matches());
+	}
+	
+	/**
+	 * This method replaces the keys of this {@link User} with the keys of the specified
+	 * {@link User}, which are shared between both. This change is not recorded.
+	 * 
+	 * @param user
+	 * 	The {@link User} to copy the keys from.
+	 */
+	void copyKeys(User user) {
+		synchronized (keysLock) {
+			keys = user.keys;
+		}
+	}
+
+	/**
+	 * This method adds the specified keys to the keys of this {@link User}, replacing any
+	 * keys with the same names. This change is not recorded.
+	 * 
+	 * @param added
+	 * 	The keys to add, indexed by name. They must have been validated with 
+	 * 	{@link User#validateKey(String, String)}.
+	 * 
+	 * @return
+	 * 	The keys this {@link User} had before, which can be restored with 
+	 * 	{@link User#restoreKeys(ImmutableSortedMap)}.
+	 */
+	ImmutableSortedMap<String, String> putKeys(Map<String, String> added) {
+		synchronized (keysLock) {
+			ImmutableSortedMap<String, String> previous = keys;
+			Map<String, String> changed = Maps.newTreeMap(keys);
+			changed.putAll(added);
+			keys = ImmutableSortedMap.copyOf(changed);
+			return previous;
+		}
+	}
+	
+	/**
+	 * This method restores keys which were returned by {@link User#putKeys(Map)}. 
+	 * This change is not recorded.
+	 * 
+	 * @param previous
+	 * 	The keys to restore.
+	 */
+	void restoreKeys(ImmutableSortedMap<String, String> previous) {
+		synchronized (keysLock) {
+			keys = previous;
+		}
 	}
 
 	/**
@@ -79,21 +199,40 @@ public final class User implements Identifiable {
 	 * 	The content of the public key file. This may not be NULL.
 	 */
 	public void setKey(final String name, final String content) {
-		Preconditions.checkNotNull(name);
-		Preconditions.checkNotNull(content);
-		Preconditions.checkArgument(name.matches("^[\\w._+-]*$"), "\"" + name + "\" is not a valid key name");
-		Preconditions.checkArgument(content.matches("^ssh-rsa\\s.+$"));
+		recorder.checkNotFrozen();
+		validateKey(name, content);
 
-		synchronized (keys) {
-			keys.put(name, content);
+		synchronized (keysLock) {
+			logKeysUndo(keys);
+			Map<String, String> changed = Maps.newTreeMap(keys);
+			changed.put(name, content);
+			keys = ImmutableSortedMap.copyOf(changed);
 		}
 		
-		recorder.append(new Modification("Setting key: '%s' for user: '%s'", name, getName()) {
-			@Override
-			public void apply(Config config) throws ModificationException {
-				config.getUser(getName()).setKey(name, content);
-			}
-		});
+		recorder.append(Operation.Type.SET_KEY, getName(), name, content);
+	}
+
+	/**
+	 * This method sets several SSH keys of this {@link User} at once, replacing any existing
+	 * keys with the same names. Each key is recorded as if it was set with 
+	 * {@link User#setKey(String, String)}, but the keys of this {@link User} are copied only once.
+	 * 
+	 * @param added
+	 * 	The keys to set, indexed by name. This may not be NULL.
+	 */
+	void setKeys(Map<String, String> added) {
+		recorder.checkNotFrozen();
+		for (Entry<String, String> key : added.entrySet()) {
+			validateKey(key.getKey(), key.getValue());
+		}
+		
+		synchronized (keysLock) {
+			logKeysUndo(putKeys(added));
+		}
+		
+		for (Entry<String, String> key : added.entrySet()) {
+			recorder.append(Operation.Type.SET_KEY, getName(), key.getKey(), key.getValue());
+		}
 	}
 
 	/**
@@ -102,9 +241,7 @@ public final class User implements Identifiable {
 	 * 	is the name of the key, and the value is the contents of the associated key file.
 	 */
 	public ImmutableMap<String, String> getKeys() {
-		synchronized (keys) {
-			return ImmutableMap.copyOf(keys);
-		}
+		return keys;
 	}
 
 	/**
@@ -114,16 +251,28 @@ public final class User implements Identifiable {
 	 * 	The name of the SSH key to remove.
 	 */
 	public void removeKey(final String name) {
+		recorder.checkNotFrozen();
 		Preconditions.checkNotNull(name);
 
-		synchronized (keys) {
-			keys.remove(name);
+		synchronized (keysLock) {
+			if (keys.containsKey(name)) {
+				logKeysUndo(keys);
+				Map<String, String> changed = Maps.newTreeMap(keys);
+				changed.remove(name);
+				keys = ImmutableSortedMap.copyOf(changed);
+			}
 		}
 		
-		recorder.append(new Modification("Removing key: '%s' for user: '%s'", name, getName()) {
+		recorder.append(Operation.Type.REMOVE_KEY, getName(), name);
+	}
+	
+	private void logKeysUndo(final ImmutableSortedMap<String, String> previous) {
+		recorder.logUndo(new Recorder.Undo() {
 			@Override
-			public void apply(Config config) throws ModificationException {
-				config.getUser(getName()).removeKey(name);
+			public void undo() {
+				synchronized (keysLock) {
+					keys = previous;
+				}
 			}
 		});
 	}
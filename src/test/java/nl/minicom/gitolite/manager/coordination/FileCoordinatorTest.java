@@ -0,0 +1,351 @@
+package nl.minicom.gitolite.manager.coordination;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import nl.minicom.gitolite.manager.exceptions.ModificationException;
+import nl.minicom.gitolite.manager.git.ObjectGitManager;
+import nl.minicom.gitolite.manager.models.Config;
+import nl.minicom.gitolite.manager.models.ConfigManager;
+import nl.minicom.gitolite.manager.models.ConfigManagerSettings;
+import nl.minicom.gitolite.manager.models.Operation;
+import nl.minicom.gitolite.manager.models.Permission;
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class FileCoordinatorTest {
+
+	private static final String KEY = "ssh-rsa AAAAB3NzaC1yc2EAAAADAQABAAABAQC admin@localhost";
+
+	private File origin;
+	private File shared;
+	private final List<ConfigManager> managers = Lists.newArrayList();
+	private final List<FileCoordinator> coordinators = Lists.newArrayList();
+
+	@Before
+	public void setUp() throws Exception {
+		origin = Files.createTempDir();
+		ObjectGitManager git = new ObjectGitManager(origin, null);
+		git.init();
+		git.write("conf/gitolite.conf", "repo gitolite-admin\n    RW+ = admin\n".getBytes(Charsets.UTF_8));
+		git.write("keydir/admin.pub", KEY.getBytes(Charsets.UTF_8));
+		git.commit("Initial config");
+
+		shared = Files.createTempDir();
+		for (int i = 0; i < 3; i++) {
+			FileCoordinator coordinator = new FileCoordinator(shared, 20, TimeUnit.MILLISECONDS);
+			ConfigManagerSettings settings = new ConfigManagerSettings();
+			settings.setBareRepository(true);
+			settings.setCoordinator(coordinator);
+
+			ConfigManager manager = ConfigManager.create(origin.getAbsolutePath(), Files.createTempDir(), null, settings);
+			manager.get();
+			managers.add(manager);
+			coordinators.add(coordinator);
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (ConfigManager manager : managers) {
+			manager.close();
+		}
+	}
+
+	@Test
+	public void testThatOnlyOneManagerBecomesWriter() throws Exception {
+		awaitWriter();
+		Thread.sleep(100);
+
+		int writers = 0;
+		for (FileCoordinator coordinator : coordinators) {
+			writers += coordinator.isWriter() ? 1 : 0;
+		}
+		Assert.assertEquals(1, writers);
+	}
+
+	@Test
+	public void testThatChangesOfAllManagersArePushedByTheWriter() throws Exception {
+		awaitWriter();
+
+		List<ListenableFuture<Void>> futures = Lists.newArrayList();
+		for (int i = 0; i < managers.size(); i++) {
+			for (int j = 0; j < 5; j++) {
+				ConfigManager manager = managers.get(i);
+				Config config = manager.get();
+				config.createRepository("repo-" + i + "-" + j);
+				futures.add(manager.applyAsync(config));
+			}
+		}
+		Futures.allAsList(futures).get(30, TimeUnit.SECONDS);
+
+		Config reread = createManager().get();
+		for (int i = 0; i < managers.size(); i++) {
+			for (int j = 0; j < 5; j++) {
+				Assert.assertTrue(reread.hasRepository("repo-" + i + "-" + j));
+			}
+			Assert.assertTrue(managers.get(i).view().hasRepository("repo-" + i + "-4"));
+		}
+	}
+
+	@Test
+	public void testThatAnotherManagerTakesOverWhenWriterIsClosed() throws Exception {
+		int writer = awaitWriter();
+		ConfigManager closed = managers.remove(writer);
+		coordinators.remove(writer);
+		closed.close();
+
+		awaitWriter();
+		ConfigManager manager = managers.get(0);
+		Config config = manager.get();
+		config.createRepository("test-repo");
+		manager.apply(config);
+
+		Assert.assertTrue(createManager().get().hasRepository("test-repo"));
+	}
+
+	@Test
+	public void testThatForwardedChangesetConflictingWithWriterIsRejected() throws Exception {
+		int writer = awaitWriter();
+		ConfigManager follower = managers.get((writer + 1) % managers.size());
+		Config stale = follower.get();
+		stale.createRepository("test-repo");
+
+		Config config = managers.get(writer).get();
+		config.createRepository("test-repo").setPermission(config.getUser("admin"), Permission.ALL);
+		managers.get(writer).apply(config);
+
+		try {
+			follower.applyAsync(stale).get(30, TimeUnit.SECONDS);
+			Assert.fail("Expected a conflict");
+		}
+		catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof ModificationException);
+		}
+	}
+
+	@Test
+	public void testThatForwardedChangesetBasedOnStaleCommitIsRejected() throws Exception {
+		int writer = awaitWriter();
+		ConfigManager follower = managers.get((writer + 1) % managers.size());
+		Config stale = follower.get();
+		stale.getRepository("gitolite-admin").revokePermissions(stale.getUser("admin"));
+
+		Config config = managers.get(writer).get();
+		config.getRepository("gitolite-admin").setPermission(config.getUser("admin"), Permission.READ_ONLY);
+		managers.get(writer).apply(config);
+
+		try {
+			follower.applyAsync(stale).get(30, TimeUnit.SECONDS);
+			Assert.fail("Expected a conflict");
+		}
+		catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof ModificationException);
+			Assert.assertNotNull(((ModificationException) e.getCause()).getEntityType());
+		}
+		Assert.assertTrue(createManager().get().getRepository("gitolite-admin").getPermissions()
+				.containsEntry(Permission.READ_ONLY, config.getUser("admin")));
+	}
+
+	@Test
+	public void testThatChangesetsContainingOtherModificationsAreNotForwarded() throws Exception {
+		Modification other = new Modification("Touching: %s", "test-repo") {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void apply(Config config) {
+				// Does nothing.
+			}
+		};
+
+		ListenableFuture<Void> future = new FileCoordinator(Files.createTempDir()).forward(ImmutableList.of(other), null);
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			Assert.fail("Expected the changeset to be rejected");
+		}
+		catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+	@Test
+	public void testThatQueuedFilesWhichAreNotChangesetsAreRejected() throws Exception {
+		awaitWriter();
+		File queued = new File(shared, "queue/0000000000000000-test.changeset");
+		ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(queued));
+		output.writeObject(Lists.newArrayList("not", "a", "changeset"));
+		output.close();
+
+		File result = new File(shared, "results/0000000000000000-test.result");
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (queued.exists() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertFalse(queued.exists());
+		Assert.assertTrue(result.exists());
+	}
+
+	@Test
+	public void testThatForwardedChangesetStaysQueuedUntilItsOutcomeIsWritten() throws Exception {
+		File directory = Files.createTempDir();
+		ControlledNode writerNode = new ControlledNode(true);
+		FileCoordinator writer = new FileCoordinator(directory, 10, TimeUnit.MILLISECONDS);
+		FileCoordinator follower = new FileCoordinator(directory, 10, TimeUnit.MILLISECONDS);
+		try {
+			writer.start(writerNode);
+			awaitWriter(writer);
+			follower.start(new ControlledNode(false));
+
+			ListenableFuture<Void> future = follower.forward(ImmutableList.<Modification>of(
+					new Operation(Operation.Type.CREATE_REPOSITORY, ImmutableList.of("test-repo"))), "base");
+			List<Modification> submitted = writerNode.submitted.poll(10, TimeUnit.SECONDS);
+			Assert.assertEquals(ImmutableList.of(Operation.Type.CREATE_REPOSITORY), types(submitted));
+			Assert.assertEquals("base", writerNode.baseCommits.poll());
+
+			Thread.sleep(100);
+			Assert.assertEquals(1, new File(directory, "queue").list().length);
+			Assert.assertNull(writerNode.submitted.poll());
+			Assert.assertFalse(future.isDone());
+
+			writerNode.outcome.set(null);
+			future.get(10, TimeUnit.SECONDS);
+			Assert.assertEquals(0, new File(directory, "queue").list().length);
+		}
+		finally {
+			follower.stop();
+			writer.stop();
+		}
+	}
+
+	@Test
+	public void testThatForwardedChangesetExpiresWithoutWriter() throws Exception {
+		FileCoordinator follower = new FileCoordinator(Files.createTempDir(), 10, TimeUnit.MILLISECONDS, 100, TimeUnit.MILLISECONDS);
+		try {
+			follower.start(new ControlledNode(false));
+			ListenableFuture<Void> future = follower.forward(ImmutableList.<Modification>of(
+					new Operation(Operation.Type.CREATE_REPOSITORY, ImmutableList.of("test-repo"))), null);
+
+			future.get(10, TimeUnit.SECONDS);
+			Assert.fail("Expected the changeset to expire");
+		}
+		catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		finally {
+			follower.stop();
+		}
+	}
+
+	@Test
+	public void testThatUncollectedResultsAreRemovedByTheWriter() throws Exception {
+		File directory = Files.createTempDir();
+		File results = new File(directory, "results");
+		results.mkdirs();
+		File uncollected = new File(results, "0000000000000000-uncollected.result");
+		Files.write(new byte[] { 0 }, uncollected);
+		uncollected.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+		File recent = new File(results, "0000000000000000-recent.result");
+		Files.write(new byte[] { 0 }, recent);
+
+		FileCoordinator writer = new FileCoordinator(directory, 10, TimeUnit.MILLISECONDS, 1, TimeUnit.MINUTES);
+		try {
+			writer.start(new ControlledNode(true));
+			awaitWriter(writer);
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (uncollected.exists() && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+
+			Assert.assertFalse(uncollected.exists());
+			Assert.assertTrue(recent.exists());
+		}
+		finally {
+			writer.stop();
+		}
+	}
+
+	private static List<Operation.Type> types(List<Modification> changeset) {
+		List<Operation.Type> types = Lists.newArrayList();
+		for (Modification modification : changeset) {
+			types.add(((Operation) modification).getType());
+		}
+		return types;
+	}
+
+	private static void awaitWriter(FileCoordinator coordinator) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!coordinator.isWriter() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(coordinator.isWriter());
+	}
+
+	private int awaitWriter() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (System.nanoTime() < deadline) {
+			for (int i = 0; i < coordinators.size(); i++) {
+				if (coordinators.get(i).isWriter()) {
+					return i;
+				}
+			}
+			Thread.sleep(10);
+		}
+		throw new AssertionError("No writer was elected");
+	}
+
+	private ConfigManager createManager() {
+		return ConfigManager.create(origin.getAbsolutePath(), Files.createTempDir(), null);
+	}
+
+	/**
+	 * A {@link Coordinator.Node} which refuses to become the writer, or which completes
+	 * the changesets forwarded to it once the test sets their outcome.
+	 */
+	private static class ControlledNode implements Coordinator.Node {
+
+		private final boolean writer;
+		private final BlockingQueue<List<Modification>> submitted = new LinkedBlockingQueue<>();
+		private final BlockingQueue<String> baseCommits = new LinkedBlockingQueue<>();
+		private final SettableFuture<Void> outcome = SettableFuture.create();
+
+		private ControlledNode(boolean writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void becameWriter() throws Exception {
+			if (!writer) {
+				throw new IllegalStateException("Not a writer");
+			}
+		}
+
+		@Override
+		public ListenableFuture<Void> submit(List<Modification> changeset, String baseCommit) {
+			baseCommits.add(baseCommit);
+			submitted.add(changeset);
+			return outcome;
+		}
+
+	}
+
+}
@@ -3,6 +3,7 @@ package nl.minicom.gitolite.manager.git;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Map;
 
 import nl.minicom.gitolite.manager.exceptions.GitException;
 import nl.minicom.gitolite.manager.exceptions.ServiceUnavailable;
@@ -10,6 +11,7 @@ import nl.minicom.gitolite.manager.exceptions.ServiceUnavailable;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 
 public class JGitManagerTest {
@@ -40,6 +42,23 @@ public class JGitManagerTest {
 		new JGitManager(dir, null).open();
 	}
 
+	@Test
+	public void testReadingManyFilesFromDirectory() throws IOException {
+		File dir = Files.createTempDir();
+		File keydir = new File(dir, "keydir");
+		new File(keydir, "subdir").mkdirs();
+		for (int i = 0; i < 100; i++) {
+			Files.write(("content-" + i).getBytes(Charsets.UTF_8), new File(keydir, "file-" + i + ".pub"));
+		}
+
+		Map<String, byte[]> contents = new JGitManager(dir, null).readDirectory("keydir");
+
+		Assert.assertEquals(100, contents.size());
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals("content-" + i, new String(contents.get("file-" + i + ".pub"), Charsets.UTF_8));
+		}
+	}
+
 	@Test
 	public void testRemoveFileFromWorkingDirectory() throws IOException, GitException {
 		File dir = Files.createTempDir();
@@ -58,6 +77,67 @@ public class JGitManagerTest {
 		Assert.assertFalse(file.exists());
 	}
 
+	@Test
+	public void testCommittingManyWrittenFiles() throws IOException, ServiceUnavailable, GitException {
+		File location = Files.createTempDir();
+		JGitManager orig = new JGitManager(location, null);
+		orig.init();
+
+		for (int i = 0; i < 100; i++) {
+			orig.write("keydir/file-" + i + ".pub", ("content-" + i).getBytes(Charsets.UTF_8));
+		}
+		orig.write("keydir/file-0.pub", "rewritten".getBytes(Charsets.UTF_8));
+		orig.write("keydir/removed.pub", "removed".getBytes(Charsets.UTF_8));
+		orig.remove("keydir/removed.pub");
+		orig.commit("Wrote many files");
+
+		File clone = Files.createTempDir();
+		new JGitManager(clone, null).clone(location.getAbsolutePath());
+
+		Assert.assertEquals(100, new File(clone, "keydir").list().length);
+		Assert.assertEquals("rewritten", Files.toString(new File(clone, "keydir/file-0.pub"), Charsets.UTF_8));
+		Assert.assertEquals("content-99", Files.toString(new File(clone, "keydir/file-99.pub"), Charsets.UTF_8));
+	}
+
+	@Test
+	public void testCommittingFilesWrittenWithBatchDurability() throws IOException, ServiceUnavailable, GitException {
+		File location = Files.createTempDir();
+		JGitManager orig = new JGitManager(location, null, null, Durability.BATCH);
+		orig.init();
+		orig.write("keydir/a.pub", "a".getBytes(Charsets.UTF_8));
+		orig.write("conf/gitolite.conf", "b".getBytes(Charsets.UTF_8));
+		orig.commit("Wrote files durably");
+
+		File clone = Files.createTempDir();
+		new JGitManager(clone, null).clone(location.getAbsolutePath());
+
+		Assert.assertEquals("a", Files.toString(new File(clone, "keydir/a.pub"), Charsets.UTF_8));
+		Assert.assertEquals("b", Files.toString(new File(clone, "conf/gitolite.conf"), Charsets.UTF_8));
+		Assert.assertEquals(1, new File(location, "keydir").list().length);
+	}
+
+	@Test
+	public void testCommittingOnlyAddedFiles() throws IOException, ServiceUnavailable, GitException {
+		File location = Files.createTempDir();
+		JGitManager orig = new JGitManager(location, null);
+		orig.init();
+
+		for (String name : new String[] { "added.txt", "ignored.txt" }) {
+			FileWriter writer = new FileWriter(new File(location, name));
+			writer.write("Hello world");
+			writer.close();
+		}
+
+		orig.add("added.txt");
+		orig.commit("Added a single file");
+
+		File clone = Files.createTempDir();
+		new JGitManager(clone, null).clone(location.getAbsolutePath());
+
+		Assert.assertTrue(new File(clone, "added.txt").exists());
+		Assert.assertFalse(new File(clone, "ignored.txt").exists());
+	}
+
 	@Test
 	public void testCloningExistingRepo() throws ServiceUnavailable, GitException {
 		File location = Files.createTempDir();
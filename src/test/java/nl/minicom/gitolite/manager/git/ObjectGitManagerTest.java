@@ -0,0 +1,186 @@
+package nl.minicom.gitolite.manager.git;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+
+import nl.minicom.gitolite.manager.exceptions.GitException;
+import nl.minicom.gitolite.manager.exceptions.ServiceUnavailable;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class ObjectGitManagerTest {
+
+	@Test(expected = NullPointerException.class)
+	public void testConstructorWithNullAsDirectory() {
+		new ObjectGitManager(null, null);
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpeningEmptyDirectory() throws IOException {
+		new ObjectGitManager(Files.createTempDir(), null).open();
+	}
+
+	@Test
+	public void testReadingWrittenFileBeforeCommit() throws IOException, GitException {
+		GitManager git = new ObjectGitManager(Files.createTempDir(), null);
+		git.init();
+		git.write("conf/test.txt", bytes("Hello world"));
+
+		Assert.assertEquals("Hello world", string(git.read("conf/test.txt")));
+		Assert.assertNull(git.read("conf/other.txt"));
+	}
+
+	@Test
+	public void testReadingDirectory() throws IOException, GitException {
+		GitManager git = new ObjectGitManager(Files.createTempDir(), null);
+		git.init();
+		git.write("keydir/a.pub", bytes("a"));
+		git.write("keydir/b.pub", bytes("b"));
+		git.write("keydir/nested/c.pub", bytes("c"));
+		git.write("conf/gitolite.conf", bytes("d"));
+
+		Map<String, byte[]> contents = git.readDirectory("keydir");
+		Assert.assertEquals(2, contents.size());
+		Assert.assertEquals("a", string(contents.get("a.pub")));
+		Assert.assertEquals("b", string(contents.get("b.pub")));
+	}
+
+	@Test
+	public void testWritingAndRemovingManyFilesBeforeCommit() throws IOException, GitException {
+		File dir = Files.createTempDir();
+		GitManager git = new ObjectGitManager(dir, null);
+		git.init();
+		git.write("keydir/unchanged.pub", bytes("unchanged"));
+		git.write("keydir/removed.pub", bytes("removed"));
+		git.commit("Initial commit");
+
+		for (int i = 0; i < 100; i++) {
+			git.write("keydir/file-" + i + ".pub", bytes("content-" + i));
+		}
+		git.write("keydir/file-0.pub", bytes("rewritten"));
+		git.write("keydir/unchanged.pub", bytes("unchanged"));
+		git.remove("keydir/removed.pub");
+		git.write("keydir/file-1.pub", bytes("written after a removal"));
+		git.commit("Wrote many files");
+
+		GitManager reopened = new ObjectGitManager(dir, null);
+		reopened.open();
+		Map<String, byte[]> contents = reopened.readDirectory("keydir");
+		Assert.assertEquals(101, contents.size());
+		Assert.assertEquals("rewritten", string(contents.get("file-0.pub")));
+		Assert.assertEquals("written after a removal", string(contents.get("file-1.pub")));
+		Assert.assertEquals("unchanged", string(contents.get("unchanged.pub")));
+		Assert.assertNull(contents.get("removed.pub"));
+	}
+
+	@Test
+	public void testWritingObjectsWithBatchDurability() throws IOException, GitException {
+		File dir = Files.createTempDir();
+		GitManager git = new ObjectGitManager(dir, null, null, Durability.BATCH);
+		git.init();
+		git.write("test.txt", bytes("Hello world"));
+		git.commit("Wrote a file durably");
+
+		GitManager reopened = new ObjectGitManager(dir, null);
+		reopened.open();
+		Assert.assertEquals("Hello world", string(reopened.read("test.txt")));
+		Assert.assertFalse(Git.open(dir).getRepository().getConfig().getBoolean("core", "fsyncObjectFiles", false));
+	}
+
+	@Test
+	public void testCommittedContentsCanBeOpenedAgain() throws IOException, GitException {
+		File dir = Files.createTempDir();
+		GitManager git = new ObjectGitManager(dir, null);
+		git.init();
+		git.write("test.txt", bytes("Hello world"));
+		git.commitChanges();
+
+		GitManager reopened = new ObjectGitManager(dir, null);
+		reopened.open();
+		Assert.assertEquals("Hello world", string(reopened.read("test.txt")));
+	}
+
+	@Test
+	public void testPushingToRemoteRepo() throws IOException, ServiceUnavailable, GitException {
+		File location = Files.createTempDir();
+		GitManager orig = new JGitManager(location, null);
+		orig.init();
+		write(new File(location, "existing.txt"), "Existing");
+		orig.commitChanges();
+
+		GitManager git = new ObjectGitManager(Files.createTempDir(), null);
+		git.clone(location.getAbsolutePath());
+		Assert.assertEquals("Existing", string(git.read("existing.txt")));
+
+		git.write("test.txt", bytes("Hello world"));
+		git.remove("existing.txt");
+		git.commit("Changed files");
+		git.push();
+
+		File cloneDirectory = Files.createTempDir();
+		new JGitManager(cloneDirectory, null).clone(location.getAbsolutePath());
+		Assert.assertEquals("Hello world", Files.toString(new File(cloneDirectory, "test.txt"), Charsets.UTF_8));
+		Assert.assertFalse(new File(cloneDirectory, "existing.txt").exists());
+	}
+
+	@Test
+	public void testPullingFromExistingRepo() throws IOException, ServiceUnavailable, GitException {
+		File location = Files.createTempDir();
+		GitManager orig = new JGitManager(location, null);
+		orig.init();
+		orig.commitChanges();
+
+		GitManager git = new ObjectGitManager(Files.createTempDir(), null);
+		git.clone(location.getAbsolutePath());
+
+		write(new File(location, "test.txt"), "Hello world");
+		orig.commitChanges();
+
+		Assert.assertTrue(git.pull());
+		Assert.assertEquals("Hello world", string(git.read("test.txt")));
+	}
+
+	@Test
+	public void testCloningSingleBranch() throws Exception {
+		File location = Files.createTempDir();
+		GitManager orig = new JGitManager(location, null);
+		orig.init();
+		write(new File(location, "first.txt"), "First");
+		orig.commitChanges();
+		Git.open(location).branchCreate().setName("stable").call();
+		write(new File(location, "second.txt"), "Second");
+		orig.commitChanges();
+
+		File directory = Files.createTempDir();
+		GitManager git = new ObjectGitManager(directory, null, "stable");
+		git.clone(location.getAbsolutePath());
+
+		Assert.assertEquals("First", string(git.read("first.txt")));
+		Assert.assertNull(git.read("second.txt"));
+		for (String ref : Git.open(directory).getRepository().getAllRefs().keySet()) {
+			Assert.assertFalse(ref, ref.endsWith("/master"));
+		}
+	}
+
+	private static byte[] bytes(String contents) {
+		return contents.getBytes(Charsets.UTF_8);
+	}
+
+	private static String string(byte[] contents) {
+		return new String(contents, Charsets.UTF_8);
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		writer.write(contents);
+		writer.close();
+	}
+
+}
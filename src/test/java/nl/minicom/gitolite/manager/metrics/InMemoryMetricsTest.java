@@ -0,0 +1,71 @@
+package nl.minicom.gitolite.manager.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InMemoryMetricsTest {
+
+	private final InMemoryMetrics metrics = new InMemoryMetrics();
+
+	@Test
+	public void testThatCounterIsSharedByName() {
+		metrics.counter("test").increment(2);
+		metrics.counter("test").increment(3);
+
+		Assert.assertEquals(5, metrics.counter("test").getCount());
+		Assert.assertEquals(Long.valueOf(5), metrics.getCounts().get("test"));
+	}
+
+	@Test
+	public void testThatTimerAggregatesDurationsInNanoseconds() {
+		metrics.timer("test").record(1, TimeUnit.MILLISECONDS);
+		metrics.timer("test").record(3, TimeUnit.MILLISECONDS);
+
+		InMemoryMetrics.Aggregate timer = metrics.getAggregates().get("test");
+		Assert.assertEquals(2, timer.getCount());
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1), timer.getMinimum());
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(3), timer.getMaximum());
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(2), timer.getMean(), 0.0);
+	}
+
+	@Test
+	public void testThatEmptyHistogramReportsZero() {
+		InMemoryMetrics.Aggregate histogram = metrics.histogram("test");
+
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getMinimum());
+		Assert.assertEquals(0, histogram.getMaximum());
+	}
+
+	@Test
+	public void testThatGaugeIsReadWhenRequested() {
+		final long[] value = { 1 };
+		metrics.gauge("test", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return value[0];
+			}
+		});
+		value[0] = 2;
+
+		Assert.assertEquals(Long.valueOf(2), metrics.getGaugeValue("test"));
+		Assert.assertNull(metrics.getGaugeValue("other"));
+	}
+
+	@Test
+	public void testThatCounterAndGaugeCanShareAName() {
+		metrics.counter("test").increment(3);
+		metrics.gauge("test", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return 7;
+			}
+		});
+
+		Assert.assertEquals(Long.valueOf(3), metrics.getCounts().get("test"));
+		Assert.assertEquals(Long.valueOf(7), metrics.getGaugeValues().get("test"));
+	}
+
+}
@@ -0,0 +1,177 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.List;
+
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class BulkTest {
+
+	private static final String KEY = "ssh-rsa AAAAB3NzaC1yc2EAAAADAQABAAABAQC test@localhost";
+
+	@Test
+	public void testThatBulkCreatesUsersGroupsAndRepositories() {
+		Config config = new Config();
+		User existing = config.createUser("existing-user");
+
+		config.bulk()
+			.addUsers("test-user", "other-user")
+			.addGroups("@test-group")
+			.addRepositories("test-repo", "other-repo")
+			.setKey("test-user", "laptop", KEY)
+			.addToGroup("@test-group", "test-user", "existing-user")
+			.grant("test-repo", Permission.READ_WRITE, "@test-group")
+			.grant("other-repo", Permission.ALL, "other-user")
+			.apply();
+
+		User user = config.getUser("test-user");
+		Group group = config.getGroup("@test-group");
+		Assert.assertEquals(ImmutableMap.of("laptop", KEY), user.getKeys());
+		Assert.assertTrue(group.containsUser(user));
+		Assert.assertTrue(group.containsUser(existing));
+
+		EffectivePermissions permissions = config.getEffectivePermissions();
+		Assert.assertEquals(Permission.READ_WRITE, permissions.getPermission(existing, config.getRepository("test-repo")));
+		Assert.assertEquals(Permission.ALL, permissions.getPermission(config.getUser("other-user"),
+				config.getRepository("other-repo")));
+	}
+
+	@Test
+	public void testThatBulkRecordsOneChangesetWhichReplaysToTheSameConfig() throws Exception {
+		Config config = new Config();
+		config.createUser("existing-user");
+		config.getRecorder().record();
+
+		config.bulk()
+			.addUsers("test-user")
+			.addGroups("@test-group")
+			.addRepositories("test-repo")
+			.setKey("existing-user", "laptop", KEY)
+			.addToGroup("@test-group", "test-user", "existing-user")
+			.grant("test-repo", Permission.READ_ONLY, "test-user", "@test-group")
+			.apply();
+		List<Modification> recorded = config.getRecorder().stop();
+
+		Assert.assertEquals(8, recorded.size());
+		Config target = new Config();
+		target.createUser("existing-user");
+		for (Modification modification : recorded) {
+			Assert.assertTrue(modification instanceof Operation);
+			modification.apply(target);
+		}
+		Assert.assertEquals(render(config), render(target));
+		Assert.assertEquals(ImmutableMap.of("laptop", KEY), target.getUser("existing-user").getKeys());
+	}
+
+	@Test
+	public void testThatBulkChangesNothingWhenAnyChangeIsRejected() {
+		Config config = new Config();
+		config.createRepository("test-repo");
+		config.getRecorder().record();
+		String expected = render(config);
+
+		try {
+			config.bulk()
+				.addUsers("test-user")
+				.addRepositories("other-repo", "test-repo")
+				.grant("other-repo", Permission.ALL, "test-user")
+				.apply();
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			// Expected.
+		}
+
+		Assert.assertEquals(expected, render(config));
+		Assert.assertNull(config.getUser("test-user"));
+		Assert.assertTrue(config.getRecorder().stop().isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testThatBulkRejectsUnknownMembers() {
+		Config config = new Config();
+		config.bulk()
+			.addRepositories("test-repo")
+			.grant("test-repo", Permission.ALL, "unknown-user")
+			.apply();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testThatBulkRejectsExistingMembers() {
+		Config config = new Config();
+		config.createGroup("@test-group").add(config.createUser("test-user"));
+		config.bulk().addToGroup("@test-group", "test-user").apply();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testThatBulkRejectsInvalidNamesWhenTheyAreAdded() {
+		new Config().bulk().addUsers("test-user", "#invalid");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testThatBulkRejectsRepositoriesWhichAreAddedTwice() {
+		new Config().bulk().addRepositories("test-repo").addRepositories("test-repo").apply();
+	}
+
+	@Test
+	public void testThatBulkCanOnlyBeAppliedOnce() {
+		Config config = new Config();
+		config.createUser("test-user");
+		config.getRecorder().record();
+		Bulk bulk = config.bulk().setKey("test-user", "laptop", KEY);
+		bulk.apply();
+
+		try {
+			bulk.apply();
+			Assert.fail();
+		}
+		catch (IllegalStateException e) {
+			// Expected.
+		}
+		Assert.assertEquals(1, config.getRecorder().stop().size());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testThatBulkCannotModifyReadOnlyConfig() {
+		Config config = new Config();
+		config.freeze();
+		config.bulk().addUsers("test-user").apply();
+	}
+
+	@Test
+	public void testThatRollbackToSavepointReversesBulk() {
+		Config config = new Config();
+		User user = config.createUser("test-user");
+		user.setKey("laptop", KEY);
+		config.createGroup("@test-group");
+		config.createRepository("test-repo");
+		String expected = render(config);
+
+		config.setSavepoint();
+		config.bulk()
+			.addUsers("other-user")
+			.addRepositories("other-repo")
+			.setKey("test-user", "desktop", KEY)
+			.addToGroup("@test-group", "test-user", "other-user")
+			.grant("test-repo", Permission.ALL, "other-user", "@test-group")
+			.apply();
+		config.rollbackToSavepoint();
+		config.releaseSavepoint();
+
+		Assert.assertEquals(expected, render(config));
+		Assert.assertNull(config.getUser("other-user"));
+		Assert.assertNull(config.getRepository("other-repo"));
+		Assert.assertEquals(ImmutableMap.of("laptop", KEY), user.getKeys());
+	}
+
+	private static String render(Config config) {
+		StringBuilder builder = new StringBuilder();
+		ConfigWriter.render(config, builder);
+		return builder.toString();
+	}
+
+}
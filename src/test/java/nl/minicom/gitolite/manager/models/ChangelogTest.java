@@ -0,0 +1,92 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.util.List;
+
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class ChangelogTest {
+
+	private static final String KEY = "ssh-rsa AAAAB3NzaC1yc2EAAAADAQABAAABAQC test@localhost";
+
+	@Test
+	public void testThatOperationsAreReturnedInOrder() {
+		Changelog changelog = new Changelog();
+		changelog.add(Operation.Type.CREATE_USER, "test-user", null, null);
+		changelog.add(Operation.Type.SET_KEY, "test-user", "laptop", KEY);
+		changelog.add(Operation.Type.SET_USER_PERMISSION, "test-repo", "test-user", Permission.ALL.name());
+
+		List<Modification> modifications = changelog.toList();
+		Assert.assertEquals(3, modifications.size());
+		assertOperation(modifications.get(0), Operation.Type.CREATE_USER, "test-user");
+		assertOperation(modifications.get(1), Operation.Type.SET_KEY, "test-user", "laptop", KEY);
+		assertOperation(modifications.get(2), Operation.Type.SET_USER_PERMISSION, "test-repo", "test-user", "ALL");
+	}
+
+	@Test
+	public void testThatArgumentsAreStoredOnce() {
+		Changelog changelog = new Changelog();
+		changelog.add(Operation.Type.CREATE_REPOSITORY, new String("test-repo"), null, null);
+		changelog.add(Operation.Type.REVOKE_USER_PERMISSIONS, new String("test-repo"), "test-user", null);
+
+		List<Modification> modifications = changelog.toList();
+		Assert.assertSame(((Operation) modifications.get(0)).getArguments().get(0),
+				((Operation) modifications.get(1)).getArguments().get(0));
+	}
+
+	@Test
+	public void testThatOtherModificationsAreKept() {
+		Modification other = new Modification("Touching: %s", "test-repo") {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void apply(Config config) {
+				// Does nothing.
+			}
+		};
+
+		Changelog first = new Changelog();
+		first.add(Operation.Type.CREATE_REPOSITORY, "test-repo", null, null);
+		first.add(other);
+		Changelog second = new Changelog();
+		second.add(Operation.Type.CREATE_GROUP, "@test-group", null, null);
+		second.addAll(first);
+
+		List<Modification> modifications = second.toList();
+		Assert.assertEquals(3, modifications.size());
+		assertOperation(modifications.get(1), Operation.Type.CREATE_REPOSITORY, "test-repo");
+		Assert.assertSame(other, modifications.get(2));
+		Assert.assertEquals("Touching: test-repo", other.toString());
+	}
+
+	@Test
+	public void testThatStoppingTheRecorderDiscardsTheRecording() {
+		Config config = new Config();
+		config.getRecorder().record();
+		for (int i = 0; i < 100; i++) {
+			config.createRepository("test-repo-" + i);
+		}
+
+		Assert.assertEquals(100, config.getRecorder().stop().size());
+		Assert.assertTrue(config.getRecorder().stop().isEmpty());
+	}
+
+	@Test
+	public void testThatDescriptionIsFormattedOnRequest() {
+		Changelog changelog = new Changelog();
+		changelog.add(Operation.Type.ADD_USER_TO_GROUP, "@test-group", "test-user", null);
+
+		Assert.assertEquals("Adding user: 'test-user' to group: '@test-group'", changelog.toList().get(0).toString());
+	}
+
+	private static void assertOperation(Modification modification, Operation.Type type, String... arguments) {
+		Operation operation = (Operation) modification;
+		Assert.assertEquals(type, operation.getType());
+		Assert.assertEquals(ImmutableList.copyOf(arguments), operation.getArguments());
+	}
+
+}
@@ -0,0 +1,639 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.minicom.gitolite.manager.exceptions.GitException;
+import nl.minicom.gitolite.manager.exceptions.ModificationException;
+import nl.minicom.gitolite.manager.exceptions.PushRejected;
+import nl.minicom.gitolite.manager.exceptions.ServiceUnavailable;
+import nl.minicom.gitolite.manager.git.JGitManager;
+import nl.minicom.gitolite.manager.git.ObjectGitManager;
+import nl.minicom.gitolite.manager.metrics.InMemoryMetrics;
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class ConfigManagerTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ConfigManagerTest.class);
+
+	private static final String KEY = "ssh-rsa AAAAB3NzaC1yc2EAAAADAQABAAABAQC admin@localhost";
+
+	private File origin;
+
+	@Before
+	public void setUp() throws IOException, GitException {
+		origin = Files.createTempDir();
+		JGitManager git = new JGitManager(origin, null);
+		git.init();
+
+		File confDir = new File(origin, "conf");
+		confDir.mkdir();
+		write(new File(confDir, "gitolite.conf"), "repo gitolite-admin\n    RW+ = admin\n");
+
+		File keyDir = new File(origin, "keydir");
+		keyDir.mkdir();
+		write(new File(keyDir, "admin.pub"), KEY);
+
+		git.commitChanges();
+	}
+
+	@Test
+	public void testReadingConfigFromRemoteRepository() throws Exception {
+		Config config = createManager().get();
+
+		Assert.assertTrue(config.hasRepository("gitolite-admin"));
+		Assert.assertEquals(KEY, config.getUser("admin").getKeys().get(""));
+	}
+
+	@Test
+	public void testApplyingChangesToRemoteRepository() throws Exception {
+		ConfigManager manager = createManager();
+		Config config = manager.get();
+		config.createRepository("test-repo").setPermission(config.getUser("admin"), Permission.READ_ONLY);
+		manager.apply(config);
+
+		Config reread = createManager().get();
+		Assert.assertEquals(Permission.READ_ONLY,
+				reread.getEffectivePermissions().getPermission(reread.getUser("admin"), reread.getRepository("test-repo")));
+	}
+
+	@Test
+	public void testApplyingManyChangesetsConcurrently() throws Exception {
+		ConfigManager manager = createManager();
+
+		List<ListenableFuture<Void>> futures = Lists.newArrayList();
+		for (int i = 0; i < 50; i++) {
+			Config config = manager.get();
+			config.createRepository("repo-" + i);
+			futures.add(manager.applyAsync(config));
+		}
+		Futures.allAsList(futures).get();
+
+		Config reread = createManager().get();
+		for (int i = 0; i < 50; i++) {
+			Assert.assertTrue(reread.hasRepository("repo-" + i));
+		}
+	}
+
+	@Test
+	public void testThatViewReflectsAppliedChanges() throws Exception {
+		ConfigManager manager = createManager();
+		Config config = manager.get();
+		config.createRepository("test-repo");
+		manager.apply(config);
+
+		Config view = manager.view();
+		Assert.assertTrue(view.isReadOnly());
+		Assert.assertTrue(view.hasRepository("test-repo"));
+	}
+
+	@Test
+	public void testThatChangesetsWithinLingerTimeArePushedTogether() throws Exception {
+		final AtomicInteger pushes = new AtomicInteger();
+		JGitManager git = new JGitManager(Files.createTempDir(), null) {
+			@Override
+			public void push() throws ServiceUnavailable, GitException {
+				pushes.incrementAndGet();
+				super.push();
+			}
+		};
+		
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setLingerTime(500, TimeUnit.MILLISECONDS);
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), git, settings);
+		manager.get();
+
+		int changesets = 20;
+		long start = System.nanoTime();
+		List<ListenableFuture<Void>> futures = Lists.newArrayList();
+		for (int i = 0; i < changesets; i++) {
+			Config config = manager.get();
+			config.createRepository("repo-" + i);
+			futures.add(manager.applyAsync(config));
+			Thread.sleep(10);
+		}
+		Futures.allAsList(futures).get();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		log.info("Applied {} changesets/s using {} pushes/s", changesets / seconds, pushes.get() / seconds);
+		Assert.assertTrue("Expected fewer pushes than changesets, but got: " + pushes.get(), pushes.get() < changesets);
+	}
+
+	@Test
+	public void testThatBatchSizeLimitsLinger() throws Exception {
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setLingerTime(1, TimeUnit.HOURS);
+		settings.setMaximumBatchSize(1);
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), 
+				new JGitManager(Files.createTempDir(), null), settings);
+
+		Config config = manager.get();
+		config.createRepository("test-repo");
+		manager.applyAsync(config).get(30, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testThatRemovedKeysAreRemovedFromRemoteRepository() throws Exception {
+		ConfigManager manager = createManager();
+		Config config = manager.get();
+		config.createUser("test-user").setKey("laptop", KEY);
+		manager.apply(config);
+
+		config = manager.get();
+		config.getUser("test-user").removeKey("laptop");
+		manager.apply(config);
+
+		Config reread = createManager().get();
+		Assert.assertTrue(reread.getUser("admin").getKeys().containsKey(""));
+		Assert.assertNull(reread.getUser("test-user"));
+	}
+
+	@Test
+	public void testThatUnchangedConfigIsNotPushed() throws Exception {
+		final AtomicInteger pushes = new AtomicInteger();
+		JGitManager git = new JGitManager(Files.createTempDir(), null) {
+			@Override
+			public void push() throws ServiceUnavailable, GitException {
+				pushes.incrementAndGet();
+				super.push();
+			}
+		};
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), git);
+
+		Config config = manager.get();
+		config.createRepository("test-repo");
+		manager.apply(config);
+
+		config = manager.get();
+		Repository repository = config.getRepository("test-repo");
+		config.removeRepository(repository);
+		config.createRepository("test-repo");
+		manager.apply(config);
+
+		Assert.assertEquals(1, pushes.get());
+	}
+
+	@Test
+	public void testApplyingChangesWithoutWorkingDirectory() throws Exception {
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), 
+				new ObjectGitManager(Files.createTempDir(), null));
+		Config config = manager.get();
+		Assert.assertEquals(KEY, config.getUser("admin").getKeys().get(""));
+
+		config.createUser("test-user").setKey("laptop", KEY);
+		config.createRepository("test-repo").setPermission(config.getUser("test-user"), Permission.ALL);
+		manager.apply(config);
+
+		Config reread = createManager().get();
+		Assert.assertEquals(KEY, reread.getUser("test-user").getKeys().get("laptop"));
+		Assert.assertTrue(reread.hasRepository("test-repo"));
+	}
+
+	@Test
+	public void testApplyingChangesToSingleBranchBareRepository() throws Exception {
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setBareRepository(true);
+		settings.setBranch("master");
+		File directory = Files.createTempDir();
+		ConfigManager manager = ConfigManager.create(origin.getAbsolutePath(), directory, null, settings);
+
+		Config config = manager.get();
+		config.createRepository("test-repo");
+		manager.apply(config);
+
+		Assert.assertFalse(new File(directory, "conf").exists());
+		Assert.assertTrue(createManager().get().hasRepository("test-repo"));
+	}
+
+	@Test
+	public void testThatFullQueueRejectsNewChangesetWhenFailingFast() throws Exception {
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setQueueCapacity(1);
+		settings.setOverflowPolicy(OverflowPolicy.FAIL_FAST);
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), 
+				new JGitManager(Files.createTempDir(), null), settings);
+		
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ListenableFuture<Void> blocking = manager.applyAsync(createBlockingChangeset(manager, started, release));
+		started.await();
+		
+		ListenableFuture<Void> queued = manager.applyAsync(createChangeset(manager, "queued-repo"));
+		ListenableFuture<Void> rejected = manager.applyAsync(createChangeset(manager, "rejected-repo"));
+		assertRejected(rejected);
+		
+		release.countDown();
+		blocking.get(30, TimeUnit.SECONDS);
+		queued.get(30, TimeUnit.SECONDS);
+		Assert.assertTrue(manager.view().hasRepository("queued-repo"));
+		Assert.assertFalse(manager.view().hasRepository("rejected-repo"));
+	}
+
+	@Test
+	public void testThatFullQueueDropsOldestChangesetWhenConfigured() throws Exception {
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setQueueCapacity(1);
+		settings.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), 
+				new JGitManager(Files.createTempDir(), null), settings);
+		
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ListenableFuture<Void> blocking = manager.applyAsync(createBlockingChangeset(manager, started, release));
+		started.await();
+		
+		ListenableFuture<Void> dropped = manager.applyAsync(createChangeset(manager, "dropped-repo"));
+		ListenableFuture<Void> queued = manager.applyAsync(createChangeset(manager, "queued-repo"));
+		assertRejected(dropped);
+		
+		release.countDown();
+		blocking.get(30, TimeUnit.SECONDS);
+		queued.get(30, TimeUnit.SECONDS);
+		Assert.assertTrue(manager.view().hasRepository("queued-repo"));
+		Assert.assertFalse(manager.view().hasRepository("dropped-repo"));
+	}
+
+	@Test
+	public void testThatConflictingChangesetIsRejectedWithConflictingEntity() throws Exception {
+		ConfigManager manager = createManager();
+		Config first = manager.get();
+		Config second = manager.get();
+		first.createRepository("test-repo");
+		second.createRepository("test-repo");
+
+		manager.apply(first);
+		try {
+			manager.apply(second);
+			Assert.fail("Expected a conflict");
+		}
+		catch (ModificationException e) {
+			Assert.assertEquals(EntityKey.repository("test-repo"), EntityKey.of(e));
+		}
+	}
+
+	@Test
+	public void testThatChangesToDifferentPartsOfRepositoryDoNotConflict() throws Exception {
+		ConfigManager manager = createManager();
+		Config config = manager.get();
+		config.createRepository("test-repo");
+		config.createUser("test-user");
+		manager.apply(config);
+
+		Config first = manager.get();
+		Config second = manager.get();
+		first.getRepository("test-repo").setPermission(first.getUser("admin"), Permission.ALL);
+		second.getRepository("test-repo").setPermission(second.getUser("test-user"), Permission.READ_ONLY);
+		manager.apply(first);
+		manager.apply(second);
+
+		EffectivePermissions permissions = manager.view().getEffectivePermissions();
+		Repository repository = manager.view().getRepository("test-repo");
+		Assert.assertEquals(Permission.ALL, permissions.getPermission(manager.view().getUser("admin"), repository));
+		Assert.assertEquals(Permission.READ_ONLY, permissions.getPermission(manager.view().getUser("test-user"), repository));
+	}
+
+	@Test
+	public void testThatChangesetTouchingForgottenPartsIsRejected() throws Exception {
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setConflictHistorySize(1);
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), 
+				new JGitManager(Files.createTempDir(), null), settings);
+		Config stale = manager.get();
+		manager.apply(createChangeset(manager, "first-repo"));
+		manager.apply(createChangeset(manager, "second-repo"));
+
+		stale.createRepository("first-repo");
+		try {
+			manager.apply(stale);
+			Assert.fail("Expected a conflict");
+		}
+		catch (ModificationException e) {
+			Assert.assertEquals(EntityKey.repository("first-repo"), EntityKey.of(e));
+		}
+
+		Config current = manager.get();
+		current.getRepository("first-repo").setPermission(current.getUser("admin"), Permission.ALL);
+		manager.apply(current);
+	}
+
+	@Test
+	public void testThatRejectedPushIsRetriedOnTopOfRemoteChanges() throws Exception {
+		ConfigManager manager = createManager();
+		manager.get();
+		pushFromOtherManager("remote-repo");
+
+		manager.apply(createChangeset(manager, "local-repo"));
+
+		Config reread = createManager().get();
+		Assert.assertTrue(reread.hasRepository("remote-repo"));
+		Assert.assertTrue(reread.hasRepository("local-repo"));
+		Assert.assertTrue(manager.view().hasRepository("remote-repo"));
+	}
+
+	@Test
+	public void testThatRejectedPushIsRetriedOnTopOfRemoteChangesWithoutWorkingDirectory() throws Exception {
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), 
+				new ObjectGitManager(Files.createTempDir(), null));
+		manager.get();
+		pushFromOtherManager("remote-repo");
+
+		manager.apply(createChangeset(manager, "local-repo"));
+
+		Config reread = createManager().get();
+		Assert.assertTrue(reread.hasRepository("remote-repo"));
+		Assert.assertTrue(reread.hasRepository("local-repo"));
+	}
+
+	@Test
+	public void testThatChangesetConflictingWithRemoteChangesIsRejected() throws Exception {
+		ConfigManager manager = createManager();
+		Config config = manager.get();
+		config.createRepository("test-repo");
+
+		ConfigManager other = createManager();
+		Config remote = other.get();
+		remote.createRepository("test-repo").setPermission(remote.getUser("admin"), Permission.ALL);
+		other.apply(remote);
+
+		try {
+			manager.apply(config);
+			Assert.fail("Expected a conflict");
+		}
+		catch (ModificationException e) {
+			Assert.assertEquals(EntityKey.repository("test-repo"), EntityKey.of(e));
+		}
+	}
+
+	@Test
+	public void testThatRejectedPushFailsAfterMaximumAttempts() throws Exception {
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setMaximumPushAttempts(1);
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), 
+				new JGitManager(Files.createTempDir(), null), settings);
+		manager.get();
+		pushFromOtherManager("remote-repo");
+
+		try {
+			manager.applyAsync(createChangeset(manager, "local-repo")).get(30, TimeUnit.SECONDS);
+			Assert.fail("Expected the push to be rejected");
+		}
+		catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof PushRejected);
+		}
+	}
+
+	@Test
+	public void testThatUnexpectedPushFailureFailsChangeset() throws Exception {
+		JGitManager git = new JGitManager(Files.createTempDir(), null) {
+			@Override
+			public void push() {
+				throw new UnsupportedOperationException("Pushing is not supported");
+			}
+		};
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), git);
+
+		try {
+			manager.applyAsync(createChangeset(manager, "local-repo")).get(30, TimeUnit.SECONDS);
+			Assert.fail("Expected the push to fail");
+		}
+		catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof UnsupportedOperationException);
+		}
+	}
+
+	@Test
+	public void testThatChangesetWhichFailedToPushIsNotPushedWithNextChangeset() throws Exception {
+		final AtomicInteger failures = new AtomicInteger(1);
+		JGitManager git = new JGitManager(Files.createTempDir(), null) {
+			@Override
+			public void push() throws ServiceUnavailable, GitException {
+				if (failures.getAndDecrement() > 0) {
+					throw new ServiceUnavailable(new IOException("The remote repository is unavailable"));
+				}
+				super.push();
+			}
+		};
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), git);
+
+		try {
+			manager.apply(createChangeset(manager, "failed-repo"));
+			Assert.fail("Expected the push to fail");
+		}
+		catch (RuntimeException e) {
+			Assert.assertTrue(e.getCause() instanceof ServiceUnavailable);
+		}
+		Assert.assertFalse(manager.view().hasRepository("failed-repo"));
+
+		manager.apply(createChangeset(manager, "next-repo"));
+
+		Config reread = createManager().get();
+		Assert.assertTrue(reread.hasRepository("next-repo"));
+		Assert.assertFalse(reread.hasRepository("failed-repo"));
+	}
+
+	@Test
+	public void testThatPeriodicRefreshPicksUpRemoteChanges() throws Exception {
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setRefreshInterval(50, TimeUnit.MILLISECONDS);
+		settings.setRefreshJitter(10, TimeUnit.MILLISECONDS);
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), 
+				new JGitManager(Files.createTempDir(), null), settings);
+		try {
+			manager.get();
+			pushFromOtherManager("remote-repo");
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (!manager.view().hasRepository("remote-repo") && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertTrue(manager.view().hasRepository("remote-repo"));
+		}
+		finally {
+			manager.close();
+		}
+	}
+
+	@Test
+	public void testThatRefreshKeepsConfigWhenRemoteIsUnchanged() throws Exception {
+		ConfigManager manager = createManager();
+		Config view = manager.view();
+		manager.refresh();
+
+		Assert.assertSame(view, manager.view());
+	}
+
+	@Test
+	public void testThatRefreshResetsStaleness() throws Exception {
+		ConfigManager manager = createManager();
+		Assert.assertEquals(Long.MAX_VALUE, manager.getStaleness(TimeUnit.MILLISECONDS));
+
+		manager.get();
+		Thread.sleep(50);
+		Assert.assertTrue(manager.getStaleness(TimeUnit.MILLISECONDS) >= 50);
+
+		manager.refresh();
+		Assert.assertTrue(manager.getStaleness(TimeUnit.MILLISECONDS) < 50);
+	}
+
+	@Test
+	public void testThatRefreshOnlyUpdatesChangedKeys() throws Exception {
+		ConfigManager manager = createManager();
+		Config view = manager.view();
+
+		ConfigManager other = createManager();
+		Config config = other.get();
+		config.getUser("admin").setKey("laptop", KEY);
+		config.createUser("test-user").setKey("", KEY);
+		other.apply(config);
+
+		manager.refresh();
+		Assert.assertNotSame(view, manager.view());
+		Assert.assertEquals(2, manager.view().getUser("admin").getKeys().size());
+		Assert.assertEquals(KEY, manager.view().getUser("test-user").getKeys().get(""));
+
+		config = other.get();
+		config.getUser("admin").removeKey("laptop");
+		other.apply(config);
+
+		manager.refresh();
+		Assert.assertEquals(1, manager.view().getUser("admin").getKeys().size());
+		Assert.assertEquals(createManager().get(), manager.get());
+	}
+
+	@Test
+	public void testThatRefreshKeepsKeysWhenOnlyConfigFileChanged() throws Exception {
+		ConfigManager manager = createManager();
+		manager.get();
+		pushFromOtherManager("remote-repo");
+
+		manager.refresh();
+		Assert.assertTrue(manager.view().hasRepository("remote-repo"));
+		Assert.assertEquals(KEY, manager.view().getUser("admin").getKeys().get(""));
+		Assert.assertEquals(createManager().get(), manager.get());
+	}
+
+	@Test
+	public void testThatJournaledChangesetsAreReplayedOnStartup() throws Exception {
+		File journalDirectory = Files.createTempDir();
+		Journal journal = new Journal(journalDirectory, 1024);
+		journal.open();
+		journal.append(ImmutableList.of(Operation.createRepository("journaled-repo")));
+		journal.close();
+
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setJournalDirectory(journalDirectory);
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), 
+				new JGitManager(Files.createTempDir(), null), settings);
+		try {
+			manager.get();
+			manager.apply(createChangeset(manager, "test-repo"));
+			
+			Config config = createManager().get();
+			Assert.assertTrue(config.hasRepository("journaled-repo"));
+			Assert.assertTrue(config.hasRepository("test-repo"));
+			Assert.assertEquals(1, journalDirectory.listFiles().length);
+		}
+		finally {
+			manager.close();
+		}
+		Assert.assertEquals(0, journalDirectory.listFiles().length);
+	}
+
+	@Test
+	public void testThatMetricsAreReportedForEachStage() throws Exception {
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		ConfigManagerSettings settings = new ConfigManagerSettings();
+		settings.setMetrics(metrics);
+		ConfigManager manager = new ConfigManager(origin.getAbsolutePath(), 
+				new JGitManager(Files.createTempDir(), null), settings);
+		
+		Config conflicting = createChangeset(manager, "test-repo");
+		manager.apply(createChangeset(manager, "test-repo"));
+		manager.apply(createChangeset(manager, "other-repo"));
+		manager.applyAsync(conflicting);
+		manager.apply(createChangeset(manager, "another-repo"));
+		manager.close();
+
+		for (String timer : new String[] { "git.clone", "config.read", "config.copy", "worker.apply", 
+				"config.write", "keys.write", "git.commit", "git.push", "worker.publish" }) {
+			Assert.assertTrue(timer, metrics.getAggregates().get(timer).getCount() > 0);
+		}
+		Assert.assertEquals(3, metrics.counter("worker.units.succeeded").getCount());
+		Assert.assertEquals(1, metrics.counter("worker.units.failed").getCount());
+		Assert.assertEquals(Long.valueOf(0), metrics.getGaugeValue("worker.queue.depth"));
+	}
+
+	private static Config createChangeset(ConfigManager manager, String repositoryName) throws Exception {
+		Config config = manager.get();
+		config.createRepository(repositoryName);
+		return config;
+	}
+
+	/**
+	 * Creates a changeset which blocks the worker while it's being applied, until it's released.
+	 */
+	private static Config createBlockingChangeset(ConfigManager manager, final CountDownLatch started, 
+			final CountDownLatch release) throws Exception {
+		
+		Config config = createChangeset(manager, "blocking-repo");
+		config.getRecorder().append(new Modification("Blocking the worker") {
+			@Override
+			public void apply(Config config) throws ModificationException {
+				started.countDown();
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					throw new ModificationException();
+				}
+			}
+		});
+		return config;
+	}
+
+	private static void assertRejected(ListenableFuture<Void> future) throws InterruptedException {
+		Assert.assertTrue(future.isDone());
+		try {
+			future.get();
+			Assert.fail("Expected the changeset to be rejected");
+		}
+		catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+	private void pushFromOtherManager(String repositoryName) throws Exception {
+		ConfigManager other = createManager();
+		other.apply(createChangeset(other, repositoryName));
+	}
+
+	private ConfigManager createManager() {
+		return new ConfigManager(origin.getAbsolutePath(), new JGitManager(Files.createTempDir(), null));
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		writer.write(contents);
+		writer.close();
+	}
+
+}
@@ -1,6 +1,7 @@
 package nl.minicom.gitolite.manager.models;
 
 import java.io.IOException;
+import java.io.StringReader;
 
 import nl.minicom.gitolite.manager.models.Config;
 import nl.minicom.gitolite.manager.models.Group;
@@ -71,4 +72,31 @@ public class ConfigReaderTest extends ConfigReaderTestingUtils {
 		verifyConfigsAreTheSame(expected, read("embedded-groups-config.conf"));
 	}
 	
+	@Test
+	public void testCommentsAndLineEndings() throws IOException {
+		Config expected = new Config(new Recorder());
+		Repository repo = expected.createRepository("test");
+		User user1 = expected.createUser("test-user-1");
+		User user2 = expected.createUser("test-user-2");
+		Group group = expected.createGroup("@test-group");
+		
+		group.add(user1);
+		repo.setPermission(group, Permission.ALL);
+		repo.setPermission(user2, Permission.READ_ONLY);
+		
+		String contents = "# A comment\r\n@test-group = test-user-1 # test-user-2\r\n\r\n"
+				+ "repo test    # Another comment\r    RW+ =\t@test-group\n\tR = test-user-2";
+		verifyConfigsAreTheSame(expected, ConfigReader.read(new StringReader(contents)));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownPermission() throws IOException {
+		ConfigReader.read(new StringReader("repo test\n    RWX = test-user\n"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testPermissionRuleWithoutEqualsSign() throws IOException {
+		ConfigReader.read(new StringReader("repo test\n    RW+ test-user\n"));
+	}
+	
 }
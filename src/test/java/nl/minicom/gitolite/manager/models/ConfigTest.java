@@ -4,6 +4,8 @@ package nl.minicom.gitolite.manager.models;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 public class ConfigTest {
@@ -281,4 +283,154 @@ public class ConfigTest {
 		new Config().getUser("");
 	}
 	
+	@Test
+	public void testThatRemovedRepositoryCanNoLongerBeFound() {
+		Config config = new Config();
+		Repository repository = config.createRepository(TEST_REPO);
+		config.removeRepository(repository);
+		
+		Assert.assertNull(config.getRepository(TEST_REPO));
+		Assert.assertFalse(config.hasRepository(TEST_REPO));
+	}
+	
+	@Test
+	public void testThatRepositoriesAreReturnedInOrderOfName() {
+		Config config = new Config();
+		Repository second = config.createRepository("repo-b");
+		Repository first = config.createRepository("repo-a");
+		Repository third = config.createRepository("repo-c");
+		
+		Assert.assertEquals(Lists.newArrayList(first, second, third), 
+				Lists.newArrayList(config.getRepositories()));
+	}
+	
+	@Test
+	public void testThatCopyContainsTheSameEntities() {
+		Config config = new Config();
+		User user = config.createUser(TEST_USER);
+		user.setKey("", "ssh-rsa AAAA");
+		Group group = config.createGroup(TEST_GROUP);
+		group.add(user);
+		config.createRepository(TEST_REPO).setPermission(group, Permission.ALL);
+		
+		Config copy = config.copy();
+		
+		Assert.assertEquals(config, copy);
+		Assert.assertEquals(user.getKeys(), copy.getUser(TEST_USER).getKeys());
+		Assert.assertEquals(group.getAllMembers(), copy.getGroup(TEST_GROUP).getAllMembers());
+		Assert.assertEquals(config.getRepository(TEST_REPO).getPermissions(), 
+				copy.getRepository(TEST_REPO).getPermissions());
+	}
+	
+	@Test
+	public void testThatChangesToCopyDoNotAffectOriginal() {
+		Config config = new Config();
+		config.createUser(TEST_USER).setKey("", "ssh-rsa AAAA");
+		config.createGroup(TEST_GROUP);
+		
+		Config copy = config.copy();
+		User copiedUser = copy.getUser(TEST_USER);
+		copiedUser.setKey("laptop", "ssh-rsa BBBB");
+		copy.getGroup(TEST_GROUP).add(copiedUser);
+		
+		Assert.assertEquals(1, config.getUser(TEST_USER).getKeys().size());
+		Assert.assertTrue(config.getGroup(TEST_GROUP).getUsers().isEmpty());
+		Assert.assertNotSame(config.getUser(TEST_USER), copiedUser);
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void testThatReadOnlyConfigRejectsNewRepositories() {
+		Config config = new Config();
+		config.freeze();
+		config.createRepository(TEST_REPO);
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void testThatEntitiesOfReadOnlyConfigRejectChanges() {
+		Config config = new Config();
+		User user = config.createUser(TEST_USER);
+		config.freeze();
+		user.setKey("", "ssh-rsa AAAA");
+	}
+	
+	@Test
+	public void testThatReadOnlyConfigCanStillBeRead() {
+		Config config = new Config();
+		Repository repository = config.createRepository(TEST_REPO);
+		config.freeze();
+		
+		Assert.assertTrue(config.isReadOnly());
+		Assert.assertEquals(repository, config.getRepository(TEST_REPO));
+		Assert.assertFalse(config.copy().isReadOnly());
+	}
+	
+	@Test
+	public void testThatRollbackToSavepointReversesAllChangesSinceSavepoint() {
+		Config config = new Config();
+		User user = config.createUser(TEST_USER);
+		user.setKey("laptop", "ssh-rsa AAAA");
+		Group group = config.createGroup(TEST_GROUP);
+		group.add(user);
+		Repository repo = config.createRepository(TEST_REPO);
+		repo.setPermission(group, Permission.READ_WRITE);
+		repo.setPermission(user, Permission.READ_ONLY);
+		String expected = render(config);
+		
+		config.setSavepoint();
+		user.setKey("desktop", "ssh-rsa BBBB");
+		user.removeKey("laptop");
+		group.remove(user);
+		Group other = config.createGroup("@other-group");
+		other.add(user);
+		group.add(other);
+		repo.setPermission(user, Permission.ALL);
+		repo.setPermission(other, Permission.READ_ONLY);
+		config.removeGroup(group);
+		config.removeUser(user);
+		config.removeRepository(repo);
+		config.createRepository("other-repo").setPermission(other, Permission.ALL);
+		config.rollbackToSavepoint();
+		config.releaseSavepoint();
+		
+		Assert.assertEquals(expected, render(config));
+		Assert.assertSame(user, config.getUser(TEST_USER));
+		Assert.assertEquals(ImmutableMap.of("laptop", "ssh-rsa AAAA"), user.getKeys());
+		Assert.assertNull(config.getGroup("@other-group"));
+		Assert.assertNull(config.getRepository("other-repo"));
+	}
+	
+	@Test
+	public void testThatRollbackOnlyReversesChangesSinceMostRecentSavepoint() {
+		Config config = new Config();
+		config.setSavepoint();
+		config.createRepository(TEST_REPO);
+		config.setSavepoint();
+		config.createUser(TEST_USER);
+		config.rollbackToSavepoint();
+		config.releaseSavepoint();
+		
+		Assert.assertNotNull(config.getRepository(TEST_REPO));
+		Assert.assertNull(config.getUser(TEST_USER));
+	}
+	
+	@Test
+	public void testThatRollbackInvalidatesEffectivePermissions() {
+		Config config = new Config();
+		User user = config.createUser(TEST_USER);
+		Repository repo = config.createRepository(TEST_REPO);
+		
+		config.setSavepoint();
+		repo.setPermission(user, Permission.ALL);
+		Assert.assertEquals(Permission.ALL, config.getEffectivePermissions().getPermission(user, repo));
+		config.rollbackToSavepoint();
+		
+		Assert.assertNull(config.getEffectivePermissions().getPermission(user, repo));
+	}
+	
+	private static String render(Config config) {
+		StringBuilder builder = new StringBuilder();
+		ConfigWriter.render(config, builder);
+		return builder.toString();
+	}
+	
 }
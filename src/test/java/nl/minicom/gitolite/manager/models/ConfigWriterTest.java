@@ -2,6 +2,7 @@ package nl.minicom.gitolite.manager.models;
 
 import java.io.IOException;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 public class ConfigWriterTest extends ConfigWriterTestingUtils {
@@ -69,4 +70,29 @@ public class ConfigWriterTest extends ConfigWriterTestingUtils {
 		validateWrittenConfig("embedded-groups-config.conf", config);
 	}
 	
+	@Test
+	public void testExactLayout() {
+		Config config = new Config();
+		Repository repo = config.createRepository("test");
+		User user1 = config.createUser("test-user-1");
+		User user2 = config.createUser("test-user-2");
+		Group group = config.createGroup("@test-group");
+		config.createGroup("@empty-group");
+		
+		group.add(user1);
+		group.add(user2);
+		repo.setPermission(group, Permission.ALL);
+		repo.setPermission(user1, Permission.READ_ONLY);
+		
+		StringBuilder builder = new StringBuilder();
+		ConfigWriter.render(config, builder);
+		Assert.assertEquals("@empty-group         = \n"
+				+ "@test-group          = test-user-1 test-user-2\n"
+				+ "\n"
+				+ "repo test\n"
+				+ "    RW+              = @test-group\n"
+				+ "    R                = test-user-1\n"
+				+ "\n", builder.toString());
+	}
+	
 }
@@ -0,0 +1,168 @@
+package nl.minicom.gitolite.manager.models;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class EffectivePermissionsTest {
+
+	private Config config;
+	private User alice;
+	private User bob;
+	private Group developers;
+	private Group staff;
+	private Repository repository;
+
+	@Before
+	public void setUp() {
+		config = new Config();
+		alice = config.createUser("alice");
+		bob = config.createUser("bob");
+		developers = config.createGroup("@developers");
+		staff = config.createGroup("@staff");
+		repository = config.createRepository("test-repo");
+
+		developers.add(alice);
+		staff.add(developers);
+	}
+
+	@Test
+	public void testThatUserWithoutAccessHasNoPermission() {
+		Assert.assertNull(config.getEffectivePermissions().getPermission(alice, repository));
+	}
+
+	@Test
+	public void testThatDirectPermissionIsResolved() {
+		repository.setPermission(bob, Permission.READ_ONLY);
+		Assert.assertEquals(Permission.READ_ONLY, config.getEffectivePermissions().getPermission(bob, repository));
+	}
+
+	@Test
+	public void testThatPermissionOfNestedGroupIsResolved() {
+		repository.setPermission(staff, Permission.READ_WRITE);
+		Assert.assertEquals(Permission.READ_WRITE, config.getEffectivePermissions().getPermission(alice, repository));
+		Assert.assertNull(config.getEffectivePermissions().getPermission(bob, repository));
+	}
+
+	@Test
+	public void testThatHighestPermissionWins() {
+		repository.setPermission(alice, Permission.READ_ONLY);
+		repository.setPermission(developers, Permission.ALL);
+		Assert.assertEquals(Permission.ALL, config.getEffectivePermissions().getPermission(alice, repository));
+	}
+
+	@Test
+	public void testThatAllGroupGrantsAccessToEveryUser() {
+		repository.setPermission(config.ensureGroupExists("@all"), Permission.READ_ONLY);
+
+		ImmutableMap<User, Permission> expected = ImmutableMap.of(alice, Permission.READ_ONLY, bob, Permission.READ_ONLY);
+		Assert.assertEquals(expected, config.getEffectivePermissions().getUsers(repository));
+	}
+
+	@Test
+	public void testListingRepositoriesOfUser() {
+		Repository other = config.createRepository("other-repo");
+		repository.setPermission(staff, Permission.READ_WRITE);
+		other.setPermission(bob, Permission.ALL);
+
+		Assert.assertEquals(ImmutableMap.of(repository, Permission.READ_WRITE),
+				config.getEffectivePermissions().getRepositories(alice));
+		Assert.assertEquals(ImmutableMap.of(other, Permission.ALL),
+				config.getEffectivePermissions().getRepositories(bob));
+	}
+
+	@Test
+	public void testListingGroupsOfUser() {
+		Assert.assertEquals(ImmutableSet.of(developers, staff), config.getEffectivePermissions().getGroups(alice));
+		Assert.assertEquals(ImmutableSet.of(), config.getEffectivePermissions().getGroups(bob));
+	}
+
+	@Test
+	public void testThatResultIsReusedUntilConfigChanges() {
+		EffectivePermissions first = config.getEffectivePermissions();
+		Assert.assertSame(first, config.getEffectivePermissions());
+
+		staff.add(bob);
+		EffectivePermissions second = config.getEffectivePermissions();
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(ImmutableSet.of(staff), second.getGroups(bob));
+	}
+
+	@Test
+	public void testThatOnlyChangedRepositoriesAreComputedAgain() {
+		repository.setPermission(developers, Permission.READ_WRITE);
+		Repository other = config.createRepository("other-repo");
+		other.setPermission(alice, Permission.READ_ONLY);
+		EffectivePermissions first = config.getEffectivePermissions();
+
+		other.setPermission(bob, Permission.ALL);
+		alice.setKey("laptop", "ssh-rsa AAAAB3NzaC1yc2E alice@localhost");
+		Repository created = config.createRepository("created-repo");
+		created.setPermission(staff, Permission.READ_ONLY);
+		EffectivePermissions second = config.getEffectivePermissions();
+
+		Assert.assertEquals(Permission.ALL, second.getPermission(bob, other));
+		Assert.assertEquals(Permission.READ_WRITE, second.getPermission(alice, repository));
+		Assert.assertEquals(ImmutableMap.of(created, Permission.READ_ONLY, other, Permission.READ_ONLY, 
+				repository, Permission.READ_WRITE), second.getRepositories(alice));
+		Assert.assertNull(first.getPermission(bob, other));
+
+		config.removeRepository(other);
+		Assert.assertNull(config.getEffectivePermissions().getPermission(bob, other));
+	}
+
+	@Test
+	public void testThatMembershipChangeAfterPermissionChangeIsResolved() {
+		repository.setPermission(staff, Permission.READ_ONLY);
+		config.getEffectivePermissions();
+
+		repository.setPermission(bob, Permission.READ_WRITE);
+		config.getEffectivePermissions();
+		developers.remove(alice);
+
+		EffectivePermissions permissions = config.getEffectivePermissions();
+		Assert.assertNull(permissions.getPermission(alice, repository));
+		Assert.assertEquals(Permission.READ_WRITE, permissions.getPermission(bob, repository));
+	}
+
+	@Test
+	public void testThatMembershipChangeOfNestedGroupIsResolvedForContainingGroups() {
+		Group testers = config.createGroup("@testers");
+		Repository other = config.createRepository("other-repo");
+		repository.setPermission(staff, Permission.READ_WRITE);
+		other.setPermission(testers, Permission.READ_ONLY);
+		EffectivePermissions first = config.getEffectivePermissions();
+
+		developers.add(bob);
+		EffectivePermissions second = config.getEffectivePermissions();
+		Assert.assertEquals(ImmutableSet.of(developers, staff), second.getGroups(bob));
+		Assert.assertEquals(ImmutableMap.of(repository, Permission.READ_WRITE), second.getRepositories(bob));
+		Assert.assertEquals(ImmutableSet.of(developers, staff), second.getGroups(alice));
+		Assert.assertNull(first.getPermission(bob, repository));
+
+		staff.add(testers);
+		testers.add(bob);
+		developers.remove(bob);
+		EffectivePermissions third = config.getEffectivePermissions();
+		Assert.assertEquals(ImmutableSet.of(staff, testers), third.getGroups(bob));
+		Assert.assertEquals(ImmutableMap.of(other, Permission.READ_ONLY, repository, Permission.READ_WRITE),
+				third.getRepositories(bob));
+		Assert.assertEquals(ImmutableMap.of(repository, Permission.READ_WRITE), third.getRepositories(alice));
+	}
+
+	@Test
+	public void testThatRollbackIsResolved() {
+		config.getEffectivePermissions();
+		config.setSavepoint();
+		repository.setPermission(bob, Permission.ALL);
+		Assert.assertEquals(Permission.ALL, config.getEffectivePermissions().getPermission(bob, repository));
+
+		config.rollbackToSavepoint();
+		config.releaseSavepoint();
+		Assert.assertNull(config.getEffectivePermissions().getPermission(bob, repository));
+	}
+
+}
@@ -0,0 +1,136 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+public class JournalTest {
+
+	private File directory;
+	private Journal journal;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDir();
+		journal = new Journal(directory, 1024);
+		Assert.assertTrue(journal.open().isEmpty());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		journal.close();
+	}
+
+	@Test
+	public void testThatAppendedChangesetsAreReadAfterReopening() throws IOException {
+		long first = journal.append(ImmutableList.of(Operation.createRepository("test-repo")));
+		long second = journal.append(ImmutableList.of(Operation.createUser("test-user"),
+				Operation.setKey("test-user", "laptop", "ssh-rsa AAAAB3NzaC1yc2E test@localhost")));
+		journal.sync(second);
+		journal.close();
+
+		List<Journal.Entry> entries = reopen();
+		Assert.assertEquals(2, entries.size());
+		Assert.assertEquals(first, entries.get(0).getSequence());
+		Assert.assertEquals(Operation.Type.CREATE_REPOSITORY, entries.get(0).getChangeset().get(0).getType());
+		Assert.assertEquals(ImmutableList.of("test-user", "laptop", "ssh-rsa AAAAB3NzaC1yc2E test@localhost"),
+				entries.get(1).getChangeset().get(1).getArguments());
+		Assert.assertTrue(journal.append(ImmutableList.of(Operation.createGroup("@test"))) > second);
+	}
+
+	@Test
+	public void testThatCompletedChangesetsAreNotReadAfterReopening() throws IOException {
+		long first = journal.append(ImmutableList.of(Operation.createRepository("test-repo-1")));
+		long second = journal.append(ImmutableList.of(Operation.createRepository("test-repo-2")));
+		journal.complete(first);
+		journal.close();
+
+		List<Journal.Entry> entries = reopen();
+		Assert.assertEquals(1, entries.size());
+		Assert.assertEquals(second, entries.get(0).getSequence());
+	}
+
+	@Test
+	public void testThatCompletedSegmentsAreRemoved() throws IOException {
+		long last = 0;
+		for (int i = 0; i < 100; i++) {
+			last = journal.append(ImmutableList.of(Operation.createRepository("test-repo-" + i)));
+		}
+		Assert.assertTrue(directory.listFiles().length > 1);
+
+		for (long sequence = 1; sequence <= last; sequence++) {
+			journal.complete(sequence);
+		}
+		Assert.assertEquals(1, directory.listFiles().length);
+
+		journal.close();
+		Assert.assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void testThatReadingStopsAtCorruptedRecord() throws IOException {
+		journal.append(ImmutableList.of(Operation.createRepository("test-repo-1")));
+		journal.append(ImmutableList.of(Operation.createRepository("test-repo-2")));
+		journal.close();
+
+		File segment = directory.listFiles()[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(file.length() - 1);
+			file.write('X');
+		}
+
+		List<Journal.Entry> entries = reopen();
+		Assert.assertEquals(1, entries.size());
+		Assert.assertEquals(ImmutableList.of("test-repo-1"), entries.get(0).getChangeset().get(0).getArguments());
+	}
+
+	@Test
+	public void testThatConcurrentlySyncedChangesetsAreReadAfterReopening() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> futures = Lists.newArrayList();
+			for (int i = 0; i < 8; i++) {
+				final int thread = i;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						for (int j = 0; j < 50; j++) {
+							String repoName = "test-repo-" + thread + "-" + j;
+							journal.sync(journal.append(ImmutableList.of(Operation.createRepository(repoName))));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		journal.close();
+
+		Assert.assertEquals(400, reopen().size());
+	}
+
+	private List<Journal.Entry> reopen() throws IOException {
+		journal = new Journal(directory, 1024);
+		return journal.open();
+	}
+
+}
@@ -4,11 +4,13 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import java.util.Map;
 
 import nl.minicom.gitolite.manager.git.KeyGenerator;
 import nl.minicom.gitolite.manager.models.Config;
 import nl.minicom.gitolite.manager.models.KeyReader;
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -106,6 +108,58 @@ public class KeyReaderTest {
 		Assert.assertEquals(expectedKeys, config.getUser("test-user-2").getKeys());
 	}
 
+	@Test
+	public void testReadingManyKeysConcurrently() throws IOException {
+		File keyDir = Files.createTempDir();
+		for (int i = 0; i < 100; i++) {
+			writeKeyFile(keyDir, "test-user-" + i, "iMac", KEY_CONTENTS + i);
+		}
+
+		Config sequential = new Config();
+		KeyReader.readKeys(sequential, keyDir, 1);
+		Config concurrent = new Config();
+		KeyReader.readKeys(concurrent, keyDir, 8);
+
+		Assert.assertEquals(100, concurrent.getUsers().size());
+		for (int i = 0; i < 100; i++) {
+			String userName = "test-user-" + i;
+			Assert.assertEquals(KEY_CONTENTS + i, concurrent.getUser(userName).getKeys().get("iMac"));
+			Assert.assertEquals(sequential.getUser(userName).getKeys(), concurrent.getUser(userName).getKeys());
+		}
+	}
+
+	@Test
+	public void testRegisteringKeysRecordsEveryKeyOfEveryUser() throws IOException {
+		Config config = new Config();
+		Map<String, String> files = Maps.newTreeMap();
+		files.put("test-user-1@iMac.pub", KEY_CONTENTS);
+		files.put("test-user-1@MacBook-Air.pub", KEY_CONTENTS);
+		files.put("test-user-2.pub", KEY_CONTENTS);
+		files.put("README", "");
+
+		config.getRecorder().record();
+		KeyReader.registerKeys(config, files);
+		List<Modification> modifications = config.getRecorder().stop();
+
+		expectedKeys.put("iMac", KEY_CONTENTS);
+		expectedKeys.put("MacBook-Air", KEY_CONTENTS);
+		Assert.assertEquals(expectedKeys, config.getUser("test-user-1").getKeys());
+		Assert.assertEquals(KEY_CONTENTS, config.getUser("test-user-2").getKeys().get(""));
+
+		int keysSet = 0;
+		for (Modification modification : modifications) {
+			if (modification instanceof Operation && ((Operation) modification).getType() == Operation.Type.SET_KEY) {
+				keysSet++;
+			}
+		}
+		Assert.assertEquals(3, keysSet);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReadingKeysWithInvalidParallelism() throws IOException {
+		KeyReader.readKeys(new Config(), Files.createTempDir(), 0);
+	}
+
 	private void writeKeyFile(File keyDir, String userName, String keyName, String content) throws IOException {
 		StringBuilder builder = new StringBuilder();
 		builder.append(userName);
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Set;
 
 import nl.minicom.gitolite.manager.git.KeyGenerator;
 import nl.minicom.gitolite.manager.models.Config;
@@ -14,6 +15,8 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 
 public class KeyWriterTest {
@@ -92,6 +95,50 @@ public class KeyWriterTest {
 		Assert.assertEquals(KEY_CONTENTS , readKey(keyDir, "test-user-2@MacBook-Air.pub"));
 	}
 
+	@Test
+	public void testThatOnlyChangedKeysAreWritten() throws IOException {
+		File keyDir = Files.createTempDir();
+		Config previous = new Config();
+		previous.ensureUserExists("test-user-1").setKey("", KEY_CONTENTS);
+		previous.ensureUserExists("test-user-2").setKey("", KEY_CONTENTS);
+
+		Config config = previous.copy();
+		config.getUser("test-user-2").setKey("", KEY_CONTENTS + " changed");
+		config.ensureUserExists("test-user-3").setKey("iMac", KEY_CONTENTS);
+
+		Set<File> written = KeyWriter.writeKeys(config, previous, keyDir);
+
+		Assert.assertEquals(Sets.newHashSet(new File(keyDir, "test-user-2.pub"), new File(keyDir, "test-user-3@iMac.pub")), written);
+		Assert.assertFalse(new File(keyDir, "test-user-1.pub").exists());
+	}
+
+	@Test
+	public void testListingKeyFiles() {
+		Config config = new Config();
+		config.ensureUserExists("test-user-1").setKey("", KEY_CONTENTS);
+		config.ensureUserExists("test-user-2").setKey("iMac", KEY_CONTENTS);
+
+		Assert.assertEquals(Sets.newHashSet("test-user-1.pub", "test-user-2@iMac.pub"), KeyWriter.listKeyFiles(config));
+	}
+
+	@Test
+	public void testThatExistingKeysAreReplacedWithoutLeavingTemporaryFiles() throws IOException {
+		File keyDir = Files.createTempDir();
+		Files.write("old contents", new File(keyDir, "test-user-1.pub"), Charsets.UTF_8);
+
+		int keys = 3;
+		Config config = new Config();
+		for (int i = 1; i <= keys; i++) {
+			config.ensureUserExists("test-user-" + i).setKey("", KEY_CONTENTS);
+		}
+
+		Set<File> written = KeyWriter.writeKeys(config, keyDir);
+
+		Assert.assertEquals(keys, written.size());
+		Assert.assertEquals(keys, keyDir.list().length);
+		Assert.assertEquals(KEY_CONTENTS, readKey(keyDir, "test-user-1.pub"));
+	}
+
 	private String readKey(File keyDir, String keyFileName) throws IOException {
 		StringBuilder builder = new StringBuilder();
 		BufferedReader reader = new BufferedReader(new FileReader(new File(keyDir, keyFileName)));
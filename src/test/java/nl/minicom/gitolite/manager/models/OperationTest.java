@@ -0,0 +1,101 @@
+package nl.minicom.gitolite.manager.models;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+
+import nl.minicom.gitolite.manager.exceptions.ModificationException;
+import nl.minicom.gitolite.manager.models.Recorder.Modification;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class OperationTest {
+
+	private static final String KEY = "ssh-rsa AAAAB3NzaC1yc2EAAAADAQABAAABAQC test@localhost";
+
+	@Test
+	public void testThatRecordedChangesAreOperations() {
+		Config config = new Config();
+		config.getRecorder().record();
+		config.createRepository("test-repo");
+		config.createUser("test-user").setKey("laptop", KEY);
+
+		for (Modification modification : config.getRecorder().stop()) {
+			Assert.assertTrue(modification instanceof Operation);
+		}
+	}
+
+	@Test
+	public void testSerializingAndReplayingOperations() throws Exception {
+		Config config = new Config();
+		config.getRecorder().record();
+		Repository repository = config.createRepository("test-repo");
+		User user = config.createUser("test-user");
+		Group group = config.createGroup("@test-group");
+		group.add(user);
+		user.setKey("laptop", KEY);
+		repository.setPermission(group, Permission.READ_WRITE);
+
+		List<Modification> replayed = roundTrip(config.getRecorder().stop());
+		Config target = new Config();
+		for (Modification modification : replayed) {
+			modification.apply(target);
+		}
+
+		Assert.assertTrue(target.getGroup("@test-group").containsUser(target.getUser("test-user")));
+		Assert.assertEquals(KEY, target.getUser("test-user").getKeys().get("laptop"));
+		Assert.assertEquals(Permission.READ_WRITE, target.getEffectivePermissions()
+				.getPermission(target.getUser("test-user"), target.getRepository("test-repo")));
+	}
+
+	@Test
+	public void testReadAndWriteSets() {
+		Config config = new Config();
+		Operation operation = Operation.setPermission("test-repo", config.createUser("test-user"), Permission.ALL);
+
+		Assert.assertEquals(ImmutableSet.of(EntityKey.repository("test-repo"), EntityKey.user("test-user")), 
+				operation.getReadSet());
+		Assert.assertEquals(ImmutableSet.of(EntityKey.permission("test-repo", "test-user")), 
+				operation.getWriteSet());
+	}
+
+	@Test
+	public void testThatConflictingEntityIsReported() {
+		Config config = new Config();
+		config.createRepository("test-repo");
+
+		try {
+			Operation.createRepository("test-repo").apply(config);
+			Assert.fail("Expected a conflict");
+		}
+		catch (ModificationException e) {
+			Assert.assertEquals(EntityKey.repository("test-repo"), EntityKey.of(e));
+		}
+
+		try {
+			Operation.addUser("@missing-group", "test-user").apply(config);
+			Assert.fail("Expected a conflict");
+		}
+		catch (ModificationException e) {
+			Assert.assertEquals(EntityKey.group("@missing-group"), EntityKey.of(e));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Modification> roundTrip(List<Modification> modifications) throws IOException, ClassNotFoundException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(modifications);
+		out.close();
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		return (List<Modification>) in.readObject();
+	}
+
+}